@@ -22,6 +22,7 @@
  */
 package de.muenchen.oss.ad2image.app;
 
+import de.muenchen.oss.ad2image.starter.core.AvatarImage;
 import de.muenchen.oss.ad2image.starter.core.ImageSize;
 import de.muenchen.oss.ad2image.starter.core.Mode;
 import de.muenchen.oss.ad2image.starter.spring.AvatarService;
@@ -36,12 +37,17 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.time.Instant;
 
 @SpringBootTest(
         webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
@@ -75,79 +81,192 @@ class AvatarApplicationTest {
 
     @Test
     void avatar_request_ok() throws IOException {
-        Mockito.when(service.get(Mockito.anyString(), Mockito.any(), Mockito.anyInt()))
-                .thenReturn(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()));
+        Mockito.when(service.getImage(Mockito.anyString(), Mockito.any(), Mockito.anyInt()))
+                .thenReturn(AvatarImage.of(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()), Instant.now()));
 
         ResponseEntity<String> response = restTemplate.getForEntity("http://localhost:" + port + "/avatar?uid=dummy.user", String.class);
         Assertions.assertThat(response.getStatusCode().value()).isEqualTo(200);
 
-        Mockito.verify(service).get("dummy.user", Mode.M_FALLBACK_GENERIC, ImageSize.HR64.getSizePixels());
+        Mockito.verify(service).getImage("dummy.user", Mode.M_FALLBACK_GENERIC, ImageSize.HR64.getSizePixels());
+    }
+
+    @Test
+    void avatar_request_with_matching_etag_not_modified() throws IOException {
+        AvatarImage avatar = AvatarImage.of(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()), Instant.now());
+        Mockito.when(service.getImage(Mockito.anyString(), Mockito.any(), Mockito.anyInt())).thenReturn(avatar);
+
+        ResponseEntity<byte[]> response = restTemplate.getForEntity("http://localhost:" + port + "/avatar?uid=dummy.user", byte[].class);
+        Assertions.assertThat(response.getStatusCode().value()).isEqualTo(200);
+        Assertions.assertThat(response.getHeaders().getETag()).isEqualTo("\"" + avatar.etag() + "\"");
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(response.getHeaders().getETag());
+        ResponseEntity<byte[]> revalidation = restTemplate.exchange("http://localhost:" + port + "/avatar?uid=dummy.user", HttpMethod.GET,
+                new HttpEntity<>(headers), byte[].class);
+        Assertions.assertThat(revalidation.getStatusCode().value()).isEqualTo(304);
+        Assertions.assertThat(revalidation.getBody()).isNull();
+    }
+
+    @Test
+    void degraded_avatar_is_sent_without_validators() throws IOException {
+        Mockito.when(service.getImage(Mockito.anyString(), Mockito.any(), Mockito.anyInt()))
+                .thenReturn(AvatarImage.degraded(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()), Instant.now()));
+
+        ResponseEntity<byte[]> response = restTemplate.getForEntity("http://localhost:" + port + "/avatar?uid=dummy.user", byte[].class);
+        Assertions.assertThat(response.getStatusCode().value()).isEqualTo(200);
+        Assertions.assertThat(response.getHeaders().getETag()).isNull();
+        Assertions.assertThat(response.getHeaders().getLastModified()).isEqualTo(-1);
+        Assertions.assertThat(response.getHeaders().getCacheControl()).isEqualTo("max-age=60");
+    }
+
+    @Test
+    void avatar_request_not_modified_since_is_answered_without_loading_avatar() throws IOException {
+        Instant lastModified = Instant.parse("2024-03-01T12:00:00Z");
+        Mockito.when(service.getLastModified("dummy.user")).thenReturn(lastModified);
+        Mockito.when(service.getImage(Mockito.anyString(), Mockito.any(), Mockito.anyInt()))
+                .thenReturn(AvatarImage.of(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()), Instant.now(),
+                        lastModified));
+
+        ResponseEntity<byte[]> response = restTemplate.getForEntity("http://localhost:" + port + "/avatar?uid=dummy.user", byte[].class);
+        Assertions.assertThat(response.getStatusCode().value()).isEqualTo(200);
+        Assertions.assertThat(response.getHeaders().getLastModified()).isEqualTo(lastModified.toEpochMilli());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfModifiedSince(lastModified);
+        ResponseEntity<byte[]> revalidation = restTemplate.exchange("http://localhost:" + port + "/avatar?uid=dummy.user", HttpMethod.GET,
+                new HttpEntity<>(headers), byte[].class);
+        Assertions.assertThat(revalidation.getStatusCode().value()).isEqualTo(304);
+        Assertions.assertThat(revalidation.getBody()).isNull();
+
+        Mockito.verify(service, Mockito.times(1)).getImage("dummy.user", Mode.M_FALLBACK_GENERIC, ImageSize.HR64.getSizePixels());
+        // the unconditional request takes the modification time from the avatar
+        Mockito.verify(service, Mockito.times(1)).getLastModified("dummy.user");
+    }
+
+    @Test
+    void batch_avatar_request_ok() throws IOException {
+        Mockito.when(service.getImage(Mockito.anyString(), Mockito.any(), Mockito.anyInt()))
+                .thenReturn(AvatarImage.of(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()), Instant.now()));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ResponseEntity<String> response = restTemplate.exchange("http://localhost:" + port + "/avatars", HttpMethod.POST,
+                new HttpEntity<>("{\"uids\": [\"dummy.user\", \"other.user\"], \"m\": \"identicon\"}", headers), String.class);
+        Assertions.assertThat(response.getStatusCode().value()).isEqualTo(200);
+        Assertions.assertThat(response.getHeaders().getContentType().isCompatibleWith(MediaType.MULTIPART_MIXED)).isTrue();
+        Assertions.assertThat(response.getBody()).contains("name=\"dummy.user\"", "name=\"other.user\"");
+
+        Mockito.verify(service).getImage("dummy.user", Mode.M_IDENTICON, ImageSize.HR64.getSizePixels());
+        Mockito.verify(service).getImage("other.user", Mode.M_IDENTICON, ImageSize.HR64.getSizePixels());
+    }
+
+    @Test
+    void sprite_request_ok() throws IOException {
+        Mockito.when(service.getImage(Mockito.anyString(), Mockito.any(), Mockito.anyInt()))
+                .thenReturn(AvatarImage.of(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()), Instant.now()));
+
+        ResponseEntity<String> layout = restTemplate.getForEntity("http://localhost:" + port + "/avatars/sprite/layout?uids=a.user,b.user&size=32",
+                String.class);
+        Assertions.assertThat(layout.getStatusCode().value()).isEqualTo(200);
+        Assertions.assertThat(layout.getBody()).contains("\"columns\":2", "\"b.user\":{\"x\":32,\"y\":0}");
+
+        ResponseEntity<byte[]> sprite = restTemplate.getForEntity("http://localhost:" + port + "/avatars/sprite?uids=a.user,b.user&size=32",
+                byte[].class);
+        Assertions.assertThat(sprite.getStatusCode().value()).isEqualTo(200);
+        Assertions.assertThat(sprite.getHeaders().getContentType()).isEqualTo(MediaType.IMAGE_PNG);
+
+        // the second request is served from the cached sprite sheet
+        Mockito.verify(service, Mockito.times(1)).getImage("a.user", Mode.M_FALLBACK_GENERIC, 32);
+    }
+
+    @Test
+    void sprite_request_with_version_of_layout() throws IOException {
+        Mockito.when(service.getImage(Mockito.anyString(), Mockito.any(), Mockito.anyInt()))
+                .thenReturn(AvatarImage.of(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()), Instant.now()));
+        String url = "http://localhost:" + port + "/avatars/sprite?uids=c.user,d.user&size=32";
+
+        ResponseEntity<String> layout = restTemplate.getForEntity("http://localhost:" + port + "/avatars/sprite/layout?uids=c.user,d.user&size=32",
+                String.class);
+        String version = layout.getHeaders().getETag().replace("\"", "");
+        Assertions.assertThat(layout.getBody()).contains("\"version\":\"" + version + "\"");
+
+        Assertions.assertThat(restTemplate.getForEntity(url + "&v=" + version, byte[].class).getStatusCode().value()).isEqualTo(200);
+        Assertions.assertThat(restTemplate.getForEntity(url + "&v=outdated", byte[].class).getStatusCode().value()).isEqualTo(412);
+    }
+
+    @Test
+    void too_large_sprite_request_is_rejected_before_fetching_avatars() {
+        ResponseEntity<byte[]> sprite = restTemplate.getForEntity(
+                "http://localhost:" + port + "/avatars/sprite?uids=a.user,b.user,c.user,d.user,e.user&size=2048", byte[].class);
+
+        Assertions.assertThat(sprite.getStatusCode().value()).isEqualTo(400);
+        Mockito.verify(service, Mockito.never()).getImage(Mockito.anyString(), Mockito.any(), Mockito.anyInt());
     }
 
     @Test
     void gravatar_request_ok() throws IOException {
         Mockito.when(gravatarHashMapService.getUidForSha256MailHash(Mockito.anyString())).thenReturn("dummy.user");
-        Mockito.when(service.get(Mockito.anyString(), Mockito.any(), Mockito.anyInt()))
-                .thenReturn(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()));
+        Mockito.when(service.getImage(Mockito.anyString(), Mockito.any(), Mockito.anyInt(), Mockito.any()))
+                .thenReturn(AvatarImage.of(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()), Instant.now()));
 
         ResponseEntity<String> response = restTemplate.getForEntity(
                 "http://localhost:" + port + "/gravatar/963dd12f8d2f181ee9bef66a67f7b3bd87f47e9e3ecc5b534c85766b227daa28", String.class);
         Assertions.assertThat(response.getStatusCode().value()).isEqualTo(200);
 
-        Mockito.verify(service).get("dummy.user", Mode.M_FALLBACK_GENERIC, 80);
+        Mockito.verify(service).getImage("dummy.user", Mode.M_FALLBACK_GENERIC, 80, null);
     }
 
     @Test
     void gravatar_request_md5_ok() throws IOException {
         Mockito.when(gravatarHashMapService.getUidForMd5MailHash(Mockito.anyString())).thenReturn("dummy.user");
-        Mockito.when(service.get(Mockito.anyString(), Mockito.any(), Mockito.anyInt()))
-                .thenReturn(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()));
+        Mockito.when(service.getImage(Mockito.anyString(), Mockito.any(), Mockito.anyInt(), Mockito.any()))
+                .thenReturn(AvatarImage.of(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()), Instant.now()));
 
         ResponseEntity<String> response = restTemplate.getForEntity(
                 "http://localhost:" + port + "/gravatar/54119127076b6ef4cc7653dbac39350f", String.class);
         Assertions.assertThat(response.getStatusCode().value()).isEqualTo(200);
 
-        Mockito.verify(service).get("dummy.user", Mode.M_FALLBACK_GENERIC, 80);
+        Mockito.verify(service).getImage("dummy.user", Mode.M_FALLBACK_GENERIC, 80, null);
     }
 
     @Test
     void gravatar_request_with_mp_parameter() throws IOException {
         Mockito.when(gravatarHashMapService.getUidForSha256MailHash(Mockito.anyString())).thenReturn("dummy.user");
-        Mockito.when(service.get(Mockito.anyString(), Mockito.any(), Mockito.anyInt()))
-                .thenReturn(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()));
+        Mockito.when(service.getImage(Mockito.anyString(), Mockito.any(), Mockito.anyInt(), Mockito.any()))
+                .thenReturn(AvatarImage.of(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()), Instant.now()));
 
         ResponseEntity<String> response = restTemplate.getForEntity(
                 "http://localhost:" + port + "/gravatar/963dd12f8d2f181ee9bef66a67f7b3bd87f47e9e3ecc5b534c85766b227daa28?d=mp", String.class);
         Assertions.assertThat(response.getStatusCode().value()).isEqualTo(200);
 
-        Mockito.verify(service).get("dummy.user", Mode.M_FALLBACK_GENERIC, 80);
+        Mockito.verify(service).getImage("dummy.user", Mode.M_FALLBACK_GENERIC, 80, null);
     }
 
     @Test
     void gravatar_request_with_identicon_parameter() throws IOException {
         Mockito.when(gravatarHashMapService.getUidForSha256MailHash(Mockito.anyString())).thenReturn("dummy.user");
-        Mockito.when(service.get(Mockito.anyString(), Mockito.any(), Mockito.anyInt()))
-                .thenReturn(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()));
+        Mockito.when(service.getImage(Mockito.anyString(), Mockito.any(), Mockito.anyInt(), Mockito.any()))
+                .thenReturn(AvatarImage.of(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()), Instant.now()));
 
         ResponseEntity<String> response = restTemplate.getForEntity(
                 "http://localhost:" + port + "/gravatar/963dd12f8d2f181ee9bef66a67f7b3bd87f47e9e3ecc5b534c85766b227daa28?d=identicon", String.class);
         Assertions.assertThat(response.getStatusCode().value()).isEqualTo(200);
 
-        Mockito.verify(service).get("dummy.user", Mode.M_FALLBACK_IDENTICON, 80);
+        Mockito.verify(service).getImage("dummy.user", Mode.M_FALLBACK_IDENTICON, 80, null);
     }
 
     @Test
     void gravatar_request_with_unsupported_default_parameter() throws IOException {
         Mockito.when(gravatarHashMapService.getUidForSha256MailHash(Mockito.anyString())).thenReturn("dummy.user");
-        Mockito.when(service.get(Mockito.anyString(), Mockito.any(), Mockito.anyInt()))
-                .thenReturn(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()));
+        Mockito.when(service.getImage(Mockito.anyString(), Mockito.any(), Mockito.anyInt(), Mockito.any()))
+                .thenReturn(AvatarImage.of(Files.readAllBytes(new ClassPathResource("account_dummy.png").getFile().toPath()), Instant.now()));
 
         ResponseEntity<String> response = restTemplate.getForEntity(
                 "http://localhost:" + port + "/gravatar/963dd12f8d2f181ee9bef66a67f7b3bd87f47e9e3ecc5b534c85766b227daa28?d=monsterid", String.class);
         Assertions.assertThat(response.getStatusCode().value()).isEqualTo(200);
 
         // Should fall back to gravatar default mode (M_FALLBACK_GENERIC)
-        Mockito.verify(service).get("dummy.user", Mode.M_FALLBACK_GENERIC, 80);
+        Mockito.verify(service).getImage("dummy.user", Mode.M_FALLBACK_GENERIC, 80, null);
     }
 
 }
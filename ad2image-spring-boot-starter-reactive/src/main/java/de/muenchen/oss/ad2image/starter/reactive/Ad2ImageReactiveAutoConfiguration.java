@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.reactive;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+
+import de.muenchen.oss.ad2image.starter.core.Ad2ImageConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.AvatarGenerator;
+import de.muenchen.oss.ad2image.starter.core.SizeLadder;
+import de.muenchen.oss.ad2image.starter.spring.Ad2ImageAutoConfiguration;
+import de.muenchen.oss.ad2image.starter.spring.AvatarService;
+import de.muenchen.oss.ad2image.starter.spring.GravatarHashMapService;
+import de.muenchen.oss.ad2image.starter.spring.SizeDistribution;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Registers the WebFlux variants of the avatar and Gravatar endpoints. All services are shared with
+ * the servlet variant, see {@link Ad2ImageAutoConfiguration}.
+ */
+@AutoConfiguration(after = Ad2ImageAutoConfiguration.class)
+@ConditionalOnProperty(value = "de.muenchen.oss.ad2image.enabled", havingValue = "true", matchIfMissing = true)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@EnableConfigurationProperties(ReactiveConfigurationProperties.class)
+public class Ad2ImageReactiveAutoConfiguration {
+
+    @Bean(name = "ad2ImageScheduler", destroyMethod = "dispose")
+    @ConditionalOnMissingBean(name = "ad2ImageScheduler")
+    Scheduler ad2ImageScheduler(ReactiveConfigurationProperties reactiveProps) {
+        return Schedulers.newBoundedElastic(reactiveProps.getThreads(), reactiveProps.getQueuedTasks(), "ad2image");
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    ReactiveAvatarController reactiveAvatarController(AvatarService service, Ad2ImageConfigurationProperties ad2ImageProps, SizeLadder sizeLadder,
+            SizeDistribution sizeDistribution, @Qualifier("ad2ImageScheduler") Scheduler ad2ImageScheduler) {
+        return new ReactiveAvatarController(service, ad2ImageProps, sizeLadder, sizeDistribution, ad2ImageScheduler);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(value = "de.muenchen.oss.ad2image.gravatar.enabled", havingValue = "true")
+    ReactiveGravatarController reactiveGravatarController(AvatarService service, AvatarGenerator avatarGenerator,
+            GravatarHashMapService gravatarHashMapService, Ad2ImageConfigurationProperties ad2ImageProps, SizeLadder sizeLadder,
+            SizeDistribution sizeDistribution, @Qualifier("ad2ImageScheduler") Scheduler ad2ImageScheduler) {
+        return new ReactiveGravatarController(service, avatarGenerator, gravatarHashMapService, ad2ImageProps, sizeLadder, sizeDistribution,
+                ad2ImageScheduler);
+    }
+
+}
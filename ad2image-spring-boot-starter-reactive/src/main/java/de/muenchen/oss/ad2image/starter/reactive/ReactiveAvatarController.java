@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.reactive;
+
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ServerWebExchange;
+
+import de.muenchen.oss.ad2image.starter.core.Ad2ImageConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.AvatarImage;
+import de.muenchen.oss.ad2image.starter.core.ImageSize;
+import de.muenchen.oss.ad2image.starter.core.Mode;
+import de.muenchen.oss.ad2image.starter.core.SizeLadder;
+import de.muenchen.oss.ad2image.starter.spring.AvatarController;
+import de.muenchen.oss.ad2image.starter.spring.AvatarService;
+import de.muenchen.oss.ad2image.starter.spring.ControllerUtils;
+import de.muenchen.oss.ad2image.starter.spring.SizeDistribution;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * WebFlux variant of the {@link AvatarController}. The avatar is rendered by the shared
+ * {@link AvatarService} on the given scheduler, as AD lookups, waiting for Exchange and image
+ * scaling block.
+ */
+@Controller
+@Tag(name = "avatar", description = "the avatar API")
+public class ReactiveAvatarController {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveAvatarController.class);
+
+    private final AvatarService avatarService;
+
+    private final Ad2ImageConfigurationProperties confProps;
+
+    private final SizeLadder sizeLadder;
+
+    private final SizeDistribution sizeDistribution;
+
+    private final Scheduler scheduler;
+
+    public ReactiveAvatarController(AvatarService avatarService, Ad2ImageConfigurationProperties confProps, SizeLadder sizeLadder,
+            SizeDistribution sizeDistribution, Scheduler scheduler) {
+        this.avatarService = avatarService;
+        this.confProps = confProps;
+        this.sizeLadder = sizeLadder;
+        this.sizeDistribution = sizeDistribution;
+        this.scheduler = scheduler;
+    }
+
+    @Operation(summary = "Retrieve a users avatar image", description = "Retrieve a users avatar image")
+    @GetMapping(value = "avatar", produces = { MediaType.IMAGE_PNG_VALUE })
+    public Mono<ResponseEntity<byte[]>> avatar(
+            @Parameter(description = "uid of the user", example = "john.doe", required = true) @RequestParam final String uid,
+            @Parameter(description = "retrieval mode, see the servlet variant of the API") @RequestParam(name = "m", required = false) final String mode,
+            @Parameter(description = "image size") @RequestParam(name = "size", required = false, defaultValue = "64") final int requestedSize,
+            final ServerWebExchange exchange) {
+        log.info("Incoming avatar request for uid='{}', m='{}', size='{}'", uid, mode, requestedSize);
+        int size = ControllerUtils.getSizeInBounds(requestedSize, ImageSize.getAdDefaultImageSize().getSizePixels(), 2048);
+        sizeDistribution.record(size);
+        int ladderSize = sizeLadder.snap(size);
+        if (ladderSize != size && sizeLadder.getStrategy() == SizeLadder.Strategy.REDIRECT) {
+            return Mono.just(ReactiveControllerUtils.redirectToSize(exchange, "size", ladderSize));
+        }
+        Mode resolvedMode = ControllerUtils.resolveMode(mode, confProps.getDefaultMode());
+        boolean resize = ladderSize != size && sizeLadder.getStrategy() == SizeLadder.Strategy.RESIZE;
+        return Mono.fromCallable(() -> {
+            Instant lastModified = null;
+            if (ReactiveControllerUtils.isModifiedSinceRequest(exchange)) {
+                // otherwise the modification time comes with the avatar, without an extra lookup
+                lastModified = avatarService.getLastModified(uid);
+                ResponseEntity<byte[]> notModified = ReactiveControllerUtils.notModifiedSince(exchange, lastModified);
+                if (notModified != null) {
+                    return notModified;
+                }
+            }
+            AvatarImage avatar = avatarService.getImage(uid, resolvedMode, ladderSize);
+            if (avatar != null && avatar.data() != null) {
+                return ReactiveControllerUtils.avatarResponse(exchange, resize ? avatarService.resize(avatar, size) : avatar, lastModified);
+            }
+            return new ResponseEntity<byte[]>(HttpStatus.NOT_FOUND);
+        }).subscribeOn(scheduler);
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.reactive;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.Positive;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Configuration of the scheduler which runs the blocking part of reactive avatar requests (AD
+ * lookups, waiting for Exchange photos, image scaling).
+ */
+@Validated
+@ConfigurationProperties(prefix = "de.muenchen.oss.ad2image.reactive")
+public class ReactiveConfigurationProperties {
+
+    /**
+     * Maximum number of threads rendering avatars, defaults to ten times the number of CPU cores.
+     */
+    @Positive
+    private int threads = Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE;
+
+    /**
+     * Maximum number of avatar requests waiting for a thread, further requests are rejected.
+     */
+    @Positive
+    private int queuedTasks = Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE;
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getQueuedTasks() {
+        return queuedTasks;
+    }
+
+    public void setQueuedTasks(int queuedTasks) {
+        this.queuedTasks = queuedTasks;
+    }
+
+}
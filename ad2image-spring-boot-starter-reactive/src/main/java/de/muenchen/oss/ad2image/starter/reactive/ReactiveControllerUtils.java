@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.reactive;
+
+import java.net.URI;
+import java.time.Instant;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import de.muenchen.oss.ad2image.starter.core.AvatarImage;
+import de.muenchen.oss.ad2image.starter.spring.ControllerUtils;
+
+/**
+ * WebFlux counterparts of the request dependent methods of {@link ControllerUtils}.
+ */
+public class ReactiveControllerUtils {
+
+    /**
+     * Builds a redirect to the current request URL with the size query parameter replaced.
+     *
+     * @param exchange the current exchange
+     * @param sizeParam name of the size query parameter
+     * @param size the size to redirect to
+     * @param sizeAliasParams alias names of the size query parameter which are removed
+     * @return a redirect response
+     */
+    public static <T> ResponseEntity<T> redirectToSize(ServerWebExchange exchange, String sizeParam, int size, String... sizeAliasParams) {
+        UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromUri(exchange.getRequest().getURI());
+        for (String sizeAliasParam : sizeAliasParams) {
+            uriBuilder.replaceQueryParam(sizeAliasParam);
+        }
+        URI location = uriBuilder.replaceQueryParam(sizeParam, size).build(true).toUri();
+        return ResponseEntity.status(HttpStatus.FOUND)
+                .location(location)
+                .cacheControl(ControllerUtils.avatarCacheControl())
+                .build();
+    }
+
+    /**
+     * Same as
+     * {@link ControllerUtils#isModifiedSinceRequest(org.springframework.web.context.request.WebRequest)}.
+     *
+     * @param exchange the current exchange
+     * @return {@code true} if the request can be answered by
+     *         {@link #notModifiedSince(ServerWebExchange, Instant)}
+     */
+    public static boolean isModifiedSinceRequest(ServerWebExchange exchange) {
+        HttpHeaders headers = exchange.getRequest().getHeaders();
+        return headers.getFirst(HttpHeaders.IF_MODIFIED_SINCE) != null && headers.getFirst(HttpHeaders.IF_NONE_MATCH) == null;
+    }
+
+    /**
+     * Same as
+     * {@link ControllerUtils#notModifiedSince(org.springframework.web.context.request.WebRequest, Instant)}.
+     *
+     * @param exchange the current exchange
+     * @param lastModified modification time of the user, may be {@code null}
+     * @return a 304 response without body, or {@code null} if the avatar has to be loaded
+     */
+    public static ResponseEntity<byte[]> notModifiedSince(ServerWebExchange exchange, Instant lastModified) {
+        if (lastModified == null || exchange.getRequest().getHeaders().getFirst(HttpHeaders.IF_NONE_MATCH) != null) {
+            return null;
+        }
+        if (exchange.checkNotModified(lastModified)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).lastModified(lastModified).cacheControl(ControllerUtils.avatarCacheControl()).build();
+        }
+        return null;
+    }
+
+    /**
+     * Same as
+     * {@link ControllerUtils#avatarResponse(org.springframework.web.context.request.WebRequest, AvatarImage, Instant)}.
+     *
+     * @param exchange the current exchange
+     * @param image the avatar, {@link AvatarImage#data()} must not be {@code null}
+     * @param lastModified modification time of the user, {@code null} to use the one the avatar was
+     *            rendered with
+     * @return the response
+     */
+    public static ResponseEntity<byte[]> avatarResponse(ServerWebExchange exchange, AvatarImage image, Instant lastModified) {
+        if (image.degraded()) {
+            return ResponseEntity.ok().cacheControl(ControllerUtils.degradedAvatarCacheControl()).contentType(MediaType.IMAGE_PNG).body(image.data());
+        }
+        String etag = image.etag();
+        if (lastModified == null) {
+            lastModified = image.lastModified();
+        }
+        if (lastModified != null && image.renderedAt().isBefore(lastModified)) {
+            // rendered before the last change of the user, i.e. a stale avatar is served
+            lastModified = image.renderedAt();
+        }
+        boolean notModified = lastModified == null ? exchange.checkNotModified(etag) : exchange.checkNotModified(etag, lastModified);
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(notModified ? HttpStatus.NOT_MODIFIED : HttpStatus.OK)
+                // let the browser cache the avatar
+                .cacheControl(ControllerUtils.avatarCacheControl())
+                .eTag(etag);
+        if (lastModified != null) {
+            response.lastModified(lastModified);
+        }
+        if (notModified) {
+            return response.build();
+        }
+        return response.contentType(MediaType.IMAGE_PNG).body(image.data());
+    }
+
+}
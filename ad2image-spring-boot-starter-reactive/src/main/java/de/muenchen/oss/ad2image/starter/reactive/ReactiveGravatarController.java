@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.reactive;
+
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ServerWebExchange;
+
+import de.muenchen.oss.ad2image.starter.core.Ad2ImageConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.AvatarGenerator;
+import de.muenchen.oss.ad2image.starter.core.AvatarImage;
+import de.muenchen.oss.ad2image.starter.core.Mode;
+import de.muenchen.oss.ad2image.starter.core.SizeLadder;
+import de.muenchen.oss.ad2image.starter.spring.AvatarService;
+import de.muenchen.oss.ad2image.starter.spring.ControllerUtils;
+import de.muenchen.oss.ad2image.starter.spring.GravatarController;
+import de.muenchen.oss.ad2image.starter.spring.GravatarHashMapService;
+import de.muenchen.oss.ad2image.starter.spring.SizeDistribution;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * WebFlux variant of the {@link GravatarController}. The avatar is rendered by the shared
+ * {@link AvatarService} on the given scheduler, as AD lookups, waiting for Exchange and image
+ * scaling block.
+ */
+@Controller
+@Tag(name = "gravatar", description = "<a href=\"https://docs.gravatar.com/sdk/images/\">Gravatar</a> compatibility API")
+public class ReactiveGravatarController {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveGravatarController.class);
+
+    private final AvatarService avatarService;
+    private final AvatarGenerator avatarGenerator;
+    private final GravatarHashMapService gravatarHashMapService;
+    private final Ad2ImageConfigurationProperties confProps;
+    private final SizeLadder sizeLadder;
+    private final SizeDistribution sizeDistribution;
+    private final Scheduler scheduler;
+
+    public ReactiveGravatarController(AvatarService avatarService, AvatarGenerator avatarGenerator, GravatarHashMapService gravatarHashMapService,
+            Ad2ImageConfigurationProperties confProps, SizeLadder sizeLadder, SizeDistribution sizeDistribution, Scheduler scheduler) {
+        this.avatarService = avatarService;
+        this.avatarGenerator = avatarGenerator;
+        this.gravatarHashMapService = gravatarHashMapService;
+        this.confProps = confProps;
+        this.sizeLadder = sizeLadder;
+        this.sizeDistribution = sizeDistribution;
+        this.scheduler = scheduler;
+    }
+
+    @Operation(summary = "Retrieve a users avatar image", description = "Retrieve a users avatar image based on their email hash.")
+    @GetMapping(value = "gravatar/{mailhash}", produces = { MediaType.IMAGE_PNG_VALUE })
+    public Mono<ResponseEntity<byte[]>> avatar(
+            @Parameter(description = "SHA256 hash of a users email address (MD5 is also accepted but DEPRECATED)", required = true) @PathVariable(
+                    name = "mailhash"
+            ) String mailHash,
+            @Parameter(description = "overrides the default when an account has no image stored") @RequestParam(
+                    name = "d", required = false
+            ) final String dParam,
+            @Parameter(hidden = true) @RequestParam(name = "default", required = false) final String defaultParam,
+            @Parameter(description = "image size in pixels") @RequestParam(name = "s", required = false) final Integer requestedSParam,
+            @Parameter(hidden = true) @RequestParam(name = "size", required = false) final Integer requestedSizeParam,
+            final ServerWebExchange exchange) {
+        String requestedDefault = dParam != null ? dParam : defaultParam;
+        Integer requestedSize = requestedSParam != null ? requestedSParam : requestedSizeParam;
+        int size = ControllerUtils.getSizeInBounds(requestedSize == null ? 80 : requestedSize, 80, 2048);
+        log.debug("Incoming gravatar request for mailHash='{}', d='{}', s='{}'", mailHash, requestedDefault, size);
+        sizeDistribution.record(size);
+        int ladderSize = sizeLadder.snap(size);
+        if (ladderSize != size && sizeLadder.getStrategy() == SizeLadder.Strategy.REDIRECT) {
+            return Mono.just(ReactiveControllerUtils.redirectToSize(exchange, "s", ladderSize, "size"));
+        }
+        Mode resolvedMode = ControllerUtils.resolveGravatarMode(requestedDefault, confProps.getGravatar().getDefaultMode());
+        boolean resize = ladderSize != size && sizeLadder.getStrategy() == SizeLadder.Strategy.RESIZE;
+        String uid = mailHash.length() == 64 ? gravatarHashMapService.getUidForSha256MailHash(mailHash.toLowerCase())
+                : gravatarHashMapService.getUidForMd5MailHash(mailHash.toLowerCase());
+        if (uid == null) {
+            log.debug("No uid found for mailHash='{}'.", mailHash);
+            if (resolvedMode.equals(Mode.M_404)) {
+                return Mono.just(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+            }
+            AvatarGenerator.AvatarType avatarType = resolvedMode.equals(Mode.M_FALLBACK_GENERIC) ? AvatarGenerator.AvatarType.GENERIC
+                    : AvatarGenerator.AvatarType.IDENTICON;
+            return Mono.fromCallable(() -> {
+                AvatarImage avatar = AvatarImage.of(avatarGenerator.generateAvatar(mailHash, avatarType, ladderSize), Instant.now());
+                return ReactiveControllerUtils.avatarResponse(exchange, resize ? avatarService.resize(avatar, size) : avatar, null);
+            }).subscribeOn(scheduler);
+        }
+        log.info("Incoming gravatar request for mailHash='{}', d='{}' (=> m='{}'), size='{}' - resolved to uid='{}'", mailHash, requestedDefault,
+                resolvedMode, size, uid);
+        return Mono.fromCallable(() -> {
+            AvatarService.SpeculativePhotoFetch speculativePhoto = null;
+            if (confProps.getGravatar().isSpeculativePhotoFetch()) {
+                // the mail address is known from the hash, so Exchange does not need to wait for any directory lookup
+                speculativePhoto = avatarService.fetchPhotoSpeculatively(uid, resolvedMode, ladderSize, gravatarHashMapService.getEmailForUid(uid));
+            }
+            Instant lastModified = null;
+            if (ReactiveControllerUtils.isModifiedSinceRequest(exchange)) {
+                // otherwise the modification time comes with the avatar, without an extra lookup
+                lastModified = avatarService.getLastModified(uid);
+                ResponseEntity<byte[]> notModified = ReactiveControllerUtils.notModifiedSince(exchange, lastModified);
+                if (notModified != null) {
+                    avatarService.discard(speculativePhoto);
+                    return notModified;
+                }
+            }
+            AvatarImage avatar = avatarService.getImage(uid, resolvedMode, ladderSize, speculativePhoto);
+            if (avatar == null || avatar.data() == null) {
+                log.debug("user '{}' not found in directory or user has no image and no fallback specified - returning 404.", uid);
+                return new ResponseEntity<byte[]>(HttpStatus.NOT_FOUND);
+            }
+            return ReactiveControllerUtils.avatarResponse(exchange, resize ? avatarService.resize(avatar, size) : avatar, lastModified);
+        }).subscribeOn(scheduler);
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.reactive;
+
+import de.muenchen.oss.ad2image.starter.core.AvatarImage;
+import de.muenchen.oss.ad2image.starter.core.Mode;
+import de.muenchen.oss.ad2image.starter.reactive.ReactiveAvatarController;
+import de.muenchen.oss.ad2image.starter.spring.AvatarController;
+import de.muenchen.oss.ad2image.starter.spring.AvatarService;
+import de.muenchen.oss.ad2image.starter.spring.GravatarHashMapService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(
+        properties = {
+                "de.muenchen.oss.ad2image.ews.username=dummyUser",
+                "de.muenchen.oss.ad2image.ews.password=dummyPassword",
+                "de.muenchen.oss.ad2image.ews.ews-service-url=http://localhost/Exchange.asmx",
+                "de.muenchen.oss.ad2image.ad.url=ldap://localhost:389",
+                "de.muenchen.oss.ad2image.ad.user-dn=CN=user,DC=dummy,DC=domain",
+                "de.muenchen.oss.ad2image.ad.password=dummyPassword",
+                "de.muenchen.oss.ad2image.ad.user-search-base=DC=dummy,DC=domain",
+                "de.muenchen.oss.ad2image.gravatar.enabled=true",
+        }
+)
+class ReactiveAvatarControllerTest {
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration
+    static class TestApplication {
+    }
+
+    @MockitoBean(name = "ad2ImageLdapTemplate")
+    private LdapTemplate ldapTemplate;
+
+    @MockitoBean
+    private AvatarService service;
+
+    @MockitoBean
+    private GravatarHashMapService gravatarHashMapService;
+
+    @Autowired
+    private ApplicationContext context;
+
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() {
+        client = WebTestClient.bindToApplicationContext(context).build();
+    }
+
+    @Test
+    void only_reactive_controllers_are_registered() {
+        assertThat(context.getBeanNamesForType(ReactiveAvatarController.class)).hasSize(1);
+        assertThat(context.getBeanNamesForType(AvatarController.class)).isEmpty();
+    }
+
+    @Test
+    void avatar_request_ok() {
+        AvatarImage avatar = AvatarImage.of(new byte[] { 1, 2, 3 }, Instant.now());
+        Mockito.when(service.getImage("dummy.user", Mode.M_FALLBACK_GENERIC, 64)).thenReturn(avatar);
+
+        client.get().uri("/avatar?uid=dummy.user").exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType("image/png")
+                .expectHeader().valueEquals("ETag", "\"" + avatar.etag() + "\"")
+                .expectBody(byte[].class).isEqualTo(new byte[] { 1, 2, 3 });
+    }
+
+    @Test
+    void avatar_request_with_matching_etag_not_modified() {
+        AvatarImage avatar = AvatarImage.of(new byte[] { 1, 2, 3 }, Instant.now());
+        Mockito.when(service.getImage("dummy.user", Mode.M_FALLBACK_GENERIC, 64)).thenReturn(avatar);
+
+        client.get().uri("/avatar?uid=dummy.user").header("If-None-Match", "\"" + avatar.etag() + "\"").exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    void degraded_avatar_is_sent_without_validators() {
+        Mockito.when(service.getImage("dummy.user", Mode.M_FALLBACK_GENERIC, 64)).thenReturn(AvatarImage.degraded(new byte[] { 1, 2, 3 }, Instant.now()));
+
+        client.get().uri("/avatar?uid=dummy.user").exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist("ETag")
+                .expectHeader().doesNotExist("Last-Modified")
+                .expectHeader().cacheControl(CacheControl.maxAge(1, TimeUnit.MINUTES))
+                .expectBody(byte[].class).isEqualTo(new byte[] { 1, 2, 3 });
+    }
+
+    @Test
+    void avatar_request_not_found() {
+        Mockito.when(service.getImage("dummy.user", Mode.M_404, 64)).thenReturn(AvatarImage.of(null, Instant.now()));
+
+        client.get().uri("/avatar?uid=dummy.user&m=404").exchange()
+                .expectStatus().isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    void gravatar_request_ok() {
+        Mockito.when(gravatarHashMapService.getUidForSha256MailHash(Mockito.anyString())).thenReturn("dummy.user");
+        Mockito.when(service.getImage(Mockito.anyString(), Mockito.any(), Mockito.anyInt(), Mockito.any()))
+                .thenReturn(AvatarImage.of(new byte[] { 1 }, Instant.now()));
+
+        client.get().uri("/gravatar/963dd12f8d2f181ee9bef66a67f7b3bd87f47e9e3ecc5b534c85766b227daa28?d=identicon").exchange()
+                .expectStatus().isOk();
+
+        Mockito.verify(service).getImage("dummy.user", Mode.M_FALLBACK_IDENTICON, 80, null);
+    }
+
+}
@@ -48,6 +48,34 @@ public class Ad2ImageConfigurationProperties {
     @Valid
     private GravatarConfigurationProperties gravatar;
 
+    @NestedConfigurationProperty
+    @Valid
+    private SizeLadderConfigurationProperties sizeLadder = new SizeLadderConfigurationProperties();
+
+    @NestedConfigurationProperty
+    @Valid
+    private CacheConfigurationProperties cache = new CacheConfigurationProperties();
+
+    @NestedConfigurationProperty
+    @Valid
+    private AvatarStoreConfigurationProperties store = new AvatarStoreConfigurationProperties();
+
+    @NestedConfigurationProperty
+    @Valid
+    private AvatarRefreshConfigurationProperties avatarRefresh = new AvatarRefreshConfigurationProperties();
+
+    @NestedConfigurationProperty
+    @Valid
+    private DirectoryWatcherConfigurationProperties directoryWatcher = new DirectoryWatcherConfigurationProperties();
+
+    @NestedConfigurationProperty
+    @Valid
+    private BatchConfigurationProperties batch = new BatchConfigurationProperties();
+
+    @NestedConfigurationProperty
+    @Valid
+    private ImageConfigurationProperties image = new ImageConfigurationProperties();
+
     /**
      * Enable/disable the integration.
      */
@@ -97,4 +125,61 @@ public class Ad2ImageConfigurationProperties {
     public void setGravatar(GravatarConfigurationProperties gravatar) {
         this.gravatar = gravatar;
     }
+
+    public SizeLadderConfigurationProperties getSizeLadder() {
+        return sizeLadder;
+    }
+
+    public void setSizeLadder(SizeLadderConfigurationProperties sizeLadder) {
+        this.sizeLadder = sizeLadder;
+    }
+
+    public CacheConfigurationProperties getCache() {
+        return cache;
+    }
+
+    public void setCache(CacheConfigurationProperties cache) {
+        this.cache = cache;
+    }
+
+    public AvatarStoreConfigurationProperties getStore() {
+        return store;
+    }
+
+    public void setStore(AvatarStoreConfigurationProperties store) {
+        this.store = store;
+    }
+
+    public AvatarRefreshConfigurationProperties getAvatarRefresh() {
+        return avatarRefresh;
+    }
+
+    public void setAvatarRefresh(AvatarRefreshConfigurationProperties avatarRefresh) {
+        this.avatarRefresh = avatarRefresh;
+    }
+
+    public DirectoryWatcherConfigurationProperties getDirectoryWatcher() {
+        return directoryWatcher;
+    }
+
+    public void setDirectoryWatcher(DirectoryWatcherConfigurationProperties directoryWatcher) {
+        this.directoryWatcher = directoryWatcher;
+    }
+
+    public BatchConfigurationProperties getBatch() {
+        return batch;
+    }
+
+    public void setBatch(BatchConfigurationProperties batch) {
+        this.batch = batch;
+    }
+
+    public ImageConfigurationProperties getImage() {
+        return image;
+    }
+
+    public void setImage(ImageConfigurationProperties image) {
+        this.image = image;
+    }
+
 }
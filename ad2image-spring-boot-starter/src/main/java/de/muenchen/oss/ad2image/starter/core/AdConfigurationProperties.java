@@ -23,8 +23,10 @@
 package de.muenchen.oss.ad2image.starter.core;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.NestedConfigurationProperty;
 import org.springframework.validation.annotation.Validated;
 
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotEmpty;
 
 /**
@@ -60,6 +62,12 @@ public class AdConfigurationProperties {
     private String snAttribute = "sn";
     @NotEmpty
     private String givenNameAttribute = "givenName";
+    /**
+     * Attribute holding the time of the last modification of a user entry (LDAP generalized time),
+     * used as 'Last-Modified' of the avatar.
+     */
+    @NotEmpty
+    private String whenChangedAttribute = "whenChanged";
 
     /**
      * User Search Base for user lookup, for example 'OU=Users,DC=mycompany,DC=com'.
@@ -73,6 +81,14 @@ public class AdConfigurationProperties {
     @NotEmpty
     private String userSearchFilter = "(&(objectClass=organizationalPerson)(cn={uid}))";
 
+    @NestedConfigurationProperty
+    @Valid
+    private LdapPoolConfigurationProperties pool = new LdapPoolConfigurationProperties();
+
+    @NestedConfigurationProperty
+    @Valid
+    private LookupBatchingConfigurationProperties lookupBatching = new LookupBatchingConfigurationProperties();
+
     public String getUrl() {
         return url;
     }
@@ -182,4 +198,38 @@ public class AdConfigurationProperties {
         this.givenNameAttribute = givenNameAttribute;
     }
 
+    /**
+     * Gets the LDAP attribute name holding the time of the last modification of a user entry.
+     *
+     * @return the attribute name (for example, "whenChanged")
+     */
+    public String getWhenChangedAttribute() {
+        return whenChangedAttribute;
+    }
+
+    /**
+     * Sets the LDAP attribute name holding the time of the last modification of a user entry.
+     *
+     * @param whenChangedAttribute the attribute name (e.g. "whenChanged" or "modifyTimestamp")
+     */
+    public void setWhenChangedAttribute(String whenChangedAttribute) {
+        this.whenChangedAttribute = whenChangedAttribute;
+    }
+
+    public LdapPoolConfigurationProperties getPool() {
+        return pool;
+    }
+
+    public void setPool(LdapPoolConfigurationProperties pool) {
+        this.pool = pool;
+    }
+
+    public LookupBatchingConfigurationProperties getLookupBatching() {
+        return lookupBatching;
+    }
+
+    public void setLookupBatching(LookupBatchingConfigurationProperties lookupBatching) {
+        this.lookupBatching = lookupBatching;
+    }
+
 }
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * A rendered avatar as kept in the {@link CacheNames#AVATARS avatars} cache.
+ *
+ * @param data the PNG image, {@code null} if there is no avatar for the requested mode
+ * @param renderedAt when the avatar was rendered
+ * @param etag hex encoded SHA-256 hash of {@code data}, used as (strong) HTTP entity tag
+ * @param lastModified modification time of the directory entry the avatar was rendered from,
+ *            {@code null} if not known (e.g. for avatars served from the persistent store)
+ * @param degraded {@code true} if the avatar was derived from a fallback because the Exchange photo
+ *            was not available, such avatars are neither cached nor revalidated by clients
+ */
+public record AvatarImage(byte[] data, Instant renderedAt, String etag, Instant lastModified, boolean degraded) implements Serializable {
+
+    /**
+     * Creates an avatar image which is not degraded.
+     *
+     * @param data the PNG image, {@code null} if there is no avatar for the requested mode
+     * @param renderedAt when the avatar was rendered
+     * @param etag the entity tag
+     * @param lastModified modification time of the user's directory entry, may be {@code null}
+     */
+    public AvatarImage(byte[] data, Instant renderedAt, String etag, Instant lastModified) {
+        this(data, renderedAt, etag, lastModified, false);
+    }
+
+    /**
+     * Creates an avatar image without modification time.
+     *
+     * @param data the PNG image, {@code null} if there is no avatar for the requested mode
+     * @param renderedAt when the avatar was rendered
+     * @param etag the entity tag
+     */
+    public AvatarImage(byte[] data, Instant renderedAt, String etag) {
+        this(data, renderedAt, etag, null);
+    }
+
+    /**
+     * Creates an avatar image and computes its entity tag once.
+     *
+     * @param data the PNG image, may be {@code null}
+     * @param renderedAt when the avatar was rendered
+     * @return the avatar image
+     */
+    public static AvatarImage of(byte[] data, Instant renderedAt) {
+        return of(data, renderedAt, null);
+    }
+
+    /**
+     * Creates an avatar image and computes its entity tag once.
+     *
+     * @param data the PNG image, may be {@code null}
+     * @param renderedAt when the avatar was rendered
+     * @param lastModified modification time of the user's directory entry, may be {@code null}
+     * @return the avatar image
+     */
+    public static AvatarImage of(byte[] data, Instant renderedAt, Instant lastModified) {
+        return new AvatarImage(data, renderedAt, data != null ? DigestUtils.sha256Hex(data) : null, lastModified);
+    }
+
+    /**
+     * Creates a degraded avatar image, see {@link #degraded()}.
+     *
+     * @param data the PNG image, may be {@code null}
+     * @param renderedAt when the avatar was rendered
+     * @return the avatar image
+     */
+    public static AvatarImage degraded(byte[] data, Instant renderedAt) {
+        return new AvatarImage(data, renderedAt, data != null ? DigestUtils.sha256Hex(data) : null, null, true);
+    }
+
+    /**
+     * @param maxAge the maximum age
+     * @return {@code true} if the avatar was rendered more than {@code maxAge} ago
+     */
+    public boolean isOlderThan(Duration maxAge) {
+        return renderedAt.plus(maxAge).isBefore(Instant.now());
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.io.File;
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+
+/**
+ * Configuration of the persistent store for rendered avatars and Exchange master photos, which lets
+ * ad2image start with warm data after a restart.
+ */
+@Validated
+@ConfigurationProperties(prefix = "de.muenchen.oss.ad2image.store")
+public class AvatarStoreConfigurationProperties {
+
+    /**
+     * Enables/disables the persistent store.
+     */
+    private boolean enabled;
+
+    /**
+     * Directory of the store files. Must not be shared between multiple ad2image instances.
+     */
+    @NotEmpty
+    private String path = System.getProperty("java.io.tmpdir") + File.separator + "ad2image-store";
+
+    /**
+     * Maximum size of the data file (at most 2GB), the oldest entries are dropped when it is full.
+     */
+    @NotNull
+    private DataSize maxSize = DataSize.ofMegabytes(256);
+
+    /**
+     * Age after which a stored entry is still served, but refreshed in the background.
+     */
+    @NotNull
+    private Duration refreshAfter = Duration.ofHours(1);
+
+    /**
+     * Age after which a stored entry is not served anymore.
+     */
+    @NotNull
+    private Duration maxAge = Duration.ofDays(7);
+
+    /**
+     * Number of threads refreshing stale entries.
+     */
+    @Positive
+    private int refreshThreads = 2;
+
+    /**
+     * Maximum number of waiting refreshes, further stale entries are not refreshed until the queue has
+     * capacity again.
+     */
+    @Positive
+    private int refreshQueueCapacity = 1000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public DataSize getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(DataSize maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public Duration getRefreshAfter() {
+        return refreshAfter;
+    }
+
+    public void setRefreshAfter(Duration refreshAfter) {
+        this.refreshAfter = refreshAfter;
+    }
+
+    public Duration getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(Duration maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public int getRefreshThreads() {
+        return refreshThreads;
+    }
+
+    public void setRefreshThreads(int refreshThreads) {
+        this.refreshThreads = refreshThreads;
+    }
+
+    public int getRefreshQueueCapacity() {
+        return refreshQueueCapacity;
+    }
+
+    public void setRefreshQueueCapacity(int refreshQueueCapacity) {
+        this.refreshQueueCapacity = refreshQueueCapacity;
+    }
+
+}
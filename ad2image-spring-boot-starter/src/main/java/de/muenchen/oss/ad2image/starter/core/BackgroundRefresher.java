@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs refresh tasks on a bounded executor. Only one refresh per key is queued or running at a
+ * time, further refresh requests for the same key are dropped, as are refreshes while the queue is
+ * full.
+ */
+public class BackgroundRefresher implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(BackgroundRefresher.class);
+
+    private final Set<Object> pendingKeys = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param threadNamePrefix prefix of the names of the refresh threads
+     * @param threads maximum number of concurrent refreshes
+     * @param queueCapacity maximum number of waiting refreshes
+     */
+    public BackgroundRefresher(String threadNamePrefix, int threads, int queueCapacity) {
+        this(ThreadFactories.create(threadNamePrefix, false), threads, queueCapacity);
+    }
+
+    /**
+     * @param threadFactory creates the refresh threads
+     * @param threads maximum number of concurrent refreshes
+     * @param queueCapacity maximum number of waiting refreshes
+     */
+    public BackgroundRefresher(ThreadFactory threadFactory, int threads, int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), threadFactory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Schedules the refresh unless a refresh for the same key is already pending.
+     *
+     * @param key the key identifying the refreshed entry
+     * @param refresh the refresh task
+     * @return {@code true} if the refresh was scheduled
+     */
+    public boolean refresh(Object key, Runnable refresh) {
+        if (!pendingKeys.add(key)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    refresh.run();
+                } catch (RuntimeException e) {
+                    log.warn("Background refresh of '{}' failed.", key, e);
+                } finally {
+                    pendingKeys.remove(key);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingKeys.remove(key);
+            log.debug("Skipped background refresh of '{}', refresh queue is full.", key);
+            return false;
+        }
+    }
+
+    /**
+     * @return number of refreshes queued or running
+     */
+    public int getPendingCount() {
+        return pendingKeys.size();
+    }
+
+    /**
+     * Stops accepting refreshes and waits a few seconds for the running ones.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
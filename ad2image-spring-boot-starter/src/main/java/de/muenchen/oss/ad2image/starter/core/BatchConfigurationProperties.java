@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.Positive;
+
+/**
+ * Configuration of the batch avatar endpoint ({@code POST /avatars}), which resolves the avatars of
+ * many users with few directory searches.
+ */
+@Validated
+@ConfigurationProperties(prefix = "de.muenchen.oss.ad2image.batch")
+public class BatchConfigurationProperties {
+
+    /**
+     * Enables/disables the batch avatar endpoint.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Maximum number of uids per batch request.
+     */
+    @Positive
+    private int maxUids = 300;
+
+    /**
+     * Maximum number of uids combined into one directory search.
+     */
+    @Positive
+    private int directoryChunkSize = 50;
+
+    /**
+     * Maximum number of pixels of a sprite sheet ({@code GET /avatars/sprite}), roughly the number of
+     * uids times the square of the size. The default of 16 megapixels takes 64 MB while composing.
+     */
+    @Positive
+    private long maxSpritePixels = 16L * 1024 * 1024;
+
+    /**
+     * Number of threads rendering the avatars of batch requests (and fetching the Exchange photos).
+     */
+    @Positive
+    private int threads = 8;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxUids() {
+        return maxUids;
+    }
+
+    public void setMaxUids(int maxUids) {
+        this.maxUids = maxUids;
+    }
+
+    public int getDirectoryChunkSize() {
+        return directoryChunkSize;
+    }
+
+    public void setDirectoryChunkSize(int directoryChunkSize) {
+        this.directoryChunkSize = directoryChunkSize;
+    }
+
+    public long getMaxSpritePixels() {
+        return maxSpritePixels;
+    }
+
+    public void setMaxSpritePixels(long maxSpritePixels) {
+        this.maxSpritePixels = maxSpritePixels;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.io.File;
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.NestedConfigurationProperty;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+
+/**
+ * Configuration of the ad2image managed, tiered cache manager. Off-heap and disk tiers are bounded
+ * by bytes, the heap tier holds the hottest entries and is bounded by entries.
+ */
+@Validated
+@ConfigurationProperties(prefix = "de.muenchen.oss.ad2image.cache")
+public class CacheConfigurationProperties {
+
+    /**
+     * Let ad2image create the JCache cache manager (Ehcache) from these properties instead of using
+     * {@code spring.cache.jcache.config}.
+     */
+    private boolean enabled;
+
+    /**
+     * Base directory of the disk tier. Every cache manager uses its own subdirectory, which is deleted
+     * when the cache manager is closed, so the base directory may be shared by several application
+     * contexts or instances on the same host.
+     */
+    @NotEmpty
+    private String diskPath = System.getProperty("java.io.tmpdir") + File.separator + "ad2image-cache";
+
+    /**
+     * Tiers of the rendered avatars cache.
+     */
+    @NestedConfigurationProperty
+    @Valid
+    private Tiers avatars = new Tiers(500, DataSize.ofMegabytes(64), DataSize.ofMegabytes(512));
+
+    /**
+     * Tiers of the directory entries cache.
+     */
+    @NestedConfigurationProperty
+    @Valid
+    private Tiers directoryEntries = new Tiers(2000, DataSize.ofBytes(0), DataSize.ofBytes(0));
+
+    /**
+     * Tiers of the cache for uids not found in the directory.
+     */
+    @NestedConfigurationProperty
+    @Valid
+    private Tiers directoryMisses = new Tiers(Duration.ofMinutes(10), 10000, DataSize.ofBytes(0), DataSize.ofBytes(0));
+
+    /**
+     * Tiers of the Exchange master photos cache.
+     */
+    @NestedConfigurationProperty
+    @Valid
+    private Tiers exchangePhotos = new Tiers(50, DataSize.ofMegabytes(64), DataSize.ofMegabytes(256));
+
+    /**
+     * Tiers of the avatar sprite sheets cache.
+     */
+    @NestedConfigurationProperty
+    @Valid
+    private Tiers avatarSprites = new Tiers(Duration.ofMinutes(10), 100, DataSize.ofMegabytes(32), DataSize.ofBytes(0));
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDiskPath() {
+        return diskPath;
+    }
+
+    public void setDiskPath(String diskPath) {
+        this.diskPath = diskPath;
+    }
+
+    public Tiers getAvatars() {
+        return avatars;
+    }
+
+    public void setAvatars(Tiers avatars) {
+        this.avatars = avatars;
+    }
+
+    public Tiers getDirectoryEntries() {
+        return directoryEntries;
+    }
+
+    public void setDirectoryEntries(Tiers directoryEntries) {
+        this.directoryEntries = directoryEntries;
+    }
+
+    public Tiers getDirectoryMisses() {
+        return directoryMisses;
+    }
+
+    public void setDirectoryMisses(Tiers directoryMisses) {
+        this.directoryMisses = directoryMisses;
+    }
+
+    public Tiers getExchangePhotos() {
+        return exchangePhotos;
+    }
+
+    public void setExchangePhotos(Tiers exchangePhotos) {
+        this.exchangePhotos = exchangePhotos;
+    }
+
+    public Tiers getAvatarSprites() {
+        return avatarSprites;
+    }
+
+    public void setAvatarSprites(Tiers avatarSprites) {
+        this.avatarSprites = avatarSprites;
+    }
+
+    /**
+     * Sizes and expiry of the tiers of a single cache. A tier sized {@code 0} is disabled, an enabled
+     * disk tier has to be larger than the off-heap tier.
+     */
+    public static class Tiers {
+
+        /**
+         * Time to live of an entry.
+         */
+        @NotNull
+        private Duration ttl;
+
+        /**
+         * Number of entries kept on heap.
+         */
+        @Positive
+        private long heapEntries;
+
+        /**
+         * Size of the off-heap tier, e.g. 64MB.
+         */
+        @NotNull
+        private DataSize offHeap;
+
+        /**
+         * Size of the disk tier, e.g. 512MB.
+         */
+        @NotNull
+        private DataSize disk;
+
+        public Tiers() {
+            this(100, DataSize.ofBytes(0), DataSize.ofBytes(0));
+        }
+
+        public Tiers(long heapEntries, DataSize offHeap, DataSize disk) {
+            this(Duration.ofHours(1), heapEntries, offHeap, disk);
+        }
+
+        public Tiers(Duration ttl, long heapEntries, DataSize offHeap, DataSize disk) {
+            this.ttl = ttl;
+            this.heapEntries = heapEntries;
+            this.offHeap = offHeap;
+            this.disk = disk;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public long getHeapEntries() {
+            return heapEntries;
+        }
+
+        public void setHeapEntries(long heapEntries) {
+            this.heapEntries = heapEntries;
+        }
+
+        public DataSize getOffHeap() {
+            return offHeap;
+        }
+
+        public void setOffHeap(DataSize offHeap) {
+            this.offHeap = offHeap;
+        }
+
+        public DataSize getDisk() {
+            return disk;
+        }
+
+        public void setDisk(DataSize disk) {
+            this.disk = disk;
+        }
+
+        /**
+         * @return {@code true} if the disk tier is disabled or larger than the off-heap tier, as
+         *         required by Ehcache
+         */
+        @AssertTrue(message = "disk has to be larger than offHeap, or 0 to disable the disk tier")
+        public boolean isDiskLargerThanOffHeap() {
+            return disk == null || offHeap == null || disk.toBytes() == 0 || disk.toBytes() > offHeap.toBytes();
+        }
+
+    }
+
+}
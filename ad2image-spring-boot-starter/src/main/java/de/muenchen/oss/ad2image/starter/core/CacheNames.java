@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+/**
+ * Names of the caches used by ad2image. If caching is enabled, the cache provider has to provide
+ * all of them.
+ */
+public final class CacheNames {
+
+    /**
+     * Rendered avatars, keyed by uid, mode and size.
+     */
+    public static final String AVATARS = "avatars";
+
+    /**
+     * Directory entries (including the thumbnail photo), keyed by uid.
+     */
+    public static final String DIRECTORY_ENTRIES = "directoryEntries";
+
+    /**
+     * "Not found" outcomes of directory lookups, keyed by uid. Usually with a shorter TTL than
+     * {@link #DIRECTORY_ENTRIES}, so that new users show up soon.
+     */
+    public static final String DIRECTORY_MISSES = "directoryMisses";
+
+    /**
+     * Photos fetched from Exchange in the master size, keyed by mail address.
+     */
+    public static final String EXCHANGE_PHOTOS = "exchangePhotos";
+
+    /**
+     * Sprite sheets composed of several avatars, keyed by uids, mode and size. Optional, sprite sheets
+     * are not cached if the cache provider does not provide this cache.
+     */
+    public static final String AVATAR_SPRITES = "avatarSprites";
+
+    private CacheNames() {
+    }
+
+}
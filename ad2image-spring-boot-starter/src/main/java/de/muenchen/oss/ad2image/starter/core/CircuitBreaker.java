@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Count based circuit breaker. It opens once the failure rate of the last {@code windowSize} calls
+ * reaches the threshold, then rejects all calls for {@code openDuration}. Afterwards a single probe
+ * call is permitted (half-open): its success closes the breaker, its failure opens it again.
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final long openDurationNanos;
+    private final LongSupplier nanoTime;
+
+    // outcomes of the last calls in closed state, true for a failure
+    private final boolean[] window;
+    private int windowIndex;
+    private int windowCount;
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    private final Map<State, LongAdder> transitions = new EnumMap<>(State.class);
+    private final LongAdder rejectedCalls = new LongAdder();
+
+    /**
+     * @param name name of the protected resource, for logging
+     * @param props the circuit breaker configuration
+     */
+    public CircuitBreaker(String name, CircuitBreakerConfigurationProperties props) {
+        this(name, props, System::nanoTime);
+    }
+
+    /**
+     * @param name name of the protected resource, for logging
+     * @param props the circuit breaker configuration
+     * @param nanoTime source of the current time in nanoseconds, like {@link System#nanoTime()}
+     */
+    public CircuitBreaker(String name, CircuitBreakerConfigurationProperties props, LongSupplier nanoTime) {
+        this.name = name;
+        this.window = new boolean[props.getWindowSize()];
+        this.minimumCalls = Math.min(props.getMinimumCalls(), props.getWindowSize());
+        this.failureRateThreshold = props.getFailureRateThreshold();
+        this.openDurationNanos = props.getOpenDuration().toNanos();
+        this.nanoTime = nanoTime;
+        for (State s : State.values()) {
+            transitions.put(s, new LongAdder());
+        }
+    }
+
+    /**
+     * Asks for permission to call the protected resource. Every permitted call has to be followed by
+     * {@link #onSuccess()}, {@link #onFailure()} or {@link #onIgnored()}.
+     *
+     * @return {@code true} if the call is permitted
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (nanoTime.getAsLong() - openedAt >= openDurationNanos) {
+                transitionTo(State.HALF_OPEN);
+                probeInFlight = true;
+                return true;
+            }
+            break;
+        case HALF_OPEN:
+            if (!probeInFlight) {
+                probeInFlight = true;
+                return true;
+            }
+            break;
+        }
+        rejectedCalls.increment();
+        return false;
+    }
+
+    /**
+     * Records a successful call.
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            transitionTo(State.CLOSED);
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Records a failed call.
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            transitionTo(State.OPEN);
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (windowCount >= minimumCalls && windowFailures * 100 >= failureRateThreshold * windowCount) {
+                transitionTo(State.OPEN);
+            }
+        }
+    }
+
+    /**
+     * Records a call which was abandoned by the caller (e.g. cancelled), so that its outcome tells
+     * nothing about the resource. A pending probe call is released, the next call becomes the probe.
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    private void record(boolean failure) {
+        if (windowCount == window.length) {
+            if (window[windowIndex]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+    }
+
+    private void transitionTo(State newState) {
+        log.info("Circuit breaker '{}' changed from {} to {}.", name, state, newState);
+        state = newState;
+        transitions.get(newState).increment();
+        probeInFlight = false;
+        if (newState == State.OPEN) {
+            openedAt = nanoTime.getAsLong();
+        } else if (newState == State.CLOSED) {
+            windowIndex = 0;
+            windowCount = 0;
+            windowFailures = 0;
+        }
+    }
+
+    /**
+     * @return the current state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @param target the state
+     * @return number of transitions to the given state since startup
+     */
+    public long getTransitionCount(State target) {
+        return transitions.get(target).sum();
+    }
+
+    /**
+     * @return number of calls rejected since startup, because the breaker was open
+     */
+    public long getRejectedCallCount() {
+        return rejectedCalls.sum();
+    }
+
+    /**
+     * @return the time the breaker stays open before permitting a probe call
+     */
+    public Duration getOpenDuration() {
+        return Duration.ofNanos(openDurationNanos);
+    }
+
+}
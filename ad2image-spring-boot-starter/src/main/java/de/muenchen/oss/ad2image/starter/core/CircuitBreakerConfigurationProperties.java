@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+
+/**
+ * Configuration of the circuit breaker protecting the Exchange photo lookups, and of the fallback
+ * used for large avatars while Exchange is not available.
+ */
+@Validated
+@ConfigurationProperties(prefix = "de.muenchen.oss.ad2image.ews.circuit-breaker")
+public class CircuitBreakerConfigurationProperties {
+
+    /**
+     * Source of large avatars if the Exchange photo cannot be retrieved.
+     */
+    public enum PhotoFallback {
+        /**
+         * The last stored master photo (if the persistent store is enabled), otherwise
+         * {@link #THUMBNAIL}.
+         */
+        STORED_PHOTO,
+        /**
+         * The upscaled AD thumbnail photo.
+         */
+        THUMBNAIL,
+        /**
+         * No fallback, the avatar request fails.
+         */
+        NONE
+    }
+
+    /**
+     * Enables/disables the circuit breaker.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Number of the last calls the failure rate is calculated from.
+     */
+    @Positive
+    private int windowSize = 20;
+
+    /**
+     * Minimum number of calls in the window before the breaker may open.
+     */
+    @Positive
+    private int minimumCalls = 10;
+
+    /**
+     * Failure rate in percent at which the breaker opens.
+     */
+    @Positive
+    @Max(100)
+    private int failureRateThreshold = 50;
+
+    /**
+     * Time the breaker stays open before a single probe call is permitted.
+     */
+    @NotNull
+    private Duration openDuration = Duration.ofSeconds(30);
+
+    /**
+     * Source of large avatars if the Exchange photo cannot be retrieved (failed call or open breaker).
+     */
+    @NotNull
+    private PhotoFallback fallback = PhotoFallback.STORED_PHOTO;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    public void setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+    }
+
+    public int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public void setFailureRateThreshold(int failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public Duration getOpenDuration() {
+        return openDuration;
+    }
+
+    public void setOpenDuration(Duration openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    public PhotoFallback getFallback() {
+        return fallback;
+    }
+
+    public void setFallback(PhotoFallback fallback) {
+        this.fallback = fallback;
+    }
+
+}
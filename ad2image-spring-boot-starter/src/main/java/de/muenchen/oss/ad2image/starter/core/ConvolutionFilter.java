@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+/**
+ * Separable filters of the {@link Resampler}s which scale by convolution, see
+ * {@link PixelKernels#convolve(int[], int, int, int, int, ConvolutionFilter)}.
+ */
+enum ConvolutionFilter {
+
+    /**
+     * Triangle filter, i.e. bilinear interpolation.
+     */
+    TRIANGLE(1) {
+        @Override
+        double weight(double x) {
+            x = Math.abs(x);
+            return x < 1 ? 1 - x : 0;
+        }
+    },
+
+    /**
+     * Catmull-Rom bicubic filter.
+     */
+    CATMULL_ROM(2) {
+        @Override
+        double weight(double x) {
+            x = Math.abs(x);
+            if (x < 1) {
+                return (1.5 * x - 2.5) * x * x + 1;
+            } else if (x < 2) {
+                return ((-0.5 * x + 2.5) * x - 4) * x + 2;
+            }
+            return 0;
+        }
+    },
+
+    /**
+     * Lanczos filter with three lobes.
+     */
+    LANCZOS3(3) {
+        @Override
+        double weight(double x) {
+            x = Math.abs(x);
+            if (x == 0) {
+                return 1;
+            } else if (x < 3) {
+                double px = Math.PI * x;
+                return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+            }
+            return 0;
+        }
+    };
+
+    private final double radius;
+
+    ConvolutionFilter(double radius) {
+        this.radius = radius;
+    }
+
+    /**
+     * @return the radius of the filter at a scale of 1
+     */
+    double getRadius() {
+        return radius;
+    }
+
+    /**
+     * @param x the distance to the center of the target pixel, in source pixels at a scale of 1
+     * @return the unnormalized filter weight
+     */
+    abstract double weight(double x);
+
+}
@@ -0,0 +1,320 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.SortControl;
+import javax.naming.ldap.SortKey;
+import javax.naming.ldap.SortResponseControl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ldap.control.PagedResultsDirContextProcessor;
+import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.DirContextProcessor;
+import org.springframework.ldap.core.support.LdapContextSource;
+import org.springframework.ldap.core.support.SingleContextSource;
+import org.springframework.ldap.support.LdapEncoder;
+
+/**
+ * Finds the user entries which changed since the previous poll, based on an attribute which
+ * increases with every change of an entry (e.g. 'uSNChanged' or 'whenChanged').
+ * <p>
+ * The first poll only determines the highest value of the change attribute, without reading all
+ * entries: 'uSNChanged' starts at the rootDSE's 'highestCommittedUSN', other attributes at the
+ * first entry of a search sorted by the server in descending order and limited to one entry. Only
+ * if the server supports neither, all entries are searched. Every further poll searches for entries
+ * with a value greater than or equal to the highest value seen so far, entries already reported
+ * with exactly that value are skipped. Deleted entries are not reported.
+ * <p>
+ * 'uSNChanged' is local to each domain controller and not replicated, so it only works if always
+ * the same domain controller is queried. Behind a load-balanced URL, changes would be missed or
+ * reported again; 'whenChanged' (the default) is comparable across domain controllers.
+ */
+public class DirectoryChangeWatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectoryChangeWatcher.class);
+
+    private final LdapContextSource contextSource;
+    private final AdConfigurationProperties adProps;
+    private final DirectoryWatcherConfigurationProperties watcherProps;
+
+    // polls run one at a time, without blocking readers of lastChange
+    private final ReentrantLock pollLock = new ReentrantLock();
+    private volatile String lastChange;
+    // guarded by pollLock
+    private final Set<String> uidsAtLastChange = new HashSet<>();
+
+    /**
+     * @param contextSource LDAP context source
+     * @param adProps AD configuration (search base and attribute names)
+     * @param watcherProps watcher configuration
+     */
+    public DirectoryChangeWatcher(LdapContextSource contextSource, AdConfigurationProperties adProps,
+            DirectoryWatcherConfigurationProperties watcherProps) {
+        this.contextSource = contextSource;
+        this.adProps = adProps;
+        this.watcherProps = watcherProps;
+    }
+
+    /**
+     * Searches for changed entries. If another poll is still in progress, it is not waited for.
+     *
+     * @return uid, mail address and lookup keys of the users changed since the previous poll, empty
+     *         on the first poll or if another poll is in progress
+     */
+    public List<ChangedUser> poll() {
+        if (!pollLock.tryLock()) {
+            log.debug("Skipping poll, the previous poll is still in progress.");
+            return List.of();
+        }
+        try {
+            String changeAttribute = watcherProps.getChangeAttribute();
+            if (lastChange == null) {
+                lastChange = findLastChange();
+                log.info("Watching directory for changes, starting at {}='{}'.", changeAttribute, lastChange);
+                return List.of();
+            }
+            String condition = "(" + changeAttribute + ">=" + LdapEncoder.filterEncode(lastChange) + ")";
+            List<ChangedUser> changed = new ArrayList<>();
+            for (ChangedEntry entry : search("(&" + watcherProps.getFilter() + condition + ")")) {
+                int comparison = compareChanges(entry.change(), lastChange);
+                if (comparison > 0) {
+                    lastChange = entry.change();
+                    uidsAtLastChange.clear();
+                } else if (comparison < 0 || !uidsAtLastChange.add(entry.user().getUid())) {
+                    // not newer than what was reported already
+                    continue;
+                }
+                uidsAtLastChange.add(entry.user().getUid());
+                changed.add(new ChangedUser(entry.user(), entry.uids()));
+            }
+            if (!changed.isEmpty()) {
+                log.debug("Found {} changed users in directory, {} is now '{}'.", changed.size(), changeAttribute, lastChange);
+            }
+            return changed;
+        } finally {
+            pollLock.unlock();
+        }
+    }
+
+    /**
+     * @return the highest value of the change attribute seen so far, {@code null} before the first
+     *         poll
+     */
+    public String getLastChange() {
+        return lastChange;
+    }
+
+    /**
+     * Determines the highest value of the change attribute, and remembers the users changed at
+     * exactly that value if they are known.
+     */
+    private String findLastChange() {
+        String changeAttribute = watcherProps.getChangeAttribute();
+        if ("uSNChanged".equalsIgnoreCase(changeAttribute)) {
+            String highestCommittedUsn = SingleContextSource.doWithSingleContext(contextSource, operations -> operations.lookup("",
+                    new String[] { "highestCommittedUSN" }, (AttributesMapper<String>) attributes -> {
+                        Attribute usn = attributes.get("highestCommittedUSN");
+                        return usn != null ? (String) usn.get() : null;
+                    }));
+            if (highestCommittedUsn != null) {
+                return highestCommittedUsn;
+            }
+        }
+        String filter = "(&" + watcherProps.getFilter() + "(" + changeAttribute + "=*))";
+        SearchControls searchControls = new SearchControls();
+        searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        searchControls.setReturningAttributes(new String[] { adProps.getUidAttribute(), changeAttribute });
+        searchControls.setCountLimit(1);
+        DescendingSortDirContextProcessor processor = new DescendingSortDirContextProcessor(changeAttribute);
+        List<ChangedEntry> latest = SingleContextSource.doWithSingleContext(contextSource,
+                operations -> operations.search(adProps.getUserSearchBase(), filter, searchControls, (AttributesMapper<ChangedEntry>) attributes -> {
+                    Attribute uidAttr = attributes.get(adProps.getUidAttribute());
+                    Attribute changeAttr = attributes.get(changeAttribute);
+                    if (uidAttr == null || changeAttr == null) {
+                        return null;
+                    }
+                    User u = new User();
+                    u.setUid((String) uidAttr.get());
+                    return new ChangedEntry(u, Set.of(), (String) changeAttr.get());
+                }, processor));
+        List<ChangedEntry> entries;
+        if (processor.isSorted()) {
+            entries = latest;
+        } else {
+            log.warn("Directory does not sort by '{}', searching all entries for the last change.", changeAttribute);
+            entries = search(filter);
+        }
+        String highest = null;
+        for (ChangedEntry entry : entries) {
+            if (entry == null) {
+                continue;
+            }
+            if (highest == null || compareChanges(entry.change(), highest) > 0) {
+                highest = entry.change();
+                uidsAtLastChange.clear();
+            }
+            if (entry.change().equals(highest)) {
+                uidsAtLastChange.add(entry.user().getUid());
+            }
+        }
+        return highest;
+    }
+
+    private List<ChangedEntry> search(String searchFilter) {
+        String uidAttribute = adProps.getUidAttribute();
+        String mailAttribute = adProps.getMailAttribute();
+        String changeAttribute = watcherProps.getChangeAttribute();
+        List<String> uidFilterAttributes = DirectoryLookupService.uidFilterAttributes(adProps);
+        Set<String> returningAttributes = new LinkedHashSet<>(List.of(uidAttribute, mailAttribute, changeAttribute));
+        returningAttributes.addAll(uidFilterAttributes);
+        SearchControls searchControls = new SearchControls();
+        searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        searchControls.setReturningAttributes(returningAttributes.toArray(String[]::new));
+        PagedResultsDirContextProcessor processor = new PagedResultsDirContextProcessor(watcherProps.getPageSize());
+        List<ChangedEntry> result = SingleContextSource.doWithSingleContext(contextSource, operations -> {
+            List<ChangedEntry> entries = new LinkedList<>();
+            do {
+                entries.addAll(operations.search(adProps.getUserSearchBase(), searchFilter, searchControls,
+                        (AttributesMapper<ChangedEntry>) attributes -> {
+                            Attribute uidAttr = attributes.get(uidAttribute);
+                            Attribute changeAttr = attributes.get(changeAttribute);
+                            if (uidAttr == null || changeAttr == null) {
+                                // e.g. a matched entry which is not a user, skipped below
+                                return null;
+                            }
+                            User u = new User();
+                            u.setUid((String) uidAttr.get());
+                            Attribute mailAttr = attributes.get(mailAttribute);
+                            if (mailAttr != null) {
+                                u.setEmail((String) mailAttr.get());
+                            }
+                            return new ChangedEntry(u, DirectoryLookupService.uidFilterValues(attributes, uidFilterAttributes), (String) changeAttr.get());
+                        }, processor));
+            } while (processor.hasMore());
+            return entries;
+        });
+        // process in order of change, so that the boundary handling works
+        List<ChangedEntry> sorted = new ArrayList<>(result.size());
+        for (ChangedEntry entry : result) {
+            if (entry != null) {
+                sorted.add(entry);
+            }
+        }
+        if (sorted.size() < result.size()) {
+            log.debug("Skipped {} changed entries without '{}' or '{}' attribute.", result.size() - sorted.size(), uidAttribute, changeAttribute);
+        }
+        sorted.sort((a, b) -> compareChanges(a.change(), b.change()));
+        return sorted;
+    }
+
+    /**
+     * Compares two values of the change attribute, numerically if both are numbers (uSNChanged),
+     * otherwise lexicographically (generalized time in the same format).
+     */
+    private static int compareChanges(String a, String b) {
+        if (isNumber(a) && isNumber(b)) {
+            return new BigInteger(a).compareTo(new BigInteger(b));
+        }
+        return a.compareTo(b);
+    }
+
+    private static boolean isNumber(String value) {
+        return !value.isEmpty() && value.chars().allMatch(Character::isDigit);
+    }
+
+    /**
+     * A user changed in the directory.
+     *
+     * @param user uid and mail address of the user
+     * @param uids the uids the user is requested by, i.e. the values of the attributes the user search
+     *            filter compares with the uid, normalized with
+     *            {@link DirectoryLookupService#cacheKey(String)}
+     */
+    public record ChangedUser(User user, Set<String> uids) {
+    }
+
+    private record ChangedEntry(User user, Set<String> uids, String change) {
+    }
+
+    /**
+     * Requests the search results sorted by the server in descending order of an attribute, which
+     * (unlike {@link org.springframework.ldap.control.SortControlDirContextProcessor}) allows to find
+     * the highest value with a size limit of one.
+     */
+    private static final class DescendingSortDirContextProcessor implements DirContextProcessor {
+
+        private final String sortKey;
+        private boolean sorted;
+
+        DescendingSortDirContextProcessor(String sortKey) {
+            this.sortKey = sortKey;
+        }
+
+        @Override
+        public void preProcess(DirContext ctx) throws NamingException {
+            try {
+                ((LdapContext) ctx)
+                        .setRequestControls(new Control[] { new SortControl(new SortKey[] { new SortKey(sortKey, false, null) }, Control.NONCRITICAL) });
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to create sort control", e);
+            }
+        }
+
+        @Override
+        public void postProcess(DirContext ctx) throws NamingException {
+            LdapContext ldapContext = (LdapContext) ctx;
+            Control[] responseControls = ldapContext.getResponseControls();
+            if (responseControls != null) {
+                for (Control control : responseControls) {
+                    if (control instanceof SortResponseControl sortResponse) {
+                        sorted = sortResponse.isSorted();
+                    }
+                }
+            }
+            ldapContext.setRequestControls(null);
+        }
+
+        boolean isSorted() {
+            return sorted;
+        }
+
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Combines concurrent user lookups into batches, which are resolved with one directory search each.
+ * A batch is searched when its window has elapsed or when it is full, whichever comes first.
+ */
+public class DirectoryLookupBatcher implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectoryLookupBatcher.class);
+
+    private final Function<Collection<String>, Map<String, Optional<User>>> batchLookup;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Object lock = new Object();
+    private Map<String, CompletableFuture<Optional<User>>> pending = new LinkedHashMap<>();
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder lookupCount = new LongAdder();
+
+    /**
+     * @param batchLookup resolves the uids of a batch, uids missing in the result are not resolved
+     * @param batchingProps the batching configuration
+     */
+    public DirectoryLookupBatcher(Function<Collection<String>, Map<String, Optional<User>>> batchLookup,
+            LookupBatchingConfigurationProperties batchingProps) {
+        this(batchLookup, batchingProps, ThreadFactories.create("ad2image-lookup-batch-", false));
+    }
+
+    /**
+     * @param batchLookup resolves the uids of a batch, uids missing in the result are not resolved
+     * @param batchingProps the batching configuration
+     * @param threadFactory creates the threads running the batch searches
+     */
+    public DirectoryLookupBatcher(Function<Collection<String>, Map<String, Optional<User>>> batchLookup,
+            LookupBatchingConfigurationProperties batchingProps, ThreadFactory threadFactory) {
+        this.batchLookup = batchLookup;
+        this.windowNanos = batchingProps.getWindow().toNanos();
+        this.maxBatchSize = batchingProps.getMaxBatchSize();
+        this.executor = new ScheduledThreadPoolExecutor(batchingProps.getThreads(), threadFactory);
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Adds the uid to the current batch. Lookups of the same uid within a batch share one future.
+     *
+     * @param uid the user identifier to search for
+     * @return future of the found user or an empty Optional, completed with {@code null} if the batch
+     *         search did not resolve the uid (e.g. because it matches several entries)
+     */
+    public CompletableFuture<Optional<User>> lookup(String uid) {
+        CompletableFuture<Optional<User>> future;
+        Map<String, CompletableFuture<Optional<User>>> fullBatch = null;
+        synchronized (lock) {
+            future = pending.get(uid);
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            pending.put(uid, future);
+            if (pending.size() >= maxBatchSize) {
+                fullBatch = pending;
+                pending = new LinkedHashMap<>();
+            } else if (pending.size() == 1) {
+                Map<String, CompletableFuture<Optional<User>>> batch = pending;
+                try {
+                    executor.schedule(() -> searchIfPending(batch), windowNanos, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    pending = new LinkedHashMap<>();
+                    future.completeExceptionally(new IllegalStateException("Lookup batching has been shut down.", e));
+                    return future;
+                }
+            }
+        }
+        if (fullBatch != null) {
+            // the caller would wait for the search anyway, so run it right away
+            search(fullBatch);
+        }
+        return future;
+    }
+
+    private void searchIfPending(Map<String, CompletableFuture<Optional<User>>> batch) {
+        synchronized (lock) {
+            if (pending != batch) {
+                // already searched as a full batch
+                return;
+            }
+            pending = new LinkedHashMap<>();
+        }
+        search(batch);
+    }
+
+    private void search(Map<String, CompletableFuture<Optional<User>>> batch) {
+        batchCount.increment();
+        lookupCount.add(batch.size());
+        log.debug("Searching for a batch of {} users ...", batch.size());
+        try {
+            Map<String, Optional<User>> result = batchLookup.apply(batch.keySet());
+            // uids left out of the result complete with null and are searched on their own
+            batch.forEach((uid, future) -> future.complete(result.get(uid)));
+        } catch (RuntimeException e) {
+            batch.values().forEach(future -> future.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * @return number of batch searches since startup
+     */
+    public long getBatchCount() {
+        return batchCount.sum();
+    }
+
+    /**
+     * @return number of uids resolved with batch searches since startup
+     */
+    public long getLookupCount() {
+        return lookupCount.sum();
+    }
+
+    /**
+     * Searches the pending batch and stops the batching threads.
+     */
+    @Override
+    public void close() {
+        Map<String, CompletableFuture<Optional<User>>> batch;
+        synchronized (lock) {
+            executor.shutdownNow();
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+        if (!batch.isEmpty()) {
+            search(batch);
+        }
+    }
+
+}
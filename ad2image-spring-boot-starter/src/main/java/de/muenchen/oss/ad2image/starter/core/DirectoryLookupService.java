@@ -24,26 +24,92 @@ package de.muenchen.oss.ad2image.starter.core;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.ldap.core.AttributesMapper;
 import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.query.LdapQueryBuilder;
 import org.springframework.ldap.support.LdapEncoder;
 
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-public class DirectoryLookupService {
+public class DirectoryLookupService implements AutoCloseable {
 
     private static final Logger log = LoggerFactory.getLogger(DirectoryLookupService.class);
 
+    /**
+     * LDAP generalized time as used by AD ('20240301120000.0Z') and OpenLDAP ('20240301120000Z').
+     */
+    private static final DateTimeFormatter GENERALIZED_TIME = new DateTimeFormatterBuilder()
+            .appendPattern("uuuuMMddHHmmss")
+            .optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true).optionalEnd()
+            .appendOffset("+HHMM", "Z")
+            .toFormatter();
+
+    /**
+     * Assertion of the user search filter comparing an attribute with the whole uid, e.g. '(cn={uid})'.
+     */
+    private static final Pattern UID_ASSERTION = Pattern.compile("\\(([A-Za-z][\\w-]*)=\\{uid\\}\\)");
+
     private final LdapTemplate ldapTemplate;
     private final AdConfigurationProperties adConfigurationProps;
+    private final KnownUids knownUids;
+    private final DirectoryLookupBatcher lookupBatcher;
 
     public DirectoryLookupService(LdapTemplate ldapTemplate, AdConfigurationProperties adConfigurationProps) {
+        this(ldapTemplate, adConfigurationProps, new KnownUids());
+    }
+
+    /**
+     * @param ldapTemplate template for the directory searches
+     * @param adConfigurationProps AD configuration
+     * @param knownUids known uids, lookups of other uids are answered without a directory search
+     */
+    public DirectoryLookupService(LdapTemplate ldapTemplate, AdConfigurationProperties adConfigurationProps, KnownUids knownUids) {
+        this(ldapTemplate, adConfigurationProps, knownUids, false);
+    }
+
+    /**
+     * @param ldapTemplate template for the directory searches
+     * @param adConfigurationProps AD configuration
+     * @param knownUids known uids, lookups of other uids are answered without a directory search
+     * @param virtualThreads run batched lookups on virtual threads
+     */
+    public DirectoryLookupService(LdapTemplate ldapTemplate, AdConfigurationProperties adConfigurationProps, KnownUids knownUids,
+            boolean virtualThreads) {
         this.ldapTemplate = ldapTemplate;
         this.adConfigurationProps = adConfigurationProps;
+        this.knownUids = knownUids;
+        LookupBatchingConfigurationProperties batchingProps = adConfigurationProps.getLookupBatching();
+        this.lookupBatcher = batchingProps.isEnabled()
+                ? new DirectoryLookupBatcher(uids -> findUsersInDirectory(uids, batchingProps.getMaxBatchSize()), batchingProps,
+                        ThreadFactories.create("ad2image-lookup-batch-", virtualThreads))
+                : null;
     }
 
     /**
@@ -53,42 +119,195 @@ public class DirectoryLookupService {
      * substituted)
      * and maps found LDAP attributes to a {@link User}.
      *
+     * Results are cached per UID (if caching is enabled), including the thumbnail photo, so rendering
+     * several sizes or modes of the same user needs a single LDAP search. "Not found" outcomes are
+     * cached separately, with their own TTL. UIDs which are not {@link KnownUids known} are not
+     * searched at all.
+     *
+     * The entry's modification time ('whenChanged') is part of the result, so conditional requests
+     * can be answered from the cached entry without rendering the avatar.
+     *
+     * If lookup batching is enabled, concurrent lookups are combined into one search (see
+     * {@link DirectoryLookupBatcher}).
+     *
      * @param uid the user identifier to search for
      * @return an Optional containing the matched {@link User} if exactly one entry is found, or empty
      *         if no entry is found
      * @throws IncorrectResultSizeDataAccessException if more than one entry matches the given UID
      */
+    @Caching(
+            cacheable = {
+                    // #result is the unwrapped Optional, i.e. null if no user was found
+                    @Cacheable(
+                            cacheNames = CacheNames.DIRECTORY_ENTRIES, key = "T(de.muenchen.oss.ad2image.starter.core.DirectoryLookupService).cacheKey(#uid)",
+                            unless = "#result == null"
+                    ),
+                    @Cacheable(
+                            cacheNames = CacheNames.DIRECTORY_MISSES, key = "T(de.muenchen.oss.ad2image.starter.core.DirectoryLookupService).cacheKey(#uid)",
+                            unless = "#result != null"
+                    )
+            }
+    )
     public Optional<User> findUserInDirectory(String uid) {
-        String userSearchFilter = this.adConfigurationProps.getUserSearchFilter();
-        String safeUid = LdapEncoder.filterEncode(uid);
-        String finalFilter = userSearchFilter.replace("{uid}", safeUid);
-        String uidAttribute = this.adConfigurationProps.getUidAttribute();
-        String mailAttribute = this.adConfigurationProps.getMailAttribute();
-        String thumbnailPhotoAttribute = this.adConfigurationProps.getThumbnailPhotoAttribute();
-        String snAttribute = this.adConfigurationProps.getSnAttribute();
-        String givenNameAttribute = this.adConfigurationProps.getGivenNameAttribute();
+        if (!knownUids.mightBeKnown(uid)) {
+            log.debug("User '{}' is not known from the last directory enumeration, skipping search.", uid);
+            return Optional.empty();
+        }
+        if (lookupBatcher != null) {
+            Optional<User> batched = awaitBatchedLookup(uid);
+            if (batched != null) {
+                return batched;
+            }
+            // not resolved by the batch search, search on its own to report ambiguous entries
+        }
+        return searchUser(uid, true);
+    }
+
+    /**
+     * Same as {@link #findUserInDirectory(String)}, but always searches the directory and replaces the
+     * cached outcome, e.g. to refresh a stale avatar from current directory data. The cached entry
+     * without photo is evicted, so that it does not outlive the refreshed entry.
+     *
+     * @param uid the user identifier to search for
+     * @return an Optional containing the matched {@link User} if exactly one entry is found, or empty
+     *         if no entry is found
+     * @throws IncorrectResultSizeDataAccessException if more than one entry matches the given UID
+     */
+    @Caching(
+            put = {
+                    @CachePut(
+                            cacheNames = CacheNames.DIRECTORY_ENTRIES, key = "T(de.muenchen.oss.ad2image.starter.core.DirectoryLookupService).cacheKey(#uid)",
+                            unless = "#result == null"
+                    ),
+                    @CachePut(
+                            cacheNames = CacheNames.DIRECTORY_MISSES, key = "T(de.muenchen.oss.ad2image.starter.core.DirectoryLookupService).cacheKey(#uid)",
+                            unless = "#result != null"
+                    )
+            },
+            evict = {
+                    @CacheEvict(
+                            cacheNames = CacheNames.DIRECTORY_ENTRIES, key = "T(de.muenchen.oss.ad2image.starter.core.DirectoryLookupService).cacheKey(#uid)",
+                            condition = "#result == null"
+                    ),
+                    @CacheEvict(
+                            cacheNames = CacheNames.DIRECTORY_MISSES, key = "T(de.muenchen.oss.ad2image.starter.core.DirectoryLookupService).cacheKey(#uid)",
+                            condition = "#result != null"
+                    ),
+                    @CacheEvict(
+                            cacheNames = CacheNames.DIRECTORY_ENTRIES,
+                            key = "T(de.muenchen.oss.ad2image.starter.core.DirectoryLookupService).withoutPhotoKey(#uid)"
+                    )
+            }
+    )
+    public Optional<User> refreshUserInDirectory(String uid) {
+        if (!knownUids.mightBeKnown(uid)) {
+            log.debug("User '{}' is not known from the last directory enumeration, skipping search.", uid);
+            return Optional.empty();
+        }
+        return searchUser(uid, true);
+    }
+
+    /**
+     * Same as {@link #findUserInDirectory(String)}, but without retrieving the thumbnail photo, e.g.
+     * for existence checks or revalidation of conditional requests. A cached complete entry is used if
+     * present, otherwise the entry without photo is cached separately (key
+     * {@link #withoutPhotoKey(String)}), so it never replaces a complete entry.
+     *
+     * @param uid the user identifier to search for
+     * @return an Optional containing the matched {@link User} without thumbnail photo if exactly one
+     *         entry is found, or empty if no entry is found
+     * @throws IncorrectResultSizeDataAccessException if more than one entry matches the given UID
+     */
+    @Caching(
+            cacheable = {
+                    // read-only, a complete entry serves as well
+                    @Cacheable(
+                            cacheNames = CacheNames.DIRECTORY_ENTRIES, key = "T(de.muenchen.oss.ad2image.starter.core.DirectoryLookupService).cacheKey(#uid)",
+                            unless = "true"
+                    ),
+                    @Cacheable(
+                            cacheNames = CacheNames.DIRECTORY_ENTRIES,
+                            key = "T(de.muenchen.oss.ad2image.starter.core.DirectoryLookupService).withoutPhotoKey(#uid)",
+                            unless = "#result == null"
+                    ),
+                    @Cacheable(
+                            cacheNames = CacheNames.DIRECTORY_MISSES, key = "T(de.muenchen.oss.ad2image.starter.core.DirectoryLookupService).cacheKey(#uid)",
+                            unless = "#result != null"
+                    )
+            }
+    )
+    public Optional<User> findUserWithoutPhoto(String uid) {
+        if (!knownUids.mightBeKnown(uid)) {
+            log.debug("User '{}' is not known from the last directory enumeration, skipping search.", uid);
+            return Optional.empty();
+        }
+        return searchUser(uid, false);
+    }
+
+    /**
+     * @param uid the user identifier
+     * @return the key of the user's entry without photo in the directory entries cache
+     */
+    public static String withoutPhotoKey(String uid) {
+        return "withoutPhoto:" + cacheKey(uid);
+    }
+
+    /**
+     * Normalizes a uid to the key of the user's cached data. The directory matches uids
+     * case-insensitively, so all spellings of a uid share the same cache entries.
+     *
+     * @param uid the user identifier as requested
+     * @return the key of the user's entries in the directory and avatar caches
+     */
+    public static String cacheKey(String uid) {
+        return uid.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Determines the attributes the user search filter compares with the requested uid, e.g.
+     * {@code cn} for the default filter. Clients request avatars by the values of these attributes,
+     * which are not necessarily the values of the uid attribute. Falls back to the uid attribute if
+     * the filter compares no attribute with the whole uid.
+     *
+     * @param adProps AD configuration
+     * @return the attribute names
+     */
+    public static List<String> uidFilterAttributes(AdConfigurationProperties adProps) {
+        Set<String> attributes = new LinkedHashSet<>();
+        Matcher matcher = UID_ASSERTION.matcher(adProps.getUserSearchFilter());
+        while (matcher.find()) {
+            attributes.add(matcher.group(1));
+        }
+        return attributes.isEmpty() ? List.of(adProps.getUidAttribute()) : List.copyOf(attributes);
+    }
+
+    /**
+     * @param attributes attributes of a directory entry
+     * @param uidFilterAttributes see {@link #uidFilterAttributes(AdConfigurationProperties)}
+     * @return the uids the entry is found by, normalized with {@link #cacheKey(String)}
+     * @throws NamingException if the attribute values cannot be read
+     */
+    public static Set<String> uidFilterValues(Attributes attributes, List<String> uidFilterAttributes) throws NamingException {
+        Set<String> uids = new LinkedHashSet<>();
+        for (String attributeName : uidFilterAttributes) {
+            Attribute attribute = attributes.get(attributeName);
+            if (attribute != null) {
+                NamingEnumeration<?> values = attribute.getAll();
+                while (values.hasMore()) {
+                    uids.add(cacheKey(String.valueOf(values.next())));
+                }
+            }
+        }
+        return uids;
+    }
+
+    private Optional<User> searchUser(String uid, boolean withPhoto) {
         log.debug("Searching for user '{}' in AD ...", uid);
         List<User> searchResult = ldapTemplate.search(
                 LdapQueryBuilder.query().base(this.adConfigurationProps.getUserSearchBase())
-                        .filter(finalFilter),
-                (AttributesMapper<User>) attributes -> {
-                    User u = new User();
-                    u.setUid((String) attributes.get(uidAttribute).get());
-                    u.setEmail((String) attributes.get(mailAttribute).get());
-                    Attribute thumbnailAttribute = attributes.get(thumbnailPhotoAttribute);
-                    if (thumbnailAttribute != null) {
-                        u.setThumbnailPhoto((byte[]) thumbnailAttribute.get());
-                    }
-                    Attribute snAttr = attributes.get(snAttribute);
-                    if (snAttr != null) {
-                        u.setSn((String) snAttr.get());
-                    }
-                    Attribute givenNameAttr = attributes.get(givenNameAttribute);
-                    if (givenNameAttr != null) {
-                        u.setGivenName((String) givenNameAttr.get());
-                    }
-                    return u;
-                });
+                        .attributes(userAttributes(withPhoto))
+                        .filter(userFilter(uid)),
+                userMapper());
         if (searchResult.isEmpty()) {
             log.debug("No user '{}' found.", uid);
             return Optional.empty();
@@ -100,4 +319,153 @@ public class DirectoryLookupService {
             throw new IncorrectResultSizeDataAccessException(1, searchResult.size());
         }
     }
+
+    /**
+     * Locates several users with combined searches, each covering up to {@code chunkSize} uids with
+     * an OR-filter of the user search filter. Unlike {@link #findUserInDirectory(String)}, results
+     * are not cached.
+     *
+     * The found entries are assigned to the requested uids with the attributes the search filter
+     * compares with the uid (see {@link #uidFilterAttributes(AdConfigurationProperties)}), ignoring
+     * case. UIDs matching more than one entry, or no entry although the search found others, are
+     * left out of the result, so they are looked up with a search of their own.
+     *
+     * @param uids the user identifiers to search for
+     * @param chunkSize maximum number of uids per search
+     * @return the found user or an empty Optional for every requested uid which could be resolved
+     */
+    public Map<String, Optional<User>> findUsersInDirectory(Collection<String> uids, int chunkSize) {
+        Map<String, Optional<User>> result = new LinkedHashMap<>();
+        List<String> searchedUids = new ArrayList<>();
+        for (String uid : new LinkedHashSet<>(uids)) {
+            if (knownUids.mightBeKnown(uid)) {
+                searchedUids.add(uid);
+            } else {
+                result.put(uid, Optional.empty());
+            }
+        }
+        List<String> uidFilterAttributes = uidFilterAttributes(this.adConfigurationProps);
+        Set<String> attributes = new LinkedHashSet<>(List.of(userAttributes(true)));
+        attributes.addAll(uidFilterAttributes);
+        AttributesMapper<User> userMapper = userMapper();
+        for (int from = 0; from < searchedUids.size(); from += chunkSize) {
+            List<String> chunk = searchedUids.subList(from, Math.min(from + chunkSize, searchedUids.size()));
+            StringBuilder filter = new StringBuilder("(|");
+            chunk.forEach(uid -> filter.append(userFilter(uid)));
+            filter.append(')');
+            log.debug("Searching for {} users in AD ...", chunk.size());
+            List<FoundEntry> searchResult = ldapTemplate.search(
+                    LdapQueryBuilder.query().base(this.adConfigurationProps.getUserSearchBase()).attributes(attributes.toArray(String[]::new))
+                            .filter(filter.toString()),
+                    (AttributesMapper<FoundEntry>) entry -> new FoundEntry(userMapper.mapFromAttributes(entry),
+                            uidFilterValues(entry, uidFilterAttributes)));
+            Map<String, List<User>> foundByUid = new HashMap<>();
+            searchResult.forEach(entry -> entry.uids().forEach(uid -> foundByUid.computeIfAbsent(uid, k -> new ArrayList<>()).add(entry.user())));
+            for (String uid : chunk) {
+                List<User> found = foundByUid.getOrDefault(cacheKey(uid), List.of());
+                if (found.size() > 1) {
+                    log.warn("Found {} users for uid '{}' in directory.", found.size(), uid);
+                } else if (found.size() == 1) {
+                    result.put(uid, Optional.of(found.getFirst()));
+                } else if (searchResult.isEmpty()) {
+                    // nothing matched the whole filter, so neither would the filter of this uid alone
+                    result.put(uid, Optional.empty());
+                } else {
+                    log.debug("No entry found for uid '{}' in batch search, leaving it to a single search.", uid);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Optional<User> awaitBatchedLookup(String uid) {
+        try {
+            return lookupBatcher.lookup(uid).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the batcher combining concurrent lookups, {@code null} if lookup batching is disabled
+     */
+    public DirectoryLookupBatcher getLookupBatcher() {
+        return lookupBatcher;
+    }
+
+    /**
+     * Stops the lookup batching, if enabled.
+     */
+    @Override
+    public void close() {
+        if (lookupBatcher != null) {
+            lookupBatcher.close();
+        }
+    }
+
+    private String userFilter(String uid) {
+        return this.adConfigurationProps.getUserSearchFilter().replace("{uid}", LdapEncoder.filterEncode(uid));
+    }
+
+    /**
+     * Only the mapped attributes are requested, otherwise AD returns every attribute of the entry
+     * including group memberships and certificates.
+     */
+    private String[] userAttributes(boolean withPhoto) {
+        AdConfigurationProperties props = this.adConfigurationProps;
+        List<String> attributes = new ArrayList<>(List.of(props.getUidAttribute(), props.getMailAttribute(), props.getSnAttribute(),
+                props.getGivenNameAttribute(), props.getWhenChangedAttribute()));
+        if (withPhoto) {
+            attributes.add(props.getThumbnailPhotoAttribute());
+        }
+        return attributes.toArray(String[]::new);
+    }
+
+    private AttributesMapper<User> userMapper() {
+        String uidAttribute = this.adConfigurationProps.getUidAttribute();
+        String mailAttribute = this.adConfigurationProps.getMailAttribute();
+        String thumbnailPhotoAttribute = this.adConfigurationProps.getThumbnailPhotoAttribute();
+        String snAttribute = this.adConfigurationProps.getSnAttribute();
+        String givenNameAttribute = this.adConfigurationProps.getGivenNameAttribute();
+        String whenChangedAttribute = this.adConfigurationProps.getWhenChangedAttribute();
+        return attributes -> {
+            User u = new User();
+            u.setUid((String) attributes.get(uidAttribute).get());
+            u.setEmail((String) attributes.get(mailAttribute).get());
+            Attribute thumbnailAttribute = attributes.get(thumbnailPhotoAttribute);
+            if (thumbnailAttribute != null) {
+                u.setThumbnailPhoto((byte[]) thumbnailAttribute.get());
+            }
+            Attribute snAttr = attributes.get(snAttribute);
+            if (snAttr != null) {
+                u.setSn((String) snAttr.get());
+            }
+            Attribute givenNameAttr = attributes.get(givenNameAttribute);
+            if (givenNameAttr != null) {
+                u.setGivenName((String) givenNameAttr.get());
+            }
+            Attribute whenChangedAttr = attributes.get(whenChangedAttribute);
+            if (whenChangedAttr != null) {
+                u.setWhenChanged(parseGeneralizedTime((String) whenChangedAttr.get()));
+            }
+            return u;
+        };
+    }
+
+    private static Instant parseGeneralizedTime(String value) {
+        try {
+            return OffsetDateTime.parse(value, GENERALIZED_TIME).toInstant();
+        } catch (DateTimeParseException e) {
+            log.warn("Cannot parse modification time '{}' of directory entry, ignoring it.", value);
+            return null;
+        }
+    }
+
+    private record FoundEntry(User user, Set<String> uids) {
+    }
+
 }
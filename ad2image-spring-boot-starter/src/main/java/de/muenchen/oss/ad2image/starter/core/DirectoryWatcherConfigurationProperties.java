@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+
+/**
+ * Configuration of the directory watcher, which polls AD for changed user entries and invalidates
+ * the cached data of these users. This allows long cache TTLs without serving outdated photos.
+ */
+@Validated
+@ConfigurationProperties(prefix = "de.muenchen.oss.ad2image.directory-watcher")
+public class DirectoryWatcherConfigurationProperties {
+
+    /**
+     * Enables/disables the directory watcher.
+     */
+    private boolean enabled;
+
+    /**
+     * Interval between two polls.
+     */
+    @NotNull
+    private Duration pollInterval = Duration.ofMinutes(1);
+
+    /**
+     * Attribute increasing with every change of an entry, either an LDAP generalized time like
+     * 'whenChanged' or 'modifyTimestamp' or a number like 'uSNChanged'. 'uSNChanged' is local to each
+     * domain controller and not replicated, so it must only be used if always the same domain
+     * controller is queried (i.e. not behind a load-balanced URL).
+     */
+    @NotEmpty
+    private String changeAttribute = "whenChanged";
+
+    /**
+     * LDAP search filter for the watched users, combined with a condition on the change attribute.
+     */
+    @NotEmpty
+    private String filter = "(objectClass=organizationalPerson)";
+
+    /**
+     * page size for retrieval of changed users
+     */
+    @Positive
+    private int pageSize = 500;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(Duration pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public String getChangeAttribute() {
+        return changeAttribute;
+    }
+
+    public void setChangeAttribute(String changeAttribute) {
+        this.changeAttribute = changeAttribute;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+}
@@ -22,30 +22,124 @@
  */
 package de.muenchen.oss.ad2image.starter.core;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.net.URIBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.restclient.RestTemplateBuilder;
-import org.springframework.http.HttpEntity;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
-import org.springframework.web.client.RestClientException;
-import org.springframework.web.client.RestTemplate;
 
-public class EwsUserPhotoService {
+/**
+ * Fetches user photos from Exchange (EWS 'GetUserPhoto'). Requests are executed by a non-blocking
+ * HTTP client with a pool of kept-alive connections, limited per route and in total. If enabled, a
+ * {@link CircuitBreaker} rejects requests right away while Exchange keeps failing.
+ */
+public class EwsUserPhotoService implements AutoCloseable {
 
     private static final Logger log = LoggerFactory.getLogger(EwsUserPhotoService.class);
 
     private final String exchangeBaseUrl;
-    private final RestTemplate restTemplate;
+    private final ImageSize masterPhotoSize;
+    private final String authorization;
+    private final CloseableHttpAsyncClient httpClient;
+    private final CircuitBreaker circuitBreaker;
 
-    public EwsUserPhotoService(ExchangeConfigurationProperties exchangeConfigurationProperties, RestTemplateBuilder restTemplateBuilder) {
+    public EwsUserPhotoService(ExchangeConfigurationProperties exchangeConfigurationProperties) {
         this.exchangeBaseUrl = exchangeConfigurationProperties.getEwsServiceUrl();
-        this.restTemplate = restTemplateBuilder
-                .basicAuthentication(exchangeConfigurationProperties.getUsername(), exchangeConfigurationProperties.getPassword())
+        this.masterPhotoSize = exchangeConfigurationProperties.getMasterPhotoSize();
+        this.authorization = "Basic " + HttpHeaders.encodeBasicAuth(exchangeConfigurationProperties.getUsername(),
+                exchangeConfigurationProperties.getPassword(), StandardCharsets.ISO_8859_1);
+        this.httpClient = createHttpClient(exchangeConfigurationProperties);
+        this.httpClient.start();
+        CircuitBreakerConfigurationProperties breakerProps = exchangeConfigurationProperties.getCircuitBreaker();
+        this.circuitBreaker = breakerProps.isEnabled() ? new CircuitBreaker("exchange", breakerProps) : null;
+    }
+
+    /**
+     * @param exchangeConfigurationProperties the Exchange configuration
+     * @param restTemplateBuilder not used anymore, photos are fetched with a pooled non-blocking HTTP
+     *            client configured by {@code exchangeConfigurationProperties}
+     * @deprecated use {@link #EwsUserPhotoService(ExchangeConfigurationProperties)}
+     */
+    @Deprecated(since = "2.1.2", forRemoval = true)
+    public EwsUserPhotoService(ExchangeConfigurationProperties exchangeConfigurationProperties, RestTemplateBuilder restTemplateBuilder) {
+        this(exchangeConfigurationProperties);
+    }
+
+    private static CloseableHttpAsyncClient createHttpClient(ExchangeConfigurationProperties props) {
+        PoolingAsyncClientConnectionManager connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                .useSystemProperties()
+                .setMaxConnPerRoute(props.getMaxConnectionsPerRoute())
+                .setMaxConnTotal(props.getMaxConnections())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(props.getConnectTimeout()))
+                        .build())
+                .build();
+        return HttpAsyncClients.custom()
+                .useSystemProperties()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(props.getConnectionRequestTimeout()))
+                        .setResponseTimeout(Timeout.of(props.getResponseTimeout()))
+                        .build())
+                .evictIdleConnections(TimeValue.of(props.getIdleTimeout()))
                 .build();
     }
 
+    /**
+     * Retrieves the user's photo in the configured master size. The master photo is cached per user
+     * (if caching is enabled), all other sizes are meant to be derived from it locally.
+     *
+     * @param email user's email
+     * @return the user's photo in the size returned by {@link #getMasterPhotoSize()}
+     * @throws EwsUserPhotoLookupException when users photo could not be retrieved
+     */
+    @Cacheable(CacheNames.EXCHANGE_PHOTOS)
+    public byte[] getMasterPhoto(String email) {
+        return getUserPhotoFromExchange(email, masterPhotoSize);
+    }
+
+    /**
+     * Same as {@link #getMasterPhoto(String)}, but always fetches the photo from Exchange and replaces
+     * the cached photo, e.g. to refresh a stale avatar.
+     *
+     * @param email user's email
+     * @return the user's photo in the size returned by {@link #getMasterPhotoSize()}
+     * @throws EwsUserPhotoLookupException when users photo could not be retrieved
+     */
+    @CachePut(CacheNames.EXCHANGE_PHOTOS)
+    public byte[] refreshMasterPhoto(String email) {
+        return getUserPhotoFromExchange(email, masterPhotoSize);
+    }
+
+    /**
+     * @return the size of the photos returned by {@link #getMasterPhoto(String)}
+     */
+    public ImageSize getMasterPhotoSize() {
+        return masterPhotoSize;
+    }
+
     /**
      * @param email user's email
      * @param size requested {@link ImageSize}
@@ -53,22 +147,117 @@ public class EwsUserPhotoService {
      * @throws EwsUserPhotoLookupException when users photo could not be retrieved
      */
     public byte[] getUserPhotoFromExchange(String email, ImageSize size) {
-        String url = this.exchangeBaseUrl + "/s/GetUserPhoto?email=" + email + "&size=" + size.getSizeRequestedValue();
-
-        HttpHeaders headers = new HttpHeaders();
-        HttpEntity<String> entity = new HttpEntity<>(headers);
+        try {
+            return getUserPhotoFromExchangeAsync(email, size).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof EwsUserPhotoLookupException lookupException) {
+                throw lookupException;
+            }
+            throw new EwsUserPhotoLookupException("Exception while fetching user photo from Exchange.", cause);
+        }
+    }
 
+    /**
+     * Same as {@link #getUserPhotoFromExchange(String, ImageSize)}, but without blocking the calling
+     * thread. Photos fetched this way are not cached.
+     *
+     * @param email user's email
+     * @param size requested {@link ImageSize}
+     * @return future of the user's photo, completed exceptionally with an
+     *         {@link EwsUserPhotoLookupException} when the photo could not be retrieved, or with an
+     *         {@link ExchangeUnavailableException} right away if the circuit breaker is open;
+     *         cancelling it aborts the request
+     */
+    public CompletableFuture<byte[]> getUserPhotoFromExchangeAsync(String email, ImageSize size) {
+        URI uri;
         try {
-            ResponseEntity<byte[]> responseEntity = restTemplate.exchange(url, HttpMethod.GET, entity, byte[].class);
-            if (responseEntity.getStatusCode().is2xxSuccessful()) {
-                return responseEntity.getBody();
-            } else {
-                throw new EwsUserPhotoLookupException(
-                        "Failed to retrieve user photo from Exchange, HTTP status code: %s".formatted(responseEntity.getStatusCode()));
+            uri = getUserPhotoUri(email, size);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new EwsUserPhotoLookupException("Invalid user photo URL for '%s'.".formatted(email), e));
+        }
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            return CompletableFuture.failedFuture(new ExchangeUnavailableException("Circuit breaker for Exchange is open, not fetching user photo."));
+        }
+        SimpleHttpRequest request = SimpleRequestBuilder.get(uri)
+                .addHeader(HttpHeaders.AUTHORIZATION, authorization)
+                .build();
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        Future<SimpleHttpResponse> exchange = httpClient.execute(request, new FutureCallback<>() {
+
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                // client errors (e.g. unknown mailbox) do not indicate a problem of Exchange
+                recordOutcome(response.getCode() < 500);
+                if (response.getCode() >= 200 && response.getCode() < 300) {
+                    result.complete(response.getBodyBytes());
+                } else {
+                    result.completeExceptionally(new EwsUserPhotoLookupException(
+                            "Failed to retrieve user photo from Exchange, HTTP status code: %s".formatted(response.getCode())));
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                recordOutcome(false);
+                result.completeExceptionally(new EwsUserPhotoLookupException("Exception while fetching user photo from Exchange.", e));
             }
-        } catch (RestClientException e) {
-            throw new EwsUserPhotoLookupException("Exception while fetching user photo from Exchange.", e);
+
+            @Override
+            public void cancelled() {
+                if (result.isCancelled()) {
+                    // abandoned by the caller, says nothing about Exchange
+                    if (circuitBreaker != null) {
+                        circuitBreaker.onIgnored();
+                    }
+                } else {
+                    recordOutcome(false);
+                    result.completeExceptionally(new EwsUserPhotoLookupException("Fetching user photo from Exchange was cancelled."));
+                }
+            }
+
+        });
+        result.whenComplete((photo, e) -> {
+            if (result.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private URI getUserPhotoUri(String email, ImageSize size) throws URISyntaxException {
+        // query parameters are encoded, e.g. '+' or '&' in the mail address
+        return new URIBuilder(this.exchangeBaseUrl + "/s/GetUserPhoto")
+                .addParameter("email", email)
+                .addParameter("size", size.getSizeRequestedValue())
+                .build();
+    }
+
+    private void recordOutcome(boolean success) {
+        if (circuitBreaker == null) {
+            return;
         }
+        if (success) {
+            circuitBreaker.onSuccess();
+        } else {
+            circuitBreaker.onFailure();
+        }
+    }
+
+    /**
+     * @return the circuit breaker protecting the Exchange requests, {@code null} if disabled
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Closes the HTTP client and its pooled connections.
+     */
+    @Override
+    public void close() {
+        log.debug("Closing Exchange HTTP client.");
+        httpClient.close(CloseMode.GRACEFUL);
     }
 
     public static class EwsUserPhotoLookupException extends RuntimeException {
@@ -81,4 +270,14 @@ public class EwsUserPhotoService {
             super(message);
         }
     }
+
+    /**
+     * Thrown without contacting Exchange while the circuit breaker is open.
+     */
+    public static class ExchangeUnavailableException extends EwsUserPhotoLookupException {
+
+        public ExchangeUnavailableException(String message) {
+            super(message);
+        }
+    }
 }
@@ -22,10 +22,16 @@
  */
 package de.muenchen.oss.ad2image.starter.core;
 
+import java.time.Duration;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.NestedConfigurationProperty;
 import org.springframework.validation.annotation.Validated;
 
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
 
 /**
  * @author michael.prankl
@@ -45,6 +51,46 @@ public class ExchangeConfigurationProperties {
     /** Password for EWS Basic Auth **/
     @NotEmpty
     private String password;
+    /**
+     * Size of the photo fetched from Exchange. It is fetched once per user and all sizes above the AD
+     * thumbnail size are derived from it.
+     */
+    @NotNull
+    private ImageSize masterPhotoSize = ImageSize.HR648;
+    /**
+     * Timeout for establishing a connection to Exchange.
+     */
+    @NotNull
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    /**
+     * Timeout for the response of Exchange, i.e. maximum inactivity while waiting for data.
+     */
+    @NotNull
+    private Duration responseTimeout = Duration.ofSeconds(10);
+    /**
+     * Maximum time to wait for a connection of the pool if all connections are in use.
+     */
+    @NotNull
+    private Duration connectionRequestTimeout = Duration.ofSeconds(5);
+    /**
+     * Maximum number of connections per route (host) to Exchange.
+     */
+    @Positive
+    private int maxConnectionsPerRoute = 20;
+    /**
+     * Maximum number of connections to Exchange in total.
+     */
+    @Positive
+    private int maxConnections = 50;
+    /**
+     * Idle time after which a kept-alive connection is closed.
+     */
+    @NotNull
+    private Duration idleTimeout = Duration.ofMinutes(1);
+
+    @NestedConfigurationProperty
+    @Valid
+    private CircuitBreakerConfigurationProperties circuitBreaker = new CircuitBreakerConfigurationProperties();
 
     public String getUsername() {
         return username;
@@ -70,4 +116,68 @@ public class ExchangeConfigurationProperties {
         this.ewsServiceUrl = baseUrl;
     }
 
+    public ImageSize getMasterPhotoSize() {
+        return masterPhotoSize;
+    }
+
+    public void setMasterPhotoSize(ImageSize masterPhotoSize) {
+        this.masterPhotoSize = masterPhotoSize;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Duration getResponseTimeout() {
+        return responseTimeout;
+    }
+
+    public void setResponseTimeout(Duration responseTimeout) {
+        this.responseTimeout = responseTimeout;
+    }
+
+    public Duration getConnectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    public void setConnectionRequestTimeout(Duration connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public Duration getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(Duration idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public CircuitBreakerConfigurationProperties getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(CircuitBreakerConfigurationProperties circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
 }
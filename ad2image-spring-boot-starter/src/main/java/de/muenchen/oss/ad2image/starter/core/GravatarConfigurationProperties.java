@@ -38,9 +38,10 @@ public class GravatarConfigurationProperties {
     private boolean enabled;
 
     /**
-     * cron expression for periodic refresh of the SHA256 email address hashes, "-" to disable.
+     * cron expression for periodic refresh of the SHA256 email address hashes (and the known uids),
+     * "-" to disable. Defaults to hourly.
      */
-    private String hashCacheRefreshCron = "-";
+    private String hashCacheRefreshCron = "0 0 * * * *";
 
     /**
      * LDAP search filter for users which should be included in generation of SHA256-hashed email
@@ -61,6 +62,21 @@ public class GravatarConfigurationProperties {
      */
     private Mode defaultMode = Mode.M_FALLBACK_GENERIC;
 
+    /**
+     * Use the uids of the users enumerated with {@link #mapPopulationFilter} to answer lookups of
+     * unknown uids without a directory search. Only enable this if the filter covers all users
+     * which can be found with the user search filter, new users are found after the next
+     * {@link #hashCacheRefreshCron refresh} (or once the directory watcher sees them).
+     */
+    private boolean knownUidFilterEnabled;
+
+    /**
+     * For large images, start fetching the Exchange photo of the mail address behind the hash while
+     * the user is still looked up in the directory. The fetch is cancelled if the user turns out to
+     * have no photo.
+     */
+    private boolean speculativePhotoFetch = true;
+
     /**
      * Whether the Gravatar compatibility endpoint is enabled.
      *
@@ -123,4 +139,21 @@ public class GravatarConfigurationProperties {
     public void setDefaultMode(Mode defaultMode) {
         this.defaultMode = defaultMode;
     }
+
+    public boolean isKnownUidFilterEnabled() {
+        return knownUidFilterEnabled;
+    }
+
+    public void setKnownUidFilterEnabled(boolean knownUidFilterEnabled) {
+        this.knownUidFilterEnabled = knownUidFilterEnabled;
+    }
+
+    public boolean isSpeculativePhotoFetch() {
+        return speculativePhotoFetch;
+    }
+
+    public void setSpeculativePhotoFetch(boolean speculativePhotoFetch) {
+        this.speculativePhotoFetch = speculativePhotoFetch;
+    }
+
 }
@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Decodes and encodes images in memory. Compared to {@link ImageIO#read} and {@link ImageIO#write},
+ * this avoids
+ * <ul>
+ * <li>looking up the service provider of the format for every image, PNG and JPEG readers and the
+ * PNG writer are pooled and reused</li>
+ * <li>temporary files, the streams are always cached in memory regardless of
+ * {@link ImageIO#getUseCache()}</li>
+ * </ul>
+ * The pools are shared by all threads rather than kept per thread, as requests may run on virtual
+ * threads which are never reused.
+ */
+public final class ImageCodec {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageCodec.class);
+
+    private static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+    private static final Pool<ImageReader> PNG_READERS = new Pool<>(() -> ImageIO.getImageReadersByFormatName("png").next(), ImageReader::dispose);
+
+    private static final Pool<ImageReader> JPEG_READERS = new Pool<>(() -> ImageIO.getImageReadersByFormatName("jpeg").next(), ImageReader::dispose);
+
+    private static final Pool<ImageWriter> PNG_WRITERS = new Pool<>(() -> ImageIO.getImageWritersByFormatName("png").next(), ImageWriter::dispose);
+
+    private static volatile int pngCompressionLevel = ImageConfigurationProperties.DEFAULT_PNG_COMPRESSION_LEVEL;
+
+    private ImageCodec() {
+    }
+
+    /**
+     * Applies the encoder configuration to all images encoded in this JVM.
+     *
+     * @param imageProps the image configuration
+     */
+    public static void configure(ImageConfigurationProperties imageProps) {
+        pngCompressionLevel = imageProps.getPngCompressionLevel();
+    }
+
+    /**
+     * Decodes an image.
+     *
+     * @param imageBytes the image in a format readable by {@link ImageIO}
+     * @return the image, {@code null} if the format is not supported
+     * @throws IOException if the image cannot be decoded
+     */
+    public static BufferedImage decode(byte[] imageBytes) throws IOException {
+        return decode(imageBytes, 0, 0);
+    }
+
+    /**
+     * Decodes an image. JPEG photos are decoded with source subsampling if they are at least twice as
+     * large as the given minimum size, skipping rows and columns which are not needed.
+     *
+     * @param imageBytes the image in a format readable by {@link ImageIO}
+     * @param minWidth minimum width of the decoded image, {@code 0} to decode the full image
+     * @param minHeight minimum height of the decoded image, {@code 0} to decode the full image
+     * @return the image, {@code null} if the format is not supported
+     * @throws IOException if the image cannot be decoded
+     */
+    public static BufferedImage decode(byte[] imageBytes, int minWidth, int minHeight) throws IOException {
+        Pool<ImageReader> pool = isPng(imageBytes) ? PNG_READERS : isJpeg(imageBytes) ? JPEG_READERS : null;
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(imageBytes))) {
+            ImageReader reader;
+            if (pool != null) {
+                reader = pool.acquire();
+            } else {
+                // other formats are rare, look up the reader
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+                if (!readers.hasNext()) {
+                    return null;
+                }
+                reader = readers.next();
+            }
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (pool == JPEG_READERS && minWidth > 0 && minHeight > 0) {
+                    int subsampling = Math.min(reader.getWidth(0) / minWidth, reader.getHeight(0) / minHeight);
+                    if (subsampling > 1) {
+                        log.debug("Decoding {}x{} px JPEG with subsampling {}.", reader.getWidth(0), reader.getHeight(0), subsampling);
+                        // offset to the center of each block of skipped pixels
+                        param.setSourceSubsampling(subsampling, subsampling, subsampling / 2, subsampling / 2);
+                    }
+                }
+                return reader.read(0, param);
+            } finally {
+                if (pool != null) {
+                    reader.reset();
+                    pool.release(reader);
+                } else {
+                    reader.dispose();
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes an image as PNG with the configured compression level.
+     *
+     * @param image the image
+     * @return the PNG
+     * @throws IOException if the image cannot be encoded
+     */
+    public static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageWriter writer = PNG_WRITERS.acquire();
+        try (ImageOutputStream output = new MemoryCacheImageOutputStream(baos)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            // the PNG writer maps the quality to the deflate level 9 - round(9 * quality)
+            param.setCompressionQuality((9 - pngCompressionLevel) / 9f);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.reset();
+            PNG_WRITERS.release(writer);
+        }
+        return baos.toByteArray();
+    }
+
+    private static boolean isPng(byte[] bytes) {
+        return bytes.length >= 8 && (bytes[0] & 0xff) == 0x89 && bytes[1] == 'P' && bytes[2] == 'N' && bytes[3] == 'G';
+    }
+
+    private static boolean isJpeg(byte[] bytes) {
+        return bytes.length >= 3 && (bytes[0] & 0xff) == 0xff && (bytes[1] & 0xff) == 0xd8 && (bytes[2] & 0xff) == 0xff;
+    }
+
+    /**
+     * Bounded pool of readers or writers. If it is empty, a new instance is created; instances
+     * released to a full pool are discarded.
+     */
+    private static final class Pool<T> {
+
+        private final BlockingQueue<T> idle = new ArrayBlockingQueue<>(POOL_SIZE);
+
+        private final Supplier<T> factory;
+
+        private final Consumer<T> disposer;
+
+        Pool(Supplier<T> factory, Consumer<T> disposer) {
+            this.factory = factory;
+            this.disposer = disposer;
+        }
+
+        T acquire() {
+            T instance = idle.poll();
+            return instance != null ? instance : factory.get();
+        }
+
+        void release(T instance) {
+            if (!idle.offer(instance)) {
+                disposer.accept(instance);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.PositiveOrZero;
+
+/**
+ * Configuration of the image processing.
+ */
+@Validated
+@ConfigurationProperties(prefix = "de.muenchen.oss.ad2image.image")
+public class ImageConfigurationProperties {
+
+    /**
+     * Default of {@link #getPngCompressionLevel()}, the default of the PNG encoder of the JDK.
+     */
+    public static final int DEFAULT_PNG_COMPRESSION_LEVEL = 4;
+
+    /**
+     * Algorithm used to scale photos and placeholder images.
+     */
+    @NotNull
+    private Resampler resampler = Resampler.BICUBIC;
+
+    /**
+     * Decode JPEG photos which are much larger than the target size with source subsampling, which
+     * reduces decoding time and memory.
+     */
+    private boolean subsampledDecode = true;
+
+    /**
+     * Deflate level of the generated PNG images, from 0 (no compression, fastest) to 9 (smallest).
+     */
+    @PositiveOrZero
+    @Max(9)
+    private int pngCompressionLevel = DEFAULT_PNG_COMPRESSION_LEVEL;
+
+    public Resampler getResampler() {
+        return resampler;
+    }
+
+    public void setResampler(Resampler resampler) {
+        this.resampler = resampler;
+    }
+
+    public boolean isSubsampledDecode() {
+        return subsampledDecode;
+    }
+
+    public void setSubsampledDecode(boolean subsampledDecode) {
+        this.subsampledDecode = subsampledDecode;
+    }
+
+    public int getPngCompressionLevel() {
+        return pngCompressionLevel;
+    }
+
+    public void setPngCompressionLevel(int pngCompressionLevel) {
+        this.pngCompressionLevel = pngCompressionLevel;
+    }
+
+}
@@ -28,29 +28,93 @@ import org.slf4j.LoggerFactory;
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.DataBufferInt;
 import java.io.IOException;
 
 public class ImageScaler {
 
     private static final Logger log = LoggerFactory.getLogger(ImageScaler.class);
 
+    private static volatile ImageConfigurationProperties imageProps = new ImageConfigurationProperties();
+
+    /**
+     * Scales an image with the {@link #getDefaultResampler() default resampler}.
+     *
+     * @param originalImageBytes the image in a format readable by {@link ImageIO}
+     * @param targetWidth the target width
+     * @param targetHeight the target height
+     * @return the scaled image as PNG
+     * @throws IOException if the image could not be read
+     */
     public static byte[] scaleImage(byte[] originalImageBytes, int targetWidth, int targetHeight) throws IOException {
-        log.debug("Scaling image to {}x{} px / png format...", targetWidth, targetHeight);
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(originalImageBytes); ByteArrayOutputStream baos = new ByteArrayOutputStream();) {
-            BufferedImage originalImage = ImageIO.read(bais);
+        return scaleImage(originalImageBytes, targetWidth, targetHeight, imageProps.getResampler());
+    }
 
-            Image scaledImage = originalImage.getScaledInstance(targetWidth, targetHeight, Image.SCALE_SMOOTH);
-            BufferedImage outputImage = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_ARGB);
+    /**
+     * Scales an image.
+     *
+     * @param originalImageBytes the image in a format readable by {@link ImageIO}
+     * @param targetWidth the target width
+     * @param targetHeight the target height
+     * @param resampler the scaling algorithm
+     * @return the scaled image as PNG
+     * @throws IOException if the image could not be read
+     */
+    public static byte[] scaleImage(byte[] originalImageBytes, int targetWidth, int targetHeight, Resampler resampler) throws IOException {
+        log.debug("Scaling image to {}x{} px / png format with {}...", targetWidth, targetHeight, resampler);
+        // large JPEG photos are decoded with subsampling, keeping twice the target size so that the
+        // resampler still averages several source pixels per target pixel
+        BufferedImage originalImage = imageProps.isSubsampledDecode()
+                ? ImageCodec.decode(originalImageBytes, 2 * targetWidth, 2 * targetHeight)
+                : ImageCodec.decode(originalImageBytes);
+        if (originalImage == null) {
+            throw new IOException("Unsupported image format.");
+        }
 
-            Graphics2D g2d = outputImage.createGraphics();
+        return ImageCodec.encodePng(scale(originalImage, targetWidth, targetHeight, resampler));
+    }
 
-            g2d.drawImage(scaledImage, 0, 0, null);
-            g2d.dispose();
+    /**
+     * Scales a decoded image with the {@link #getDefaultResampler() default resampler}.
+     *
+     * @param image the image
+     * @param targetWidth the target width
+     * @param targetHeight the target height
+     * @return the scaled image
+     */
+    public static BufferedImage scale(BufferedImage image, int targetWidth, int targetHeight) {
+        return scale(image, targetWidth, targetHeight, getDefaultResampler());
+    }
 
-            ImageIO.write(outputImage, "png", baos);
-            return baos.toByteArray();
-        }
+    private static BufferedImage scale(BufferedImage image, int targetWidth, int targetHeight, Resampler resampler) {
+        int[] scaledPixels = resampler.resample(toArgbPixels(image), image.getWidth(), image.getHeight(), targetWidth, targetHeight);
+        BufferedImage outputImage = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_ARGB);
+        outputImage.getRaster().setDataElements(0, 0, targetWidth, targetHeight, scaledPixels);
+        return outputImage;
+    }
+
+    /**
+     * @return the resampler used by {@link #scaleImage(byte[], int, int)}
+     */
+    public static Resampler getDefaultResampler() {
+        return imageProps.getResampler();
+    }
+
+    /**
+     * Applies the image configuration to all scaling in this JVM.
+     *
+     * @param imageProps the image configuration
+     */
+    public static void configure(ImageConfigurationProperties imageProps) {
+        ImageScaler.imageProps = imageProps;
+    }
+
+    private static int[] toArgbPixels(BufferedImage image) {
+        // decoders return byte based images, drawing converts them with the optimized Java2D loops
+        BufferedImage argbImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = argbImage.createGraphics();
+        g2d.drawImage(image, 0, 0, null);
+        g2d.dispose();
+        return ((DataBufferInt) argbImage.getRaster().getDataBuffer()).getData();
     }
 }
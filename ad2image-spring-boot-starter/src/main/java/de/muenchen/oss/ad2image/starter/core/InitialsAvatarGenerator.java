@@ -28,9 +28,9 @@ import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.DataBufferInt;
 import java.io.IOException;
-import javax.imageio.ImageIO;
+import java.util.Arrays;
 
 public class InitialsAvatarGenerator {
 
@@ -58,11 +58,10 @@ public class InitialsAvatarGenerator {
         Color bg = hslToRgb(hue, 0.60f, 0.45f);
 
         BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        // filling the raster directly is cheaper than a Graphics2D fill
+        Arrays.fill(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), bg.getRGB());
         Graphics2D g2 = image.createGraphics();
         try {
-            g2.setColor(bg);
-            g2.fillRect(0, 0, size, size);
-
             if (initials != null && !initials.isBlank()) {
                 g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
                 g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
@@ -77,13 +76,11 @@ public class InitialsAvatarGenerator {
             g2.dispose();
         }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
-            ImageIO.write(image, "png", baos);
+            return ImageCodec.encodePng(image);
         } catch (IOException e) {
             throw new RuntimeException("Failed to generate initials avatar", e);
         }
-        return baos.toByteArray();
     }
 
     /**
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Set of all uids known from the last enumeration of the directory, held as {@link BloomFilter}.
+ * Lets lookups of uids which cannot exist skip the directory search. As long as no enumeration has
+ * been {@link #update(Collection) provided}, every uid might be known.
+ */
+public class KnownUids {
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private volatile BloomFilter filter;
+    private final LongAdder rejectedLookups = new LongAdder();
+
+    /**
+     * Replaces the known uids with the given enumeration.
+     *
+     * @param uids all uids of the directory
+     */
+    public void update(Collection<String> uids) {
+        BloomFilter newFilter = new BloomFilter(uids.size(), FALSE_POSITIVE_PROBABILITY);
+        uids.forEach(uid -> newFilter.put(normalize(uid)));
+        this.filter = newFilter;
+    }
+
+    /**
+     * Adds a single uid, e.g. of a user created after the last enumeration. Has no effect as long as
+     * no enumeration has been provided, as every uid might be known then.
+     *
+     * @param uid the uid
+     */
+    public synchronized void add(String uid) {
+        BloomFilter currentFilter = this.filter;
+        if (currentFilter != null) {
+            currentFilter.put(normalize(uid));
+        }
+    }
+
+    /**
+     * @param uid the uid to check (case-insensitive)
+     * @return {@code false} if the uid is definitely not known, {@code true} if it might be known or
+     *         no enumeration is available yet
+     */
+    public boolean mightBeKnown(String uid) {
+        BloomFilter currentFilter = this.filter;
+        if (currentFilter == null || uid == null || currentFilter.mightContain(normalize(uid))) {
+            return true;
+        }
+        rejectedLookups.increment();
+        return false;
+    }
+
+    /**
+     * @return {@code true} if an enumeration has been provided
+     */
+    public boolean isPopulated() {
+        return filter != null;
+    }
+
+    /**
+     * @return number of {@link #mightBeKnown(String)} checks which returned {@code false}
+     */
+    public long getRejectedLookupCount() {
+        return rejectedLookups.sum();
+    }
+
+    private static String normalize(String uid) {
+        // directory servers match uids case-insensitively
+        return uid.trim().toLowerCase(Locale.ROOT);
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+
+/**
+ * Configuration of the pool of AD connections used for user lookups. Without the pool every
+ * uncached lookup opens a new connection, including bind and - with LDAPS - TLS handshake.
+ */
+@Validated
+@ConfigurationProperties(prefix = "de.muenchen.oss.ad2image.ad.pool")
+public class LdapPoolConfigurationProperties {
+
+    /**
+     * Enables/disables pooling of AD connections (requires 'org.apache.commons:commons-pool2').
+     */
+    private boolean enabled;
+
+    /**
+     * Maximum number of connections, borrowed or idle.
+     */
+    @Positive
+    private int maxTotal = 8;
+
+    /**
+     * Maximum number of idle connections kept in the pool.
+     */
+    @PositiveOrZero
+    private int maxIdle = 8;
+
+    /**
+     * Minimum number of idle connections, established by the evictor in advance.
+     */
+    @PositiveOrZero
+    private int minIdle = 0;
+
+    /**
+     * Maximum time to wait for a connection if the pool is exhausted.
+     */
+    @NotNull
+    private Duration maxWait = Duration.ofSeconds(5);
+
+    /**
+     * Validate connections before they are borrowed from the pool.
+     */
+    private boolean testOnBorrow = true;
+
+    /**
+     * Validate idle connections during eviction runs.
+     */
+    private boolean testWhileIdle = true;
+
+    /**
+     * Interval between two eviction runs.
+     */
+    @NotNull
+    private Duration timeBetweenEvictionRuns = Duration.ofMinutes(1);
+
+    /**
+     * Idle time after which a connection is evicted, should be below the 'MaxConnIdleTime' of the
+     * domain controllers (15 minutes by default).
+     */
+    @NotNull
+    private Duration minEvictableIdleTime = Duration.ofMinutes(10);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    public Duration getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(Duration maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    public boolean isTestOnBorrow() {
+        return testOnBorrow;
+    }
+
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    public boolean isTestWhileIdle() {
+        return testWhileIdle;
+    }
+
+    public void setTestWhileIdle(boolean testWhileIdle) {
+        this.testWhileIdle = testWhileIdle;
+    }
+
+    public Duration getTimeBetweenEvictionRuns() {
+        return timeBetweenEvictionRuns;
+    }
+
+    public void setTimeBetweenEvictionRuns(Duration timeBetweenEvictionRuns) {
+        this.timeBetweenEvictionRuns = timeBetweenEvictionRuns;
+    }
+
+    public Duration getMinEvictableIdleTime() {
+        return minEvictableIdleTime;
+    }
+
+    public void setMinEvictableIdleTime(Duration minEvictableIdleTime) {
+        this.minEvictableIdleTime = minEvictableIdleTime;
+    }
+
+}
@@ -0,0 +1,434 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent key-value store for binary values. Values are appended to a data file which is
+ * memory-mapped with a fixed maximum size, an in-memory index points to the latest record of each
+ * key.
+ * <p>
+ * On {@link #close()} the mapping is flushed and the index is written next to the data file. On
+ * startup the index is loaded from there; if it is missing (e.g. after a crash) it is rebuilt by
+ * scanning the data file, which stops at the first incomplete record. When the data file is full,
+ * it is compacted to the newest half of the live entries. Removals are appended as records with an
+ * empty value, so that a scan does not bring removed entries back.
+ * <p>
+ * The store holds an exclusive lock on a lock file next to the data file while it is open, so a
+ * data
+ * file cannot be opened by two stores (or processes) at once.
+ */
+public class MappedByteStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedByteStore.class);
+
+    private static final int RECORD_MAGIC = 0xAD21A6E0;
+    private static final int INDEX_MAGIC = 0xAD21A6E1;
+    /** magic, key length, value length, storedAt, crc32 of key and value */
+    private static final int RECORD_HEADER_BYTES = 4 + 4 + 4 + 8 + 4;
+
+    private final Path dataFile;
+    private final Path indexFile;
+    private final int maxSize;
+    private final FileChannel lockChannel;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // guarded by lock
+    private final Map<String, Slot> index = new HashMap<>();
+    private MappedByteBuffer buffer;
+    private int end;
+    private boolean closed;
+
+    /**
+     * A stored value.
+     *
+     * @param value the value
+     * @param storedAt when the value was stored
+     */
+    public record Entry(byte[] value, Instant storedAt) {
+    }
+
+    private record Slot(int recordOffset, int keyLength, int valueLength, long storedAt) {
+
+        int valueOffset() {
+            return recordOffset + RECORD_HEADER_BYTES + keyLength;
+        }
+
+        int recordLength() {
+            return RECORD_HEADER_BYTES + keyLength + valueLength;
+        }
+
+    }
+
+    /**
+     * Opens (or creates) the store.
+     *
+     * @param dataFile the data file, the index is stored next to it with suffix {@code .idx}
+     * @param maxSize maximum size of the data file in bytes
+     * @throws IOException if the data file cannot be opened or mapped, or is locked by another store
+     */
+    public MappedByteStore(Path dataFile, int maxSize) throws IOException {
+        if (maxSize < 1024) {
+            throw new IllegalArgumentException("maxSize must be at least 1024 bytes");
+        }
+        this.dataFile = dataFile.toAbsolutePath();
+        this.indexFile = this.dataFile.resolveSibling(this.dataFile.getFileName() + ".idx");
+        this.maxSize = maxSize;
+        Files.createDirectories(this.dataFile.getParent());
+        this.lockChannel = lock(this.dataFile.resolveSibling(this.dataFile.getFileName() + ".lock"));
+        try {
+            this.buffer = map(this.dataFile, maxSize);
+            if (!loadIndex()) {
+                scan();
+            }
+            // the index is only valid until the next write, a crash must lead to a scan
+            Files.deleteIfExists(indexFile);
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+        log.info("Opened store '{}' with {} entries ({} of {} bytes used).", this.dataFile, index.size(), end, maxSize);
+    }
+
+    /**
+     * Looks up the latest value stored for the key.
+     *
+     * @param key the key
+     * @return the entry, or {@code null} if nothing is stored for the key
+     */
+    public Entry get(String key) {
+        lock.readLock().lock();
+        try {
+            Slot slot = index.get(key);
+            if (slot == null || closed) {
+                return null;
+            }
+            byte[] value = new byte[slot.valueLength()];
+            buffer.get(slot.valueOffset(), value);
+            return new Entry(value, Instant.ofEpochMilli(slot.storedAt()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the value for the key. Values larger than half of the store and empty values are not
+     * stored.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void put(String key, byte[] value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int recordLength = RECORD_HEADER_BYTES + keyBytes.length + value.length;
+        if (value.length == 0) {
+            // empty values mark removals
+            return;
+        }
+        if (recordLength > maxSize / 2) {
+            log.debug("Value for '{}' with {} bytes is too large for store '{}'.", key, value.length, dataFile);
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (end + recordLength > maxSize) {
+                compact(recordLength);
+            }
+            long storedAt = System.currentTimeMillis();
+            int offset = end;
+            writeRecord(buffer, offset, keyBytes, value, storedAt);
+            end += recordLength;
+            terminate(buffer, end);
+            index.put(key, new Slot(offset, keyBytes.length, value.length, storedAt));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compact store " + dataFile, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all keys matching the filter.
+     *
+     * @param keyFilter the filter
+     * @return number of removed keys
+     */
+    public int removeIf(Predicate<String> keyFilter) {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return 0;
+            }
+            List<String> keys = index.keySet().stream().filter(keyFilter).toList();
+            for (String key : keys) {
+                byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                int recordLength = RECORD_HEADER_BYTES + keyBytes.length;
+                index.remove(key);
+                if (end + recordLength > maxSize) {
+                    // compaction drops the removed key anyway
+                    compact(0);
+                    continue;
+                }
+                writeRecord(buffer, end, keyBytes, new byte[0], System.currentTimeMillis());
+                end += recordLength;
+                terminate(buffer, end);
+            }
+            return keys.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compact store " + dataFile, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of stored keys
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes the data file and writes the index. The store must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                buffer.force();
+                writeIndex();
+            } finally {
+                // releases the file lock
+                lockChannel.close();
+            }
+            log.info("Closed store '{}' with {} entries.", dataFile, index.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the exclusive lock of the store, which is held until the returned channel is closed. The
+     * lock is not taken on the data file itself, as compaction replaces it.
+     */
+    private static FileChannel lock(Path lockFile) throws IOException {
+        FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock fileLock;
+        try {
+            fileLock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // held by another store in this JVM
+            fileLock = null;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (fileLock == null) {
+            channel.close();
+            throw new IOException("Store '" + lockFile + "' is locked, it is already opened by another instance.");
+        }
+        return channel;
+    }
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static void writeRecord(MappedByteBuffer target, int offset, byte[] keyBytes, byte[] value, long storedAt) {
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        crc.update(value);
+        target.putInt(offset, RECORD_MAGIC);
+        target.putInt(offset + 4, keyBytes.length);
+        target.putInt(offset + 8, value.length);
+        target.putLong(offset + 12, storedAt);
+        target.putInt(offset + 20, (int) crc.getValue());
+        target.put(offset + RECORD_HEADER_BYTES, keyBytes);
+        target.put(offset + RECORD_HEADER_BYTES + keyBytes.length, value);
+    }
+
+    /**
+     * Marks the end of the records, so that a scan never picks up leftovers of older records.
+     */
+    private void terminate(MappedByteBuffer target, int offset) {
+        if (offset + 4 <= maxSize) {
+            target.putInt(offset, 0);
+        }
+    }
+
+    private void scan() {
+        int offset = 0;
+        while (offset + RECORD_HEADER_BYTES <= maxSize && buffer.getInt(offset) == RECORD_MAGIC) {
+            int keyLength = buffer.getInt(offset + 4);
+            int valueLength = buffer.getInt(offset + 8);
+            if (keyLength < 0 || valueLength < 0 || (long) offset + RECORD_HEADER_BYTES + keyLength + valueLength > maxSize) {
+                break;
+            }
+            byte[] keyBytes = new byte[keyLength];
+            byte[] value = new byte[valueLength];
+            buffer.get(offset + RECORD_HEADER_BYTES, keyBytes);
+            buffer.get(offset + RECORD_HEADER_BYTES + keyLength, value);
+            CRC32 crc = new CRC32();
+            crc.update(keyBytes);
+            crc.update(value);
+            if ((int) crc.getValue() != buffer.getInt(offset + 20)) {
+                log.warn("Store '{}' contains a corrupt record at offset {}, dropping it and all following records.", dataFile, offset);
+                break;
+            }
+            Slot slot = new Slot(offset, keyLength, valueLength, buffer.getLong(offset + 12));
+            if (valueLength == 0) {
+                index.remove(new String(keyBytes, StandardCharsets.UTF_8));
+            } else {
+                index.put(new String(keyBytes, StandardCharsets.UTF_8), slot);
+            }
+            offset += slot.recordLength();
+        }
+        end = offset;
+        terminate(buffer, end);
+    }
+
+    private boolean loadIndex() {
+        if (!Files.exists(indexFile)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                return false;
+            }
+            int indexEnd = in.readInt();
+            int count = in.readInt();
+            if (indexEnd > maxSize) {
+                return false;
+            }
+            Map<String, Slot> loaded = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                loaded.put(key, new Slot(in.readInt(), in.readInt(), in.readInt(), in.readLong()));
+            }
+            index.putAll(loaded);
+            end = indexEnd;
+            return true;
+        } catch (IOException e) {
+            log.warn("Failed to read index '{}', rebuilding it from the data file.", indexFile, e);
+            return false;
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(end);
+            out.writeInt(index.size());
+            for (Map.Entry<String, Slot> entry : index.entrySet()) {
+                Slot slot = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(slot.recordOffset());
+                out.writeInt(slot.keyLength());
+                out.writeInt(slot.valueLength());
+                out.writeLong(slot.storedAt());
+            }
+        }
+    }
+
+    /**
+     * Rewrites the newest live records into a new data file, so that half of the store is free
+     * afterwards.
+     */
+    private void compact(int requiredBytes) throws IOException {
+        List<Map.Entry<String, Slot>> newestFirst = new ArrayList<>(index.entrySet());
+        newestFirst.sort(Comparator.comparingLong((Map.Entry<String, Slot> entry) -> entry.getValue().storedAt())
+                .thenComparingInt(entry -> entry.getValue().recordOffset())
+                .reversed());
+        Path compactFile = dataFile.resolveSibling(dataFile.getFileName() + ".compact");
+        Files.deleteIfExists(compactFile);
+        MappedByteBuffer target = map(compactFile, maxSize);
+        Map<String, Slot> compactIndex = new HashMap<>();
+        int offset = 0;
+        int budget = maxSize / 2 - requiredBytes;
+        for (Map.Entry<String, Slot> entry : newestFirst) {
+            Slot slot = entry.getValue();
+            if (offset + slot.recordLength() > budget) {
+                continue;
+            }
+            byte[] record = new byte[slot.recordLength()];
+            buffer.get(slot.recordOffset(), record);
+            target.put(offset, record);
+            compactIndex.put(entry.getKey(), new Slot(offset, slot.keyLength(), slot.valueLength(), slot.storedAt()));
+            offset += slot.recordLength();
+        }
+        terminate(target, offset);
+        target.force();
+        Files.move(compactFile, dataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Compacted store '{}' from {} to {} entries.", dataFile, index.size(), compactIndex.size());
+        buffer = target;
+        index.clear();
+        index.putAll(compactIndex);
+        end = offset;
+    }
+
+}
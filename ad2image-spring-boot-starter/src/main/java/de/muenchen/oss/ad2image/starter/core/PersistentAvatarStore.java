@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-through store for rendered avatars and Exchange master photos, backed by a
+ * {@link MappedByteStore} on local disk. Stored values older than {@code refreshAfter} are served
+ * as they are and reloaded in the background, values older than {@code maxAge} are reloaded on the
+ * request path.
+ */
+public class PersistentAvatarStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(PersistentAvatarStore.class);
+
+    private final MappedByteStore store;
+    private final BackgroundRefresher refresher;
+    private final Duration refreshAfter;
+    private final Duration maxAge;
+
+    public PersistentAvatarStore(AvatarStoreConfigurationProperties storeProps) throws IOException {
+        this(storeProps, false);
+    }
+
+    /**
+     * @param storeProps store configuration
+     * @param virtualThreads run background reloads on virtual threads
+     * @throws IOException if the store file cannot be opened
+     */
+    public PersistentAvatarStore(AvatarStoreConfigurationProperties storeProps, boolean virtualThreads) throws IOException {
+        long maxSize = storeProps.getMaxSize().toBytes();
+        if (maxSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("de.muenchen.oss.ad2image.store.max-size must not exceed 2GB");
+        }
+        this.store = new MappedByteStore(Path.of(storeProps.getPath(), "avatars.dat"), (int) maxSize);
+        this.refresher = new BackgroundRefresher(ThreadFactories.create("ad2image-store-refresh-", virtualThreads), storeProps.getRefreshThreads(),
+                storeProps.getRefreshQueueCapacity());
+        this.refreshAfter = storeProps.getRefreshAfter();
+        this.maxAge = storeProps.getMaxAge();
+    }
+
+    /**
+     * Returns the stored value for the key, or loads and stores it if nothing (or nothing younger
+     * than {@code maxAge}) is stored.
+     *
+     * @param key the key
+     * @param loader loads the value on the request path
+     * @param reloader loads the value in the background, if the stored value is stale
+     * @return the value, may be {@code null} (which is not stored)
+     */
+    public byte[] get(String key, Supplier<byte[]> loader, Supplier<byte[]> reloader) {
+        MappedByteStore.Entry entry = store.get(key);
+        if (entry != null) {
+            Duration age = Duration.between(entry.storedAt(), Instant.now());
+            if (age.compareTo(maxAge) < 0) {
+                if (age.compareTo(refreshAfter) >= 0) {
+                    refresher.refresh(key, () -> load(key, reloader));
+                }
+                return entry.value();
+            }
+        }
+        return load(key, loader);
+    }
+
+    /**
+     * Returns the stored value regardless of its age, without loading anything, e.g. as fallback if
+     * loading fails.
+     *
+     * @param key the key
+     * @return the stored value, {@code null} if nothing is stored
+     */
+    public byte[] getStored(String key) {
+        MappedByteStore.Entry entry = store.get(key);
+        return entry != null ? entry.value() : null;
+    }
+
+    /**
+     * Loads the value and stores it, regardless of what is stored already.
+     *
+     * @param key the key
+     * @param loader loads the value
+     * @return the value, may be {@code null} (which is not stored)
+     */
+    public byte[] load(String key, Supplier<byte[]> loader) {
+        byte[] value = loader.get();
+        if (value != null) {
+            try {
+                store.put(key, value);
+            } catch (UncheckedIOException e) {
+                log.warn("Failed to store value for '{}'.", key, e);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Removes all values whose key matches the filter, e.g. after the underlying data changed.
+     *
+     * @param keyFilter the filter
+     * @return number of removed values
+     */
+    public int removeIf(Predicate<String> keyFilter) {
+        return store.removeIf(keyFilter);
+    }
+
+    /**
+     * @return number of stored entries
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * @return number of background refreshes queued or running
+     */
+    public int getPendingRefreshCount() {
+        return refresher.getPendingCount();
+    }
+
+    /**
+     * Waits for running refreshes and flushes the store to disk.
+     */
+    @Override
+    public void close() throws IOException {
+        refresher.close();
+        store.close();
+    }
+
+}
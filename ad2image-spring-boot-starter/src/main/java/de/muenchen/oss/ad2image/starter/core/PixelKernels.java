@@ -0,0 +1,328 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Per-pixel kernels of the {@link Resampler}s, working on packed ARGB pixels in row-major
+ * {@code int} arrays.
+ * <p>
+ * Filtering is done on premultiplied pixels, so that the color of fully transparent pixels does not
+ * bleed into the edges of transparent images.
+ * <p>
+ * This class implements the kernels with scalar code. If the JVM is started with
+ * {@code --add-modules jdk.incubator.vector}, {@link #preferred()} returns an implementation using
+ * the Vector API, which produces exactly the same pixels.
+ */
+public class PixelKernels {
+
+    private static final Logger log = LoggerFactory.getLogger(PixelKernels.class);
+
+    private static final PixelKernels SCALAR = new PixelKernels();
+
+    private static final PixelKernels VECTOR = loadVectorKernels();
+
+    PixelKernels() {
+    }
+
+    /**
+     * @return the kernels implemented with scalar code
+     */
+    public static PixelKernels scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * @return the kernels implemented with the Vector API, or {@code null} if the
+     *         {@code jdk.incubator.vector} module is not available
+     */
+    public static PixelKernels vector() {
+        return VECTOR;
+    }
+
+    /**
+     * @return the Vector API kernels if available, the scalar kernels otherwise
+     */
+    public static PixelKernels preferred() {
+        return VECTOR != null ? VECTOR : SCALAR;
+    }
+
+    private static PixelKernels loadVectorKernels() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            log.debug("Module jdk.incubator.vector not available, using scalar pixel kernels.");
+            return null;
+        }
+        try {
+            PixelKernels kernels = (PixelKernels) Class.forName(PixelKernels.class.getPackageName() + ".VectorPixelKernels").getDeclaredConstructor()
+                    .newInstance();
+            log.info("Using Vector API pixel kernels ({}).", kernels);
+            return kernels;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.warn("Failed to load Vector API pixel kernels, using scalar pixel kernels.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Premultiplies the color channels of the given pixels with their alpha channel, in place.
+     *
+     * @param argb the pixels
+     */
+    void premultiply(int[] argb) {
+        for (int i = 0; i < argb.length; i++) {
+            int a = argb[i] >>> 24;
+            // photos are opaque, skip the arithmetic where it does not change the pixel
+            if (a == 0) {
+                argb[i] = 0;
+            } else if (a != 0xff) {
+                argb[i] = premultiply(argb[i]);
+            }
+        }
+    }
+
+    static int premultiply(int pixel) {
+        // c * a / 255 rounded, exact for a == 0 and a == 255
+        int a = pixel >>> 24;
+        int r = ((pixel >> 16) & 0xff) * a + 127;
+        int g = ((pixel >> 8) & 0xff) * a + 127;
+        int b = (pixel & 0xff) * a + 127;
+        return (a << 24) | ((r + (r >> 8)) >> 8 << 16) | ((g + (g >> 8)) >> 8 << 8) | ((b + (b >> 8)) >> 8);
+    }
+
+    /**
+     * Halves width and height of the given premultiplied pixels by averaging 2x2 blocks. An odd last
+     * row or column is dropped.
+     *
+     * @param argb the premultiplied pixels
+     * @param width the width
+     * @param height the height
+     * @return the premultiplied pixels with a size of {@code width / 2} x {@code height / 2}
+     */
+    int[] halve(int[] argb, int width, int height) {
+        int halfWidth = width / 2;
+        int halfHeight = height / 2;
+        int[] result = new int[halfWidth * halfHeight];
+        for (int y = 0; y < halfHeight; y++) {
+            int row = 2 * y * width;
+            for (int x = 0; x < halfWidth; x++) {
+                int p0 = argb[row + 2 * x];
+                int p1 = argb[row + 2 * x + 1];
+                int p2 = argb[row + width + 2 * x];
+                int p3 = argb[row + width + 2 * x + 1];
+                // average two channels at once, (p & 0x00ff00ff) keeps enough headroom for the sum of four
+                int ag = ((p0 >>> 8) & 0x00ff00ff) + ((p1 >>> 8) & 0x00ff00ff) + ((p2 >>> 8) & 0x00ff00ff) + ((p3 >>> 8) & 0x00ff00ff) + 0x00020002;
+                int rb = (p0 & 0x00ff00ff) + (p1 & 0x00ff00ff) + (p2 & 0x00ff00ff) + (p3 & 0x00ff00ff) + 0x00020002;
+                result[y * halfWidth + x] = ((ag << 6) & 0xff00ff00) | ((rb >>> 2) & 0x00ff00ff);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resamples premultiplied pixels with a separable convolution filter. When downscaling, the filter
+     * is stretched by the scale factor so that every source pixel contributes to the result.
+     *
+     * @param argb the premultiplied pixels
+     * @param width the width
+     * @param height the height
+     * @param targetWidth the target width
+     * @param targetHeight the target height
+     * @param filter the filter
+     * @return the resampled pixels, not premultiplied
+     */
+    int[] convolve(int[] argb, int width, int height, int targetWidth, int targetHeight, ConvolutionFilter filter) {
+        Weights horizontal = Weights.of(width, targetWidth, filter);
+        Weights vertical = Weights.of(height, targetHeight, filter);
+
+        // horizontal pass into an intermediate image of targetWidth x height, each row holding the
+        // alpha, red, green and blue planes one after another
+        int rowLength = targetWidth * 4;
+        float[] intermediate = new float[rowLength * height];
+        for (int y = 0; y < height; y++) {
+            convolveRow(argb, y * width, horizontal, intermediate, y * rowLength);
+        }
+
+        // vertical pass, accumulating whole rows
+        float[] accumulator = new float[rowLength];
+        int[] result = new int[targetWidth * targetHeight];
+        for (int y = 0; y < targetHeight; y++) {
+            Arrays.fill(accumulator, 0f);
+            int start = vertical.starts[y];
+            for (int k = 0; k < vertical.taps; k++) {
+                accumulate(accumulator, intermediate, (start + k) * rowLength, vertical.weights[k * targetHeight + y]);
+            }
+            pack(accumulator, result, y * targetWidth, targetWidth);
+        }
+        return result;
+    }
+
+    /**
+     * Convolves one row of premultiplied pixels horizontally.
+     *
+     * @param argb the premultiplied pixels
+     * @param row the offset of the row
+     * @param weights the horizontal weights
+     * @param planes the target row of alpha, red, green and blue planes
+     * @param offset the offset of the target row
+     */
+    void convolveRow(int[] argb, int row, Weights weights, float[] planes, int offset) {
+        convolveRow(argb, row, weights, planes, offset, 0);
+    }
+
+    static void convolveRow(int[] argb, int row, Weights weights, float[] planes, int offset, int fromX) {
+        int length = weights.starts.length;
+        for (int x = fromX; x < length; x++) {
+            float a = 0, r = 0, g = 0, b = 0;
+            int start = row + weights.starts[x];
+            int pixelWeights = x * weights.taps;
+            for (int k = 0; k < weights.taps; k++) {
+                int pixel = argb[start + k];
+                float weight = weights.pixelWeights[pixelWeights + k];
+                a += weight * (pixel >>> 24);
+                r += weight * ((pixel >> 16) & 0xff);
+                g += weight * ((pixel >> 8) & 0xff);
+                b += weight * (pixel & 0xff);
+            }
+            planes[offset + x] = a;
+            planes[offset + length + x] = r;
+            planes[offset + 2 * length + x] = g;
+            planes[offset + 3 * length + x] = b;
+        }
+    }
+
+    /**
+     * Adds a weighted row to the accumulator.
+     *
+     * @param accumulator the accumulator
+     * @param source the rows
+     * @param offset the offset of the row to add
+     * @param weight the weight
+     */
+    void accumulate(float[] accumulator, float[] source, int offset, float weight) {
+        accumulate(accumulator, source, offset, weight, 0);
+    }
+
+    static void accumulate(float[] accumulator, float[] source, int offset, float weight, int from) {
+        for (int i = from; i < accumulator.length; i++) {
+            accumulator[i] += weight * source[offset + i];
+        }
+    }
+
+    /**
+     * Packs a row of premultiplied alpha, red, green and blue planes into non-premultiplied ARGB
+     * pixels, clamping the overshoot of filters with negative lobes.
+     *
+     * @param planes the row of planes
+     * @param argb the target pixels
+     * @param offset the offset of the target row
+     * @param length the number of pixels
+     */
+    void pack(float[] planes, int[] argb, int offset, int length) {
+        pack(planes, argb, offset, length, 0);
+    }
+
+    static void pack(float[] planes, int[] argb, int offset, int length, int fromX) {
+        for (int x = fromX; x < length; x++) {
+            float alpha = Math.min(planes[x], 255f);
+            int a = (int) (alpha + 0.5f);
+            if (a <= 0) {
+                argb[offset + x] = 0;
+                continue;
+            }
+            float factor = 255f / alpha;
+            int r = clamp((int) (planes[length + x] * factor + 0.5f));
+            int g = clamp((int) (planes[2 * length + x] * factor + 0.5f));
+            int b = clamp((int) (planes[3 * length + x] * factor + 0.5f));
+            argb[offset + x] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    /**
+     * Reverts {@link #premultiply(int[])}, in place.
+     *
+     * @param argb the premultiplied pixels
+     */
+    void unpremultiply(int[] argb) {
+        for (int i = 0; i < argb.length; i++) {
+            int pixel = argb[i];
+            int a = pixel >>> 24;
+            if (a != 0 && a != 0xff) {
+                int r = clamp((((pixel >> 16) & 0xff) * 255 + a / 2) / a);
+                int g = clamp((((pixel >> 8) & 0xff) * 255 + a / 2) / a);
+                int b = clamp(((pixel & 0xff) * 255 + a / 2) / a);
+                argb[i] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+
+    /**
+     * Filter weights of all target pixels of one dimension. Every target pixel has the same number of
+     * {@link #taps}, padded with zero weights, so that the kernels can process several target pixels
+     * at once. {@code weights[k * targetSize + i]} and {@code pixelWeights[i * taps + k]} are the
+     * weight of source pixel {@code starts[i] + k} for target pixel {@code i}, stored tap by tap for
+     * vector loads and pixel by pixel for the scalar code.
+     */
+    record Weights(int taps, int[] starts, float[] weights, float[] pixelWeights) {
+
+        static Weights of(int size, int targetSize, ConvolutionFilter filter) {
+            double scale = (double) size / targetSize;
+            double filterScale = Math.max(scale, 1.0);
+            double support = filter.getRadius() * filterScale;
+            int taps = Math.min((int) (2 * support) + 1, size);
+            int[] starts = new int[targetSize];
+            float[] weights = new float[targetSize * taps];
+            float[] pixelWeights = new float[targetSize * taps];
+            double[] window = new double[taps];
+            for (int i = 0; i < targetSize; i++) {
+                double center = (i + 0.5) * scale;
+                int start = Math.max(0, (int) (center - support + 0.5));
+                int end = Math.min(size, (int) (center + support + 0.5));
+                // move windows at the right edge to the left, the padding weights stay zero
+                int paddedStart = Math.min(start, size - taps);
+                double sum = 0;
+                Arrays.fill(window, 0);
+                for (int j = start; j < end; j++) {
+                    window[j - paddedStart] = filter.weight((j + 0.5 - center) / filterScale);
+                    sum += window[j - paddedStart];
+                }
+                for (int k = 0; k < taps; k++) {
+                    float weight = (float) (sum != 0 ? window[k] / sum : window[k]);
+                    weights[k * targetSize + i] = weight;
+                    pixelWeights[i * taps + k] = weight;
+                }
+                starts[i] = paddedStart;
+            }
+            return new Weights(taps, starts, weights, pixelWeights);
+        }
+
+    }
+
+}
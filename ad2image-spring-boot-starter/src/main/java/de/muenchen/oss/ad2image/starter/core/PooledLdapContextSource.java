@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.time.Duration;
+
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.pool2.factory.PoolConfig;
+import org.springframework.ldap.pool2.factory.PooledContextSource;
+import org.springframework.ldap.pool2.validation.DefaultDirContextValidator;
+
+/**
+ * {@link PooledContextSource} configured from {@link LdapPoolConfigurationProperties}, which
+ * additionally exposes the statistics of the underlying pool for metrics.
+ */
+public class PooledLdapContextSource extends PooledContextSource {
+
+    /**
+     * @param target the context source creating the pooled connections
+     * @param poolProps the pool configuration
+     */
+    public PooledLdapContextSource(ContextSource target, LdapPoolConfigurationProperties poolProps) {
+        super(poolConfig(poolProps));
+        setContextSource(target);
+        setDirContextValidator(new DefaultDirContextValidator());
+    }
+
+    private static PoolConfig poolConfig(LdapPoolConfigurationProperties poolProps) {
+        PoolConfig poolConfig = new PoolConfig();
+        poolConfig.setMaxTotal(poolProps.getMaxTotal());
+        poolConfig.setMaxTotalPerKey(poolProps.getMaxTotal());
+        poolConfig.setMaxIdlePerKey(poolProps.getMaxIdle());
+        poolConfig.setMinIdlePerKey(poolProps.getMinIdle());
+        poolConfig.setMaxWaitMillis(poolProps.getMaxWait().toMillis());
+        poolConfig.setTestOnBorrow(poolProps.isTestOnBorrow());
+        poolConfig.setTestWhileIdle(poolProps.isTestWhileIdle());
+        poolConfig.setTimeBetweenEvictionRunsMillis(poolProps.getTimeBetweenEvictionRuns().toMillis());
+        poolConfig.setMinEvictableIdleTimeMillis(poolProps.getMinEvictableIdleTime().toMillis());
+        return poolConfig;
+    }
+
+    /**
+     * @return the number of connections created since startup
+     */
+    public long getCreatedCount() {
+        return keyedObjectPool.getCreatedCount();
+    }
+
+    /**
+     * @return the number of connections closed since startup, because they were evicted or invalid
+     */
+    public long getDestroyedCount() {
+        return keyedObjectPool.getDestroyedCount();
+    }
+
+    /**
+     * @return the number of connections borrowed from the pool since startup
+     */
+    public long getBorrowedCount() {
+        return keyedObjectPool.getBorrowedCount();
+    }
+
+    /**
+     * @return the mean time waited for a connection over the last borrows
+     */
+    public Duration getMeanBorrowWait() {
+        return keyedObjectPool.getMeanBorrowWaitDuration();
+    }
+
+    /**
+     * @return the maximum time waited for a connection since startup
+     */
+    public Duration getMaxBorrowWait() {
+        return keyedObjectPool.getMaxBorrowWaitDuration();
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Algorithms for scaling images, working on packed ARGB pixels in row-major {@code int} arrays.
+ */
+public enum Resampler {
+
+    /**
+     * AWT area averaging ({@link Image#SCALE_SMOOTH}). Slow, only kept for comparison.
+     */
+    AREA_AVERAGING(null, 0),
+
+    /**
+     * Halves the image with 2x2 box filtering as long as it is at least twice as large as the target,
+     * followed by a bilinear (triangle) filter. Fastest, slightly softer than the others.
+     */
+    BILINEAR(ConvolutionFilter.TRIANGLE, 2),
+
+    /**
+     * Catmull-Rom bicubic filter, applied after halving the image as long as it is at least four times
+     * as large as the target.
+     */
+    BICUBIC(ConvolutionFilter.CATMULL_ROM, 4),
+
+    /**
+     * Lanczos filter with three lobes, applied after halving the image as long as it is at least four
+     * times as large as the target. Sharpest, may show slight halos at hard edges.
+     */
+    LANCZOS(ConvolutionFilter.LANCZOS3, 4);
+
+    // null if the image is scaled by AWT instead of the pixel kernels
+    private final ConvolutionFilter filter;
+
+    private final int reductionGap;
+
+    Resampler(ConvolutionFilter filter, int reductionGap) {
+        this.filter = filter;
+        this.reductionGap = reductionGap;
+    }
+
+    /**
+     * Scales the given pixels.
+     *
+     * @param argb the pixels, not premultiplied; overwritten during scaling
+     * @param width the width
+     * @param height the height
+     * @param targetWidth the target width
+     * @param targetHeight the target height
+     * @return the scaled pixels, not premultiplied
+     */
+    public int[] resample(int[] argb, int width, int height, int targetWidth, int targetHeight) {
+        return resample(argb, width, height, targetWidth, targetHeight, PixelKernels.preferred());
+    }
+
+    /**
+     * Scales the given pixels with the given kernel implementation.
+     *
+     * @param argb the pixels, not premultiplied; overwritten during scaling
+     * @param width the width
+     * @param height the height
+     * @param targetWidth the target width
+     * @param targetHeight the target height
+     * @param kernels the kernels, not used if the resampler {@link #usesPixelKernels() scales with AWT}
+     * @return the scaled pixels, not premultiplied
+     */
+    public int[] resample(int[] argb, int width, int height, int targetWidth, int targetHeight, PixelKernels kernels) {
+        if (width == targetWidth && height == targetHeight) {
+            return argb;
+        }
+        if (filter == null) {
+            return areaAverage(argb, width, height, targetWidth, targetHeight);
+        }
+        kernels.premultiply(argb);
+        int[] pixels = argb;
+        // halving with a box filter is much cheaper than convolving with a filter stretched by the scale
+        while (width >= reductionGap * targetWidth && height >= reductionGap * targetHeight) {
+            pixels = kernels.halve(pixels, width, height);
+            width /= 2;
+            height /= 2;
+        }
+        if (width == targetWidth && height == targetHeight) {
+            kernels.unpremultiply(pixels);
+            return pixels;
+        }
+        return kernels.convolve(pixels, width, height, targetWidth, targetHeight, filter);
+    }
+
+    /**
+     * @return {@code true} if the pixels are scaled by the {@link PixelKernels}, {@code false} if
+     *         scaled by AWT
+     */
+    public boolean usesPixelKernels() {
+        return filter != null;
+    }
+
+    private static int[] areaAverage(int[] argb, int width, int height, int targetWidth, int targetHeight) {
+        BufferedImage source = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        source.getRaster().setDataElements(0, 0, width, height, argb);
+        BufferedImage target = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = target.createGraphics();
+        g2d.drawImage(source.getScaledInstance(targetWidth, targetHeight, Image.SCALE_SMOOTH), 0, 0, null);
+        g2d.dispose();
+        return ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Snaps requested avatar sizes to a configured ladder of sizes, so that slightly different pixel
+ * sizes requested by clients share the same cache entries. How requests for sizes between two
+ * steps are answered is determined by the {@link Strategy}.
+ *
+ * @see SizeLadderConfigurationProperties
+ */
+public class SizeLadder {
+
+    /**
+     * How a request for a size which is not a ladder step is answered.
+     */
+    public enum Strategy {
+        /**
+         * Respond with the image of the ladder step, clients scale it themselves.
+         */
+        BUCKET,
+        /**
+         * Redirect to the URL of the ladder step.
+         */
+        REDIRECT,
+        /**
+         * Scale the image of the ladder step to the exact requested size. Scaled images are cached
+         * per avatar version and size.
+         */
+        RESIZE
+    }
+
+    private final boolean enabled;
+    private final int[] steps;
+    private final Strategy strategy;
+
+    /**
+     * @param sizeLadderProps the ladder configuration, steps which are not positive are ignored
+     */
+    public SizeLadder(SizeLadderConfigurationProperties sizeLadderProps) {
+        this.enabled = sizeLadderProps.isEnabled();
+        this.steps = sizeLadderProps.getSteps().stream().mapToInt(Integer::intValue).filter(step -> step > 0).sorted().distinct().toArray();
+        this.strategy = sizeLadderProps.getStrategy();
+    }
+
+    /**
+     * Rounds the given size up to the next ladder step.
+     *
+     * @param size the requested size in pixels
+     * @return the smallest ladder step greater than or equal to {@code size}, or {@code size} itself if
+     *         the ladder is disabled or {@code size} is above the largest step
+     */
+    public int snap(int size) {
+        if (!enabled) {
+            return size;
+        }
+        for (int step : steps) {
+            if (step >= size) {
+                return step;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return {@code true} if requested sizes are snapped to the ladder
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the ladder steps in ascending order
+     */
+    public List<Integer> getSteps() {
+        return Arrays.stream(steps).boxed().toList();
+    }
+
+    /**
+     * @return how requests for sizes which are not a ladder step are answered
+     */
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+
+/**
+ * Configuration of the size ladder which snaps requested sizes to a small set of cacheable sizes.
+ */
+@Validated
+@ConfigurationProperties(prefix = "de.muenchen.oss.ad2image.size-ladder")
+public class SizeLadderConfigurationProperties {
+
+    /**
+     * Enables/disables snapping of requested sizes to the ladder steps.
+     */
+    private boolean enabled;
+
+    /**
+     * Ladder steps in pixels. Requested sizes are rounded up to the next step, sizes above the
+     * largest step are not snapped.
+     */
+    @NotEmpty
+    private List<@NotNull @Positive Integer> steps = new ArrayList<>(List.of(16, 24, 32, 48, 64, 96, 128, 256, 512));
+
+    /**
+     * How requests for a size which is not a ladder step are answered.
+     */
+    @NotNull
+    private SizeLadder.Strategy strategy = SizeLadder.Strategy.BUCKET;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public List<Integer> getSteps() {
+        return steps;
+    }
+
+    public void setSteps(List<Integer> steps) {
+        this.steps = steps;
+    }
+
+    public SizeLadder.Strategy getStrategy() {
+        return strategy;
+    }
+
+    public void setStrategy(SizeLadder.Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Avatars of several users composed into one image, as kept in the
+ * {@link CacheNames#AVATAR_SPRITES avatar sprites} cache.
+ *
+ * @param image the composed PNG image
+ * @param layout position of each user's avatar in the image
+ */
+public record SpriteSheet(AvatarImage image, Layout layout) implements Serializable {
+
+    private static final Logger log = LoggerFactory.getLogger(SpriteSheet.class);
+
+    /**
+     * Position of the avatars in a sprite sheet. The avatars are placed row by row in request order.
+     *
+     * @param version version of the sheet the layout belongs to, i.e. the entity tag of its image
+     * @param tileSize edge length of each avatar in pixels
+     * @param columns number of avatars per row
+     * @param width width of the image in pixels
+     * @param height height of the image in pixels
+     * @param tiles offset of each user's avatar by uid, users without avatar are left out
+     */
+    public record Layout(String version, int tileSize, int columns, int width, int height, Map<String, Tile> tiles) implements Serializable {
+    }
+
+    /**
+     * @param x horizontal offset in pixels
+     * @param y vertical offset in pixels
+     */
+    public record Tile(int x, int y) implements Serializable {
+    }
+
+    /**
+     * Composes the given avatars into a roughly square sprite sheet. Avatars which cannot be decoded
+     * are left out.
+     *
+     * @param avatars the avatars by uid, in the order they should be placed
+     * @param tileSize edge length of each avatar in the sheet, avatars of other sizes are scaled
+     * @return the sprite sheet, {@code null} if there is no avatar to compose
+     * @throws IOException if the composed image cannot be encoded
+     */
+    public static SpriteSheet compose(Map<String, byte[]> avatars, int tileSize) throws IOException {
+        Map<String, BufferedImage> decoded = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> avatar : avatars.entrySet()) {
+            BufferedImage tile = ImageCodec.decode(avatar.getValue());
+            if (tile == null) {
+                log.warn("Cannot decode avatar of '{}', leaving it out of the sprite sheet.", avatar.getKey());
+            } else if (tile.getWidth() == tileSize && tile.getHeight() == tileSize) {
+                decoded.put(avatar.getKey(), tile);
+            } else {
+                decoded.put(avatar.getKey(), ImageScaler.scale(tile, tileSize, tileSize));
+            }
+        }
+        if (decoded.isEmpty()) {
+            return null;
+        }
+        int columns = columns(decoded.size());
+        int rows = (decoded.size() + columns - 1) / columns;
+        BufferedImage sheet = new BufferedImage(columns * tileSize, rows * tileSize, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = sheet.createGraphics();
+        Map<String, Tile> tiles = new LinkedHashMap<>();
+        int index = 0;
+        for (Map.Entry<String, BufferedImage> tile : decoded.entrySet()) {
+            int x = (index % columns) * tileSize;
+            int y = (index / columns) * tileSize;
+            g2d.drawImage(tile.getValue(), x, y, null);
+            tiles.put(tile.getKey(), new Tile(x, y));
+            index++;
+        }
+        g2d.dispose();
+        AvatarImage image = AvatarImage.of(ImageCodec.encodePng(sheet), Instant.now());
+        return new SpriteSheet(image, new Layout(image.etag(), tileSize, columns, sheet.getWidth(), sheet.getHeight(), tiles));
+    }
+
+    /**
+     * Calculates the size of the sprite sheet of the given number of avatars, before the avatars are
+     * fetched. Users without avatar are left out of the sheet, so it may end up smaller.
+     *
+     * @param avatarCount number of avatars
+     * @param tileSize edge length of each avatar in the sheet
+     * @return the maximum number of pixels of the sheet
+     */
+    public static long maxPixels(int avatarCount, int tileSize) {
+        if (avatarCount <= 0) {
+            return 0;
+        }
+        int columns = columns(avatarCount);
+        int rows = (avatarCount + columns - 1) / columns;
+        return (long) columns * rows * tileSize * tileSize;
+    }
+
+    private static int columns(int avatarCount) {
+        return (int) Math.ceil(Math.sqrt(avatarCount));
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+
+import org.ehcache.Cache;
+import org.ehcache.Status;
+import org.ehcache.config.CacheConfiguration;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.core.config.DefaultConfiguration;
+import org.ehcache.core.events.CacheManagerListener;
+import org.ehcache.core.spi.store.InternalCacheManager;
+import org.ehcache.impl.config.persistence.DefaultPersistenceConfiguration;
+import org.ehcache.jsr107.Eh107Configuration;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the Ehcache backed JCache {@link CacheManager} with all {@link CacheNames caches} used by
+ * ad2image. Every cache gets an entry bounded heap tier and optional off-heap and disk tiers
+ * bounded by bytes, so large avatars cannot blow up the heap and the long tail is kept on disk.
+ * The disk tiers of a cache manager are kept in a subdirectory of the configured disk path, which
+ * is unique to the cache manager and deleted when the cache manager is closed.
+ */
+public final class TieredCacheManagerFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(TieredCacheManagerFactory.class);
+
+    private TieredCacheManagerFactory() {
+    }
+
+    /**
+     * Creates a new cache manager, which has to be closed by the caller.
+     *
+     * @param cacheProps the cache configuration
+     * @return the cache manager
+     */
+    public static CacheManager createCacheManager(CacheConfigurationProperties cacheProps) {
+        EhcacheCachingProvider cachingProvider = (EhcacheCachingProvider) Caching.getCachingProvider(EhcacheCachingProvider.class.getName());
+        ClassLoader classLoader = TieredCacheManagerFactory.class.getClassLoader();
+        String id = UUID.randomUUID().toString();
+        // Ehcache locks its persistence directory, so every cache manager gets its own subdirectory
+        File directory = new File(cacheProps.getDiskPath(), id);
+        DefaultConfiguration configuration = new DefaultConfiguration(classLoader, new DefaultPersistenceConfiguration(directory));
+        // unique URI, the caching provider would hand out the same manager to every application context otherwise
+        URI uri = URI.create("urn:ad2image:" + id);
+        CacheManager cacheManager = cachingProvider.getCacheManager(uri, configuration);
+        cacheManager.unwrap(InternalCacheManager.class).registerListener(new DirectoryRemover(directory.toPath()));
+        try {
+            createCache(cacheManager, CacheNames.AVATARS, cacheProps.getAvatars());
+            createCache(cacheManager, CacheNames.DIRECTORY_ENTRIES, cacheProps.getDirectoryEntries());
+            createCache(cacheManager, CacheNames.DIRECTORY_MISSES, cacheProps.getDirectoryMisses());
+            createCache(cacheManager, CacheNames.EXCHANGE_PHOTOS, cacheProps.getExchangePhotos());
+            createCache(cacheManager, CacheNames.AVATAR_SPRITES, cacheProps.getAvatarSprites());
+        } catch (RuntimeException e) {
+            cacheManager.close();
+            throw e;
+        }
+        return cacheManager;
+    }
+
+    private static void createCache(CacheManager cacheManager, String cacheName, CacheConfigurationProperties.Tiers tiers) {
+        if (!tiers.isDiskLargerThanOffHeap()) {
+            throw new IllegalArgumentException("Disk tier of cache '" + cacheName + "' has to be larger than its off-heap tier.");
+        }
+        ResourcePoolsBuilder resourcePools = ResourcePoolsBuilder.newResourcePoolsBuilder().heap(tiers.getHeapEntries(), EntryUnit.ENTRIES);
+        if (tiers.getOffHeap().toBytes() > 0) {
+            resourcePools = resourcePools.offheap(tiers.getOffHeap().toBytes(), MemoryUnit.B);
+        }
+        if (tiers.getDisk().toBytes() > 0) {
+            resourcePools = resourcePools.disk(tiers.getDisk().toBytes(), MemoryUnit.B, false);
+        }
+        CacheConfiguration<Object, Object> cacheConfiguration = CacheConfigurationBuilder
+                .newCacheConfigurationBuilder(Object.class, Object.class, resourcePools)
+                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(tiers.getTtl()))
+                .build();
+        cacheManager.createCache(cacheName, Eh107Configuration.fromEhcacheCacheConfiguration(cacheConfiguration));
+        cacheManager.enableStatistics(cacheName, true);
+        cacheManager.enableManagement(cacheName, true);
+        log.info("Created cache '{}' [heap={} entries, off-heap={}, disk={}, ttl={}]", cacheName, tiers.getHeapEntries(), tiers.getOffHeap(),
+                tiers.getDisk(), tiers.getTtl());
+    }
+
+    /**
+     * Deletes the disk directory of a cache manager once it is closed, i.e. its disk tiers (which are
+     * not persistent anyway) and its lock are released.
+     */
+    private record DirectoryRemover(Path directory) implements CacheManagerListener {
+
+        @Override
+        public void stateTransition(Status from, Status to) {
+            if (to != Status.UNINITIALIZED || !Files.exists(directory)) {
+                return;
+            }
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                    try {
+                        Files.delete(path);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                log.debug("Deleted disk directory '{}' of closed cache manager.", directory);
+            } catch (IOException | UncheckedIOException e) {
+                log.warn("Failed to delete disk directory '{}' of closed cache manager.", directory, e);
+            }
+        }
+
+        @Override
+        public void cacheAdded(String alias, Cache<?, ?> cache) {
+        }
+
+        @Override
+        public void cacheRemoved(String alias, Cache<?, ?> cache) {
+        }
+
+    }
+
+}
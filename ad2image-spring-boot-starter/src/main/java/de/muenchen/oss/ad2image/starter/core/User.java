@@ -23,6 +23,7 @@
 package de.muenchen.oss.ad2image.starter.core;
 
 import java.io.Serializable;
+import java.time.Instant;
 
 public class User implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -32,6 +33,7 @@ public class User implements Serializable {
     byte[] thumbnailPhoto;
     String sn;
     String givenName;
+    Instant whenChanged;
 
     /**
      * Retrieves the user's unique identifier.
@@ -104,4 +106,22 @@ public class User implements Serializable {
         this.givenName = givenName;
     }
 
+    /**
+     * Gets the time of the last modification of the user's directory entry.
+     *
+     * @return the modification time, or {@code null} if not known
+     */
+    public Instant getWhenChanged() {
+        return whenChanged;
+    }
+
+    /**
+     * Sets the time of the last modification of the user's directory entry.
+     *
+     * @param whenChanged the modification time
+     */
+    public void setWhenChanged(Instant whenChanged) {
+        this.whenChanged = whenChanged;
+    }
+
 }
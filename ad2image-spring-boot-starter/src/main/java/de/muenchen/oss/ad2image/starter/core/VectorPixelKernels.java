@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.core;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link PixelKernels} using the incubating Vector API, processing as many pixels at once as the
+ * preferred vector size of the CPU allows (8 with AVX2, 16 with AVX-512). Remaining pixels are
+ * handled by the scalar code.
+ * <p>
+ * The vector code performs the same float operations in the same order as the scalar code (no fused
+ * multiply-add), so both produce exactly the same pixels. Only loaded by
+ * {@link PixelKernels#preferred()} if the {@code jdk.incubator.vector} module is available.
+ */
+class VectorPixelKernels extends PixelKernels {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    private static final int LANES = FLOATS.length();
+
+    VectorPixelKernels() {
+        if (FLOATS.length() != INTS.length()) {
+            throw new IllegalStateException("Float and int vectors of different length.");
+        }
+    }
+
+    @Override
+    void premultiply(int[] argb) {
+        int bound = INTS.loopBound(argb.length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            IntVector pixels = IntVector.fromArray(INTS, argb, i);
+            IntVector a = pixels.lanewise(VectorOperators.LSHR, 24);
+            IntVector r = premultiplyChannel(pixels.lanewise(VectorOperators.LSHR, 16).and(0xff), a);
+            IntVector g = premultiplyChannel(pixels.lanewise(VectorOperators.LSHR, 8).and(0xff), a);
+            IntVector b = premultiplyChannel(pixels.and(0xff), a);
+            a.lanewise(VectorOperators.LSHL, 24)
+                    .or(r.lanewise(VectorOperators.LSHL, 16))
+                    .or(g.lanewise(VectorOperators.LSHL, 8))
+                    .or(b)
+                    .intoArray(argb, i);
+        }
+        for (; i < argb.length; i++) {
+            argb[i] = premultiply(argb[i]);
+        }
+    }
+
+    private static IntVector premultiplyChannel(IntVector channel, IntVector a) {
+        IntVector product = channel.mul(a).add(127);
+        return product.add(product.lanewise(VectorOperators.ASHR, 8)).lanewise(VectorOperators.ASHR, 8);
+    }
+
+    @Override
+    void convolveRow(int[] argb, int row, Weights weights, float[] planes, int offset) {
+        int length = weights.starts().length;
+        int bound = FLOATS.loopBound(length);
+        int x = 0;
+        for (; x < bound; x += LANES) {
+            FloatVector a = FloatVector.zero(FLOATS);
+            FloatVector r = FloatVector.zero(FLOATS);
+            FloatVector g = FloatVector.zero(FLOATS);
+            FloatVector b = FloatVector.zero(FLOATS);
+            for (int k = 0; k < weights.taps(); k++) {
+                // gathers argb[row + k + starts[x + lane]]
+                IntVector pixels = IntVector.fromArray(INTS, argb, row + k, weights.starts(), x);
+                FloatVector weight = FloatVector.fromArray(FLOATS, weights.weights(), k * length + x);
+                a = a.add(weight.mul(toFloat(pixels.lanewise(VectorOperators.LSHR, 24))));
+                r = r.add(weight.mul(toFloat(pixels.lanewise(VectorOperators.LSHR, 16).and(0xff))));
+                g = g.add(weight.mul(toFloat(pixels.lanewise(VectorOperators.LSHR, 8).and(0xff))));
+                b = b.add(weight.mul(toFloat(pixels.and(0xff))));
+            }
+            a.intoArray(planes, offset + x);
+            r.intoArray(planes, offset + length + x);
+            g.intoArray(planes, offset + 2 * length + x);
+            b.intoArray(planes, offset + 3 * length + x);
+        }
+        convolveRow(argb, row, weights, planes, offset, x);
+    }
+
+    @Override
+    void accumulate(float[] accumulator, float[] source, int offset, float weight) {
+        int bound = FLOATS.loopBound(accumulator.length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            FloatVector.fromArray(FLOATS, accumulator, i)
+                    .add(FloatVector.fromArray(FLOATS, source, offset + i).mul(weight))
+                    .intoArray(accumulator, i);
+        }
+        accumulate(accumulator, source, offset, weight, i);
+    }
+
+    @Override
+    void pack(float[] planes, int[] argb, int offset, int length) {
+        int bound = FLOATS.loopBound(length);
+        int x = 0;
+        for (; x < bound; x += LANES) {
+            FloatVector alpha = FloatVector.fromArray(FLOATS, planes, x).min(255f);
+            IntVector a = toInt(alpha.add(0.5f));
+            FloatVector factor = FloatVector.broadcast(FLOATS, 255f).div(alpha);
+            IntVector r = toChannel(FloatVector.fromArray(FLOATS, planes, length + x), factor);
+            IntVector g = toChannel(FloatVector.fromArray(FLOATS, planes, 2 * length + x), factor);
+            IntVector b = toChannel(FloatVector.fromArray(FLOATS, planes, 3 * length + x), factor);
+            VectorMask<Integer> transparent = a.compare(VectorOperators.LE, 0);
+            a.lanewise(VectorOperators.LSHL, 24)
+                    .or(r.lanewise(VectorOperators.LSHL, 16))
+                    .or(g.lanewise(VectorOperators.LSHL, 8))
+                    .or(b)
+                    .blend(0, transparent)
+                    .intoArray(argb, offset + x);
+        }
+        pack(planes, argb, offset, length, x);
+    }
+
+    private static IntVector toChannel(FloatVector channel, FloatVector factor) {
+        return toInt(channel.mul(factor).add(0.5f)).max(0).min(255);
+    }
+
+    private static FloatVector toFloat(IntVector vector) {
+        return (FloatVector) vector.convertShape(VectorOperators.I2F, FLOATS, 0);
+    }
+
+    private static IntVector toInt(FloatVector vector) {
+        return (IntVector) vector.convertShape(VectorOperators.F2I, INTS, 0);
+    }
+
+    @Override
+    public String toString() {
+        return LANES + " lanes";
+    }
+
+}
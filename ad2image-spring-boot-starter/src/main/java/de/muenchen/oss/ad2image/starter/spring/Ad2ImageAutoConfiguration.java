@@ -22,19 +22,40 @@
  */
 package de.muenchen.oss.ad2image.starter.spring;
 
+import java.io.IOException;
+
+import de.muenchen.oss.ad2image.starter.core.AvatarRefreshConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.BackgroundRefresher;
+import de.muenchen.oss.ad2image.starter.core.CacheNames;
 import de.muenchen.oss.ad2image.starter.core.DirectoryLookupService;
 import de.muenchen.oss.ad2image.starter.core.EwsUserPhotoService;
+import de.muenchen.oss.ad2image.starter.core.ImageCodec;
+import de.muenchen.oss.ad2image.starter.core.ImageScaler;
+import de.muenchen.oss.ad2image.starter.core.KnownUids;
+import de.muenchen.oss.ad2image.starter.core.PersistentAvatarStore;
+import de.muenchen.oss.ad2image.starter.core.PooledLdapContextSource;
+import de.muenchen.oss.ad2image.starter.core.SizeLadder;
+import de.muenchen.oss.ad2image.starter.core.ThreadFactories;
+import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
-import org.springframework.boot.restclient.RestTemplateBuilder;
-import org.springframework.boot.webmvc.autoconfigure.WebMvcAutoConfiguration;
+import org.springframework.boot.thread.Threading;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.env.Environment;
+import org.springframework.ldap.core.ContextSource;
 import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.core.support.LdapContextSource;
 
@@ -45,8 +66,9 @@ import de.muenchen.oss.ad2image.starter.core.ExchangeConfigurationProperties;
 
 @AutoConfiguration
 @ConditionalOnProperty(value = "de.muenchen.oss.ad2image.enabled", havingValue = "true", matchIfMissing = true)
-@AutoConfigureAfter(value = { WebMvcAutoConfiguration.class })
-@Import(GravatarConfiguration.class)
+@AutoConfigureAfter(name = "org.springframework.boot.webmvc.autoconfigure.WebMvcAutoConfiguration")
+@AutoConfigureBefore(name = "org.springframework.boot.cache.autoconfigure.CacheAutoConfiguration")
+@Import({ GravatarConfiguration.class, Ad2ImageMetricsConfiguration.class, Ad2ImageCacheConfiguration.class, DirectoryWatcherConfiguration.class })
 public class Ad2ImageAutoConfiguration {
 
     @Configuration
@@ -54,10 +76,50 @@ public class Ad2ImageAutoConfiguration {
     static class ConfigPropertiesConfiguration {
     }
 
+    public Ad2ImageAutoConfiguration(Ad2ImageConfigurationProperties ad2ImageProps) {
+        // ImageScaler and ImageCodec are also used by static helpers, so they are configured JVM-wide
+        ImageScaler.configure(ad2ImageProps.getImage());
+        ImageCodec.configure(ad2ImageProps.getImage());
+    }
+
     @Bean
     @ConditionalOnMissingBean
-    AvatarService avatarService(AvatarGenerator avatarGenerator, DirectoryLookupService directoryLookupService, EwsUserPhotoService ewsUserPhotoService) {
-        return new AvatarService(avatarGenerator, directoryLookupService, ewsUserPhotoService);
+    AvatarService avatarService(AvatarGenerator avatarGenerator, DirectoryLookupService directoryLookupService, EwsUserPhotoService ewsUserPhotoService,
+            ObjectProvider<PersistentAvatarStore> avatarStore, ObjectProvider<CacheManager> cacheManager,
+            @Qualifier("ad2ImageAvatarRefresher") ObjectProvider<BackgroundRefresher> avatarRefresher, Ad2ImageConfigurationProperties ad2ImageProps) {
+        Cache avatarCache = null;
+        Cache exchangePhotoCache = null;
+        CacheManager availableCacheManager = cacheManager.getIfUnique();
+        if (availableCacheManager != null) {
+            avatarCache = availableCacheManager.getCache(CacheNames.AVATARS);
+            if (avatarCache == null) {
+                throw new IllegalStateException("Cache '" + CacheNames.AVATARS + "' is not configured.");
+            }
+            exchangePhotoCache = availableCacheManager.getCache(CacheNames.EXCHANGE_PHOTOS);
+        }
+        return AvatarService.builder(avatarGenerator, directoryLookupService, ewsUserPhotoService)
+                .avatarStore(avatarStore.getIfAvailable())
+                .avatarCache(avatarCache)
+                .exchangePhotoCache(exchangePhotoCache)
+                .avatarRefresher(avatarRefresher.getIfAvailable(), ad2ImageProps.getAvatarRefresh().getSoftTtl())
+                .photoFallback(ad2ImageProps.getEws().getCircuitBreaker().getFallback())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean(name = "ad2ImageAvatarRefresher")
+    @ConditionalOnProperty(value = "de.muenchen.oss.ad2image.avatar-refresh.enabled", havingValue = "true", matchIfMissing = true)
+    BackgroundRefresher ad2ImageAvatarRefresher(Ad2ImageConfigurationProperties ad2ImageProps, Environment environment) {
+        AvatarRefreshConfigurationProperties refreshProps = ad2ImageProps.getAvatarRefresh();
+        return new BackgroundRefresher(ThreadFactories.create("ad2image-avatar-refresh-", Threading.VIRTUAL.isActive(environment)), refreshProps.getThreads(),
+                refreshProps.getQueueCapacity());
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(value = "de.muenchen.oss.ad2image.store.enabled", havingValue = "true")
+    PersistentAvatarStore persistentAvatarStore(Ad2ImageConfigurationProperties ad2ImageProps, Environment environment) throws IOException {
+        return new PersistentAvatarStore(ad2ImageProps.getStore(), Threading.VIRTUAL.isActive(environment));
     }
 
     @Bean
@@ -69,27 +131,99 @@ public class Ad2ImageAutoConfiguration {
     @Bean
     @ConditionalOnMissingBean
     DirectoryLookupService directoryLookupService(@Qualifier("ad2ImageLdapTemplate") LdapTemplate ad2ImageLdapTemplate,
-            Ad2ImageConfigurationProperties ad2ImageProps) {
-        return new DirectoryLookupService(ad2ImageLdapTemplate, ad2ImageProps.getAd());
+            Ad2ImageConfigurationProperties ad2ImageProps, KnownUids knownUids, Environment environment) {
+        return new DirectoryLookupService(ad2ImageLdapTemplate, ad2ImageProps.getAd(), knownUids, Threading.VIRTUAL.isActive(environment));
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    KnownUids knownUids() {
+        return new KnownUids();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    EwsUserPhotoService ewsUserPhotoService(Ad2ImageConfigurationProperties ad2ImageProps) {
+        return new EwsUserPhotoService(ad2ImageProps.getEws());
     }
 
     @Bean
     @ConditionalOnMissingBean
-    EwsUserPhotoService ewsUserPhotoService(RestTemplateBuilder restTemplateBuilder,
-            Ad2ImageConfigurationProperties ad2ImageProps) {
-        return new EwsUserPhotoService(ad2ImageProps.getEws(), restTemplateBuilder);
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    AvatarController avatarController(AvatarService service, Ad2ImageConfigurationProperties ad2ImageProps, SizeLadder sizeLadder,
+            SizeDistribution sizeDistribution) {
+        return new AvatarController(service, ad2ImageProps, sizeLadder, sizeDistribution);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(value = "de.muenchen.oss.ad2image.batch.enabled", havingValue = "true", matchIfMissing = true)
+    AvatarBatchService avatarBatchService(AvatarService avatarService, DirectoryLookupService directoryLookupService,
+            ObjectProvider<CacheManager> cacheManager, Ad2ImageConfigurationProperties ad2ImageProps, Environment environment) {
+        return new AvatarBatchService(avatarService, directoryLookupService, cacheManager.getIfUnique(), ad2ImageProps.getBatch(),
+                Threading.VIRTUAL.isActive(environment));
     }
 
     @Bean
     @ConditionalOnMissingBean
-    AvatarController avatarController(AvatarService service, Ad2ImageConfigurationProperties ad2ImageProps) {
-        return new AvatarController(service, ad2ImageProps);
+    @ConditionalOnProperty(value = "de.muenchen.oss.ad2image.batch.enabled", havingValue = "true", matchIfMissing = true)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    AvatarBatchController avatarBatchController(AvatarBatchService avatarBatchService, AvatarSpriteService avatarSpriteService,
+            Ad2ImageConfigurationProperties ad2ImageProps, SizeLadder sizeLadder, SizeDistribution sizeDistribution) {
+        return new AvatarBatchController(avatarBatchService, avatarSpriteService, ad2ImageProps, sizeLadder, sizeDistribution);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(value = "de.muenchen.oss.ad2image.batch.enabled", havingValue = "true", matchIfMissing = true)
+    AvatarSpriteService avatarSpriteService(AvatarBatchService avatarBatchService, ObjectProvider<CacheManager> cacheManager) {
+        CacheManager availableCacheManager = cacheManager.getIfUnique();
+        return new AvatarSpriteService(avatarBatchService, availableCacheManager != null ? availableCacheManager.getCache(CacheNames.AVATAR_SPRITES) : null);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    SizeLadder sizeLadder(Ad2ImageConfigurationProperties ad2ImageProps) {
+        return new SizeLadder(ad2ImageProps.getSizeLadder());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    SizeDistribution sizeDistribution() {
+        return new SizeDistribution();
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(Endpoint.class)
+    static class EndpointConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        SizeDistributionEndpoint sizeDistributionEndpoint(SizeDistribution sizeDistribution, SizeLadder sizeLadder) {
+            return new SizeDistributionEndpoint(sizeDistribution, sizeLadder);
+        }
+
     }
 
     @Bean("ad2ImageLdapTemplate")
     @ConditionalOnMissingBean(name = "ad2ImageLdapTemplate")
-    LdapTemplate ad2ImageLdapTemplate(@Qualifier("ad2ImageLdapContextSource") LdapContextSource ad2ImageLdapContextSource) {
-        return new LdapTemplate(ad2ImageLdapContextSource);
+    LdapTemplate ad2ImageLdapTemplate(@Qualifier("ad2ImageLdapContextSource") LdapContextSource ad2ImageLdapContextSource,
+            @Qualifier("ad2ImagePooledLdapContextSource") ObjectProvider<ContextSource> ad2ImagePooledLdapContextSource) {
+        return new LdapTemplate(ad2ImagePooledLdapContextSource.getIfAvailable(() -> ad2ImageLdapContextSource));
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(GenericKeyedObjectPool.class)
+    @ConditionalOnProperty(value = "de.muenchen.oss.ad2image.ad.pool.enabled", havingValue = "true")
+    static class LdapPoolConfiguration {
+
+        @Bean("ad2ImagePooledLdapContextSource")
+        @ConditionalOnMissingBean(name = "ad2ImagePooledLdapContextSource")
+        PooledLdapContextSource ad2ImagePooledLdapContextSource(@Qualifier("ad2ImageLdapContextSource") LdapContextSource ad2ImageLdapContextSource,
+                AdConfigurationProperties adConfProps) {
+            return new PooledLdapContextSource(ad2ImageLdapContextSource, adConfProps.getPool());
+        }
+
     }
 
     @Bean("ad2ImageLdapContextSource")
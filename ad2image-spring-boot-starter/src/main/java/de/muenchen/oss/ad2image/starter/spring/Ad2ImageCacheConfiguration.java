@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.spring;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import de.muenchen.oss.ad2image.starter.core.Ad2ImageConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.TieredCacheManagerFactory;
+
+/**
+ * Provides the JCache cache manager configured via {@code de.muenchen.oss.ad2image.cache.*}, which
+ * is picked up by Spring Boot's JCache support if caching is enabled.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnClass({ Caching.class, EhcacheCachingProvider.class })
+@ConditionalOnProperty(value = "de.muenchen.oss.ad2image.cache.enabled", havingValue = "true")
+public class Ad2ImageCacheConfiguration {
+
+    /**
+     * Tiered cache manager with all caches used by ad2image.
+     *
+     * @param ad2ImageProps configuration properties for the ad2image module
+     * @return the JCache cache manager
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    CacheManager ad2ImageJCacheManager(Ad2ImageConfigurationProperties ad2ImageProps) {
+        return TieredCacheManagerFactory.createCacheManager(ad2ImageProps.getCache());
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.spring;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import de.muenchen.oss.ad2image.starter.core.CircuitBreaker;
+import de.muenchen.oss.ad2image.starter.core.DirectoryLookupBatcher;
+import de.muenchen.oss.ad2image.starter.core.DirectoryLookupService;
+import de.muenchen.oss.ad2image.starter.core.EwsUserPhotoService;
+import de.muenchen.oss.ad2image.starter.core.KnownUids;
+import de.muenchen.oss.ad2image.starter.core.PooledLdapContextSource;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Registers ad2image specific meters when Micrometer is on the classpath.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnClass(MeterBinder.class)
+public class Ad2ImageMetricsConfiguration {
+
+    /**
+     * Metrics of the {@link AvatarService}.
+     *
+     * @param avatarService the avatar service
+     * @return binder registering the avatar service meters
+     */
+    @Bean
+    MeterBinder ad2ImageAvatarServiceMetrics(AvatarService avatarService) {
+        return registry -> {
+            FunctionCounter.builder("ad2image.avatars.coalesced", avatarService, AvatarService::getCoalescedRequestCount)
+                    .description("Avatar requests which waited for an identical request in flight instead of rendering the avatar themselves")
+                    .register(registry);
+            FunctionCounter.builder("ad2image.avatars.stale", avatarService, AvatarService::getStaleHitCount)
+                    .description("Cached avatars served after their soft TTL, while being refreshed in the background")
+                    .register(registry);
+            FunctionCounter.builder("ad2image.avatars.degraded", avatarService, AvatarService::getDegradedAvatarCount)
+                    .description("Large avatars derived from the fallback, because the Exchange photo was not available")
+                    .register(registry);
+            FunctionCounter.builder("ad2image.avatars.speculative-photo-fetches", avatarService, AvatarService::getSpeculativePhotoFetchCount)
+                    .description("Exchange photos fetched in parallel to the directory lookup")
+                    .register(registry);
+            FunctionCounter.builder("ad2image.avatars.speculative-photo-fetches.discarded", avatarService,
+                    AvatarService::getDiscardedSpeculativePhotoFetchCount)
+                    .description("Exchange photos fetched in parallel to the directory lookup, which were cancelled or not used")
+                    .register(registry);
+        };
+    }
+
+    /**
+     * Metrics of the circuit breaker of the {@link EwsUserPhotoService}, if enabled.
+     *
+     * @param ewsUserPhotoService the Exchange photo service
+     * @return binder registering the circuit breaker meters
+     */
+    @Bean
+    MeterBinder ad2ImageExchangeCircuitBreakerMetrics(EwsUserPhotoService ewsUserPhotoService) {
+        return registry -> {
+            CircuitBreaker circuitBreaker = ewsUserPhotoService.getCircuitBreaker();
+            if (circuitBreaker == null) {
+                return;
+            }
+            for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+                String stateTag = state.name().toLowerCase(Locale.ROOT);
+                Gauge.builder("ad2image.exchange.circuit-breaker.state", circuitBreaker, breaker -> breaker.getState() == state ? 1 : 0)
+                        .description("1 if the circuit breaker for Exchange is in the given state, otherwise 0")
+                        .tag("state", stateTag)
+                        .register(registry);
+                FunctionCounter.builder("ad2image.exchange.circuit-breaker.transitions", circuitBreaker, breaker -> breaker.getTransitionCount(state))
+                        .description("Transitions of the circuit breaker for Exchange to the given state")
+                        .tag("state", stateTag)
+                        .register(registry);
+            }
+            FunctionCounter.builder("ad2image.exchange.circuit-breaker.rejected", circuitBreaker, CircuitBreaker::getRejectedCallCount)
+                    .description("Exchange photo requests rejected without contacting Exchange, because the circuit breaker was open")
+                    .register(registry);
+        };
+    }
+
+    /**
+     * Metrics of the {@link DirectoryWatcherService}, if the directory watcher is enabled.
+     *
+     * @param directoryWatcherService the directory watcher service
+     * @return binder registering the directory watcher meters
+     */
+    @Bean
+    MeterBinder ad2ImageDirectoryWatcherMetrics(ObjectProvider<DirectoryWatcherService> directoryWatcherService) {
+        return registry -> directoryWatcherService.ifAvailable(
+                service -> FunctionCounter.builder("ad2image.directory.changes", service, DirectoryWatcherService::getChangedUserCount)
+                        .description("Users changed in the directory, whose cached data was invalidated")
+                        .register(registry));
+    }
+
+    /**
+     * Metrics of the {@link DirectoryLookupBatcher}, if lookup batching is enabled.
+     *
+     * @param directoryLookupService the directory lookup service
+     * @return binder registering the lookup batching meters
+     */
+    @Bean
+    MeterBinder ad2ImageLookupBatchingMetrics(DirectoryLookupService directoryLookupService) {
+        return registry -> {
+            DirectoryLookupBatcher lookupBatcher = directoryLookupService.getLookupBatcher();
+            if (lookupBatcher != null) {
+                FunctionCounter.builder("ad2image.directory.batches", lookupBatcher, DirectoryLookupBatcher::getBatchCount)
+                        .description("Directory searches resolving a batch of concurrent user lookups")
+                        .register(registry);
+                FunctionCounter.builder("ad2image.directory.batched-lookups", lookupBatcher, DirectoryLookupBatcher::getLookupCount)
+                        .description("User lookups resolved with a batch search")
+                        .register(registry);
+            }
+        };
+    }
+
+    /**
+     * Metrics of the {@link PooledLdapContextSource}, if pooling of AD connections is enabled.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(GenericKeyedObjectPool.class)
+    static class LdapPoolMetricsConfiguration {
+
+        /**
+         * @param pooledContextSource the pooled AD context source
+         * @return binder registering the AD connection pool meters
+         */
+        @Bean
+        MeterBinder ad2ImageLdapPoolMetrics(ObjectProvider<PooledLdapContextSource> pooledContextSource) {
+            return registry -> pooledContextSource.ifAvailable(pool -> {
+                Gauge.builder("ad2image.ldap.pool.active", pool, PooledLdapContextSource::getNumActive)
+                        .description("AD connections currently borrowed from the pool")
+                        .register(registry);
+                Gauge.builder("ad2image.ldap.pool.idle", pool, PooledLdapContextSource::getNumIdle)
+                        .description("AD connections currently idle in the pool")
+                        .register(registry);
+                Gauge.builder("ad2image.ldap.pool.pending", pool, PooledLdapContextSource::getNumWaiters)
+                        .description("Threads currently waiting for an AD connection of the pool")
+                        .register(registry);
+                FunctionCounter.builder("ad2image.ldap.pool.created", pool, PooledLdapContextSource::getCreatedCount)
+                        .description("AD connections opened by the pool")
+                        .register(registry);
+                FunctionCounter.builder("ad2image.ldap.pool.destroyed", pool, PooledLdapContextSource::getDestroyedCount)
+                        .description("AD connections closed by the pool, because they were evicted or invalid")
+                        .register(registry);
+                TimeGauge.builder("ad2image.ldap.pool.wait", pool, TimeUnit.MILLISECONDS, p -> p.getMeanBorrowWait().toMillis())
+                        .description("Mean time waited for an AD connection over the last borrows")
+                        .register(registry);
+                TimeGauge.builder("ad2image.ldap.pool.wait.max", pool, TimeUnit.MILLISECONDS, p -> p.getMaxBorrowWait().toMillis())
+                        .description("Maximum time waited for an AD connection")
+                        .register(registry);
+            });
+        }
+
+    }
+
+    /**
+     * Metrics of the {@link KnownUids} filter.
+     *
+     * @param knownUids the known uids
+     * @return binder registering the known uids meters
+     */
+    @Bean
+    MeterBinder ad2ImageKnownUidsMetrics(KnownUids knownUids) {
+        return registry -> FunctionCounter.builder("ad2image.directory.unknown-uids", knownUids, KnownUids::getRejectedLookupCount)
+                .description("Directory lookups answered without a search, because the uid is not known from the last enumeration")
+                .register(registry);
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.spring;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import de.muenchen.oss.ad2image.starter.core.Ad2ImageConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.AvatarImage;
+import de.muenchen.oss.ad2image.starter.core.ImageSize;
+import de.muenchen.oss.ad2image.starter.core.Mode;
+import de.muenchen.oss.ad2image.starter.core.SizeLadder;
+import de.muenchen.oss.ad2image.starter.core.SpriteSheet;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
+
+@Controller
+@Tag(name = "avatar", description = "the avatar API")
+public class AvatarBatchController {
+
+    private static final Logger log = LoggerFactory.getLogger(AvatarBatchController.class);
+
+    private final AvatarBatchService avatarBatchService;
+    private final AvatarSpriteService avatarSpriteService;
+    private final Ad2ImageConfigurationProperties confProps;
+    private final SizeLadder sizeLadder;
+    private final SizeDistribution sizeDistribution;
+
+    public AvatarBatchController(AvatarBatchService avatarBatchService, AvatarSpriteService avatarSpriteService,
+            Ad2ImageConfigurationProperties confProps, SizeLadder sizeLadder, SizeDistribution sizeDistribution) {
+        this.avatarBatchService = avatarBatchService;
+        this.avatarSpriteService = avatarSpriteService;
+        this.confProps = confProps;
+        this.sizeLadder = sizeLadder;
+        this.sizeDistribution = sizeDistribution;
+    }
+
+    @Operation(
+            summary = "Retrieve the avatar images of several users",
+            description = """
+                    Retrieve the avatar images of several users with one request. The response is a `multipart/mixed` body with one
+                    `image/png` part per user, named with the uid. Users without avatar image (for the requested mode) are left out.
+                    """
+    )
+    @ApiResponses(
+            value = {
+                    @ApiResponse(
+                            responseCode = "200", description = "Successful operation",
+                            content = { @Content(mediaType = MediaType.MULTIPART_MIXED_VALUE) }
+                    ),
+                    @ApiResponse(
+                            responseCode = "400", description = "No uids or too many uids requested",
+                            content = @Content(schema = @Schema(implementation = Void.class))
+                    )
+            }
+    )
+    @PostMapping(value = "avatars", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.MULTIPART_MIXED_VALUE)
+    public ResponseEntity<MultiValueMap<String, Object>> avatars(@RequestBody final AvatarBatchRequest request) {
+        if (!isValidBatch(request.uids())) {
+            return ResponseEntity.badRequest().build();
+        }
+        int requestedSize = request.size() != null ? request.size() : ImageSize.getAdDefaultImageSize().getSizePixels();
+        log.info("Incoming batch avatar request for {} uids, m='{}', size='{}'", request.uids().size(), request.m(), requestedSize);
+        int size = ControllerUtils.getSizeInBounds(requestedSize, ImageSize.getAdDefaultImageSize().getSizePixels(), 2048);
+        request.uids().forEach(uid -> sizeDistribution.record(size));
+        // batch responses cannot be redirected, sizes off the ladder are always scaled
+        int ladderSize = sizeLadder.snap(size);
+        Mode mode = ControllerUtils.resolveMode(request.m(), confProps.getDefaultMode());
+        Map<String, AvatarImage> images = avatarBatchService.getImages(request.uids(), mode, ladderSize, size);
+        MultiValueMap<String, Object> parts = new LinkedMultiValueMap<>();
+        images.forEach((uid, image) -> {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.IMAGE_PNG);
+            headers.setETag("\"" + image.etag() + "\"");
+            parts.add(uid, new HttpEntity<>(image.data(), headers));
+        });
+        return ResponseEntity.ok().contentType(MediaType.MULTIPART_MIXED).body(parts);
+    }
+
+    @Operation(
+            summary = "Retrieve the avatar images of several users composed into one image",
+            description = """
+                    Retrieve the avatar images of several users as one sprite sheet. The avatars are placed row by row in request order,
+                    users without avatar image (for the requested mode) are left out. The position of each avatar is returned by
+                    `GET /avatars/sprite/layout` with the same parameters. The sheet changes when an avatar changes, so pass the
+                    `version` of the layout as `v` to get the matching sheet (or an error, if the sheet has changed since).
+                    """
+    )
+    @ApiResponses(
+            value = {
+                    @ApiResponse(
+                            responseCode = "200", description = "Successful operation",
+                            content = { @Content(mediaType = MediaType.IMAGE_PNG_VALUE) }
+                    ),
+                    @ApiResponse(
+                            responseCode = "304", description = "Sprite sheet not modified (request with matching 'If-None-Match' header)",
+                            content = @Content(schema = @Schema(implementation = Void.class))
+                    ),
+                    @ApiResponse(
+                            responseCode = "400", description = "No uids, too many uids or a too large sprite sheet requested",
+                            content = @Content(schema = @Schema(implementation = Void.class))
+                    ),
+                    @ApiResponse(
+                            responseCode = "404", description = "None of the users has an avatar image",
+                            content = @Content(schema = @Schema(implementation = Void.class))
+                    ),
+                    @ApiResponse(
+                            responseCode = "412", description = "The sprite sheet has changed since the requested version",
+                            content = @Content(schema = @Schema(implementation = Void.class))
+                    )
+            }
+    )
+    @GetMapping(value = "avatars/sprite", produces = MediaType.IMAGE_PNG_VALUE)
+    public ResponseEntity<byte[]> sprite(
+            @Parameter(description = "comma-separated uids of the users", example = "john.doe,jane.doe", required = true) @RequestParam final List<String> uids,
+            @Parameter(description = "retrieval mode, see `GET /avatar`", example = "fallbackGeneric") @RequestParam(
+                    name = "m", required = false
+            ) final String mode,
+            @Parameter(
+                    description = "size of each avatar", schema = @Schema(defaultValue = "64", example = "64", minimum = "1", maximum = "2048")
+            ) @RequestParam(name = "size", required = false, defaultValue = "64") final int requestedSize,
+            @Parameter(description = "version of the sprite sheet, as returned by the layout") @RequestParam(
+                    name = "v", required = false
+            ) final String version,
+            final WebRequest webRequest) {
+        int size = spriteSize(requestedSize);
+        if (!isValidSprite(uids, size)) {
+            return ResponseEntity.badRequest().build();
+        }
+        SpriteSheet sprite = getSprite(uids, mode, size);
+        if (sprite == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        if (version != null && !version.equals(sprite.layout().version())) {
+            return new ResponseEntity<>(HttpStatus.PRECONDITION_FAILED);
+        }
+        return ControllerUtils.avatarResponse(webRequest, sprite.image(), null);
+    }
+
+    @Operation(
+            summary = "Retrieve the layout of a sprite sheet",
+            description = """
+                    Retrieve the position of each avatar in the sprite sheet returned by `GET /avatars/sprite` with the same parameters.
+                    The `version` identifies the sheet the layout belongs to, it equals the sheet's entity tag.
+                    """
+    )
+    @ApiResponses(
+            value = {
+                    @ApiResponse(
+                            responseCode = "200", description = "Successful operation",
+                            content = { @Content(mediaType = MediaType.APPLICATION_JSON_VALUE) }
+                    ),
+                    @ApiResponse(
+                            responseCode = "400", description = "No uids, too many uids or a too large sprite sheet requested",
+                            content = @Content(schema = @Schema(implementation = Void.class))
+                    ),
+                    @ApiResponse(
+                            responseCode = "404", description = "None of the users has an avatar image",
+                            content = @Content(schema = @Schema(implementation = Void.class))
+                    ),
+                    @ApiResponse(
+                            responseCode = "412", description = "The sprite sheet has changed since the requested version",
+                            content = @Content(schema = @Schema(implementation = Void.class))
+                    )
+            }
+    )
+    @GetMapping(value = "avatars/sprite/layout", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<SpriteSheet.Layout> spriteLayout(
+            @Parameter(description = "comma-separated uids of the users", example = "john.doe,jane.doe", required = true) @RequestParam final List<String> uids,
+            @Parameter(description = "retrieval mode, see `GET /avatar`", example = "fallbackGeneric") @RequestParam(
+                    name = "m", required = false
+            ) final String mode,
+            @Parameter(
+                    description = "size of each avatar", schema = @Schema(defaultValue = "64", example = "64", minimum = "1", maximum = "2048")
+            ) @RequestParam(name = "size", required = false, defaultValue = "64") final int requestedSize,
+            @Parameter(description = "version of the sprite sheet, i.e. the entity tag of a sheet fetched before") @RequestParam(
+                    name = "v", required = false
+            ) final String version) {
+        int size = spriteSize(requestedSize);
+        if (!isValidSprite(uids, size)) {
+            return ResponseEntity.badRequest().build();
+        }
+        SpriteSheet sprite = getSprite(uids, mode, size);
+        if (sprite == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        if (version != null && !version.equals(sprite.layout().version())) {
+            return new ResponseEntity<>(HttpStatus.PRECONDITION_FAILED);
+        }
+        if (sprite.image().degraded()) {
+            return ResponseEntity.ok().cacheControl(ControllerUtils.degradedAvatarCacheControl()).body(sprite.layout());
+        }
+        return ResponseEntity.ok().cacheControl(ControllerUtils.avatarCacheControl()).eTag(sprite.image().etag()).body(sprite.layout());
+    }
+
+    private SpriteSheet getSprite(List<String> uids, String mode, int size) {
+        log.info("Incoming sprite request for {} uids, m='{}', size='{}'", uids.size(), mode, size);
+        uids.forEach(uid -> sizeDistribution.record(size));
+        return avatarSpriteService.getSprite(uids, ControllerUtils.resolveMode(mode, confProps.getDefaultMode()), sizeLadder.snap(size), size);
+    }
+
+    private static int spriteSize(int requestedSize) {
+        return ControllerUtils.getSizeInBounds(requestedSize, ImageSize.getAdDefaultImageSize().getSizePixels(), 2048);
+    }
+
+    private boolean isValidSprite(List<String> uids, int size) {
+        if (!isValidBatch(uids)) {
+            return false;
+        }
+        // checked before any avatar is fetched, the sheet is composed in memory
+        long pixels = SpriteSheet.maxPixels(new LinkedHashSet<>(uids).size(), size);
+        if (pixels > confProps.getBatch().getMaxSpritePixels()) {
+            log.info("Rejecting sprite request for {} uids of size {}, the sheet would have {} pixels.", uids.size(), size, pixels);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isValidBatch(List<String> uids) {
+        return uids != null && !uids.isEmpty() && uids.size() <= confProps.getBatch().getMaxUids();
+    }
+
+}
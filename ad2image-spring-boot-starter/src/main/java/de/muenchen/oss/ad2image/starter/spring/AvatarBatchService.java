@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.spring;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import de.muenchen.oss.ad2image.starter.core.AvatarImage;
+import de.muenchen.oss.ad2image.starter.core.BatchConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.CacheNames;
+import de.muenchen.oss.ad2image.starter.core.DirectoryLookupService;
+import de.muenchen.oss.ad2image.starter.core.Mode;
+import de.muenchen.oss.ad2image.starter.core.ThreadFactories;
+import de.muenchen.oss.ad2image.starter.core.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+/**
+ * Resolves the avatars of many users at once. The directory entries which are not cached yet are
+ * looked up with a few combined searches and put into the directory caches, afterwards the avatars
+ * are rendered in parallel by the {@link AvatarService} (which then finds the directory entries in
+ * the cache).
+ */
+public class AvatarBatchService implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(AvatarBatchService.class);
+
+    private final AvatarService avatarService;
+    private final DirectoryLookupService directoryLookupService;
+    private final Cache directoryEntries;
+    private final Cache directoryMisses;
+    private final int directoryChunkSize;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param avatarService renders the avatars
+     * @param directoryLookupService looks up the directory entries
+     * @param cacheManager cache manager holding the directory caches, {@code null} if caching is
+     *            disabled (every avatar is then looked up on its own)
+     * @param batchProps batch configuration
+     */
+    public AvatarBatchService(AvatarService avatarService, DirectoryLookupService directoryLookupService, CacheManager cacheManager,
+            BatchConfigurationProperties batchProps) {
+        this(avatarService, directoryLookupService, cacheManager, batchProps, false);
+    }
+
+    /**
+     * @param avatarService renders the avatars
+     * @param directoryLookupService looks up the directory entries
+     * @param cacheManager cache manager holding the directory caches, {@code null} if caching is
+     *            disabled (every avatar is then looked up on its own)
+     * @param batchProps batch configuration
+     * @param virtualThreads render the avatars on virtual threads
+     */
+    public AvatarBatchService(AvatarService avatarService, DirectoryLookupService directoryLookupService, CacheManager cacheManager,
+            BatchConfigurationProperties batchProps, boolean virtualThreads) {
+        this.avatarService = avatarService;
+        this.directoryLookupService = directoryLookupService;
+        this.directoryEntries = cacheManager != null ? cacheManager.getCache(CacheNames.DIRECTORY_ENTRIES) : null;
+        this.directoryMisses = cacheManager != null ? cacheManager.getCache(CacheNames.DIRECTORY_MISSES) : null;
+        this.directoryChunkSize = batchProps.getDirectoryChunkSize();
+        // when all threads are busy, the request thread renders itself
+        this.executor = new ThreadPoolExecutor(batchProps.getThreads(), batchProps.getThreads(), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(batchProps.getMaxUids()), ThreadFactories.create("ad2image-batch-", virtualThreads),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Resolves the avatars of the given users.
+     *
+     * @param uids the user identifiers
+     * @param mode the avatar selection mode
+     * @param size the requested avatar edge length in pixels
+     * @return the avatars by uid in request order, users without avatar (or failing to render) are
+     *         left out
+     */
+    public Map<String, AvatarImage> getImages(List<String> uids, Mode mode, int size) {
+        return getImages(uids, mode, size, size);
+    }
+
+    /**
+     * Resolves the avatars of the given users in the size of a ladder step and scales them to the
+     * requested size, see {@link AvatarService#resize(AvatarImage, int)}.
+     *
+     * @param uids the user identifiers
+     * @param mode the avatar selection mode
+     * @param ladderSize the size of the ladder step the avatars are rendered in
+     * @param size the requested avatar edge length in pixels
+     * @return the avatars by uid in request order, users without avatar (or failing to render) are
+     *         left out
+     */
+    public Map<String, AvatarImage> getImages(List<String> uids, Mode mode, int ladderSize, int size) {
+        List<String> distinctUids = new ArrayList<>(new LinkedHashSet<>(uids));
+        primeDirectoryCaches(distinctUids);
+        Map<String, CompletableFuture<AvatarImage>> futures = new LinkedHashMap<>();
+        for (String uid : distinctUids) {
+            futures.put(uid, CompletableFuture.supplyAsync(() -> {
+                AvatarImage image = avatarService.getImage(uid, mode, ladderSize);
+                return ladderSize != size && image != null && image.data() != null ? avatarService.resize(image, size) : image;
+            }, executor));
+        }
+        Map<String, AvatarImage> images = new LinkedHashMap<>();
+        futures.forEach((uid, future) -> {
+            try {
+                AvatarImage image = future.join();
+                if (image != null && image.data() != null) {
+                    images.put(uid, image);
+                }
+            } catch (CompletionException e) {
+                log.warn("Failed to render avatar of '{}' in batch request.", uid, e.getCause());
+            }
+        });
+        return images;
+    }
+
+    private void primeDirectoryCaches(List<String> uids) {
+        if (directoryEntries == null || directoryMisses == null) {
+            return;
+        }
+        List<String> uncached = uids.stream()
+                .filter(uid -> directoryEntries.get(DirectoryLookupService.cacheKey(uid)) == null
+                        && directoryMisses.get(DirectoryLookupService.cacheKey(uid)) == null)
+                .toList();
+        if (uncached.isEmpty()) {
+            return;
+        }
+        Map<String, Optional<User>> users = directoryLookupService.findUsersInDirectory(uncached, directoryChunkSize);
+        users.forEach((uid, user) -> {
+            if (user.isPresent()) {
+                directoryEntries.put(DirectoryLookupService.cacheKey(uid), user.get());
+            } else {
+                directoryMisses.put(DirectoryLookupService.cacheKey(uid), null);
+            }
+        });
+        log.debug("Looked up {} of {} users of batch request in directory.", uncached.size(), uids.size());
+    }
+
+    /**
+     * Stops accepting batch requests and waits a few seconds for the running renderings.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
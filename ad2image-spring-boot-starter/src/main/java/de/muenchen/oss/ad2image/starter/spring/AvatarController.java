@@ -22,21 +22,21 @@
  */
 package de.muenchen.oss.ad2image.starter.spring;
 
-import java.util.EnumSet;
-import java.util.concurrent.TimeUnit;
+import java.time.Instant;
 
 import de.muenchen.oss.ad2image.starter.core.Ad2ImageConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.AvatarImage;
 import de.muenchen.oss.ad2image.starter.core.Mode;
+import de.muenchen.oss.ad2image.starter.core.SizeLadder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.CacheControl;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
 
 import de.muenchen.oss.ad2image.starter.core.ImageSize;
 import io.swagger.v3.oas.annotations.ExternalDocumentation;
@@ -70,10 +70,17 @@ public class AvatarController {
 
     private final Ad2ImageConfigurationProperties confProps;
 
-    public AvatarController(AvatarService avatarService, Ad2ImageConfigurationProperties confProps) {
+    private final SizeLadder sizeLadder;
+
+    private final SizeDistribution sizeDistribution;
+
+    public AvatarController(AvatarService avatarService, Ad2ImageConfigurationProperties confProps, SizeLadder sizeLadder,
+            SizeDistribution sizeDistribution) {
         super();
         this.avatarService = avatarService;
         this.confProps = confProps;
+        this.sizeLadder = sizeLadder;
+        this.sizeDistribution = sizeDistribution;
     }
 
     @Operation(summary = "Retrieve a users avatar image", description = "Retrieve a users avatar image")
@@ -83,6 +90,16 @@ public class AvatarController {
                             responseCode = "200", description = "Successful operation",
                             content = { @Content(mediaType = "image/png") }
                     ),
+                    @ApiResponse(
+                            responseCode = "304",
+                            description = "Avatar image not modified (request with matching 'If-None-Match' or 'If-Modified-Since' header)",
+                            content = @Content(schema = @Schema(implementation = Void.class))
+                    ),
+                    @ApiResponse(
+                            responseCode = "302",
+                            description = "Redirect to the next size of the size ladder (only if enabled with strategy 'REDIRECT')",
+                            content = @Content(schema = @Schema(implementation = Void.class))
+                    ),
                     @ApiResponse(
                             responseCode = "404", description = "User not found or user has no avatar image",
                             content = @Content(schema = @Schema(implementation = Void.class))
@@ -142,33 +159,34 @@ public class AvatarController {
                             minimum = "1",
                             maximum = "2048"
                     )
-            ) @RequestParam(name = "size", required = false, defaultValue = "64") final int requestedSize) {
+            ) @RequestParam(name = "size", required = false, defaultValue = "64") final int requestedSize,
+            final WebRequest webRequest) {
         log.info("Incoming avatar request for uid='{}', m='{}', size='{}'", uid, mode, requestedSize);
         int size = ControllerUtils.getSizeInBounds(requestedSize, ImageSize.getAdDefaultImageSize().getSizePixels(), 2048);
-        Mode resolvedMode = resolveMode(mode);
-        byte[] jpegThumbnail = avatarService.get(uid, resolvedMode, size);
-        if (jpegThumbnail != null) {
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_TYPE, MediaType.IMAGE_PNG_VALUE);
-            return ResponseEntity.ok()
-                    // let the browser cache the avatar
-                    .cacheControl(CacheControl.maxAge(1, TimeUnit.DAYS))
-                    .headers(headers)
-                    .body(jpegThumbnail);
-        } else {
-            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        sizeDistribution.record(size);
+        int ladderSize = sizeLadder.snap(size);
+        if (ladderSize != size && sizeLadder.getStrategy() == SizeLadder.Strategy.REDIRECT) {
+            return ControllerUtils.redirectToSize("size", ladderSize);
         }
-    }
-
-    private Mode resolveMode(String mode) {
-        Mode resolvedMode = confProps.getDefaultMode();
-        EnumSet<Mode> allPossibleModes = EnumSet.allOf(Mode.class);
-        for (Mode possibleMode : allPossibleModes) {
-            if (possibleMode.getParameterValue().equalsIgnoreCase(mode)) {
-                return possibleMode;
+        Mode resolvedMode = ControllerUtils.resolveMode(mode, confProps.getDefaultMode());
+        Instant lastModified = null;
+        if (ControllerUtils.isModifiedSinceRequest(webRequest)) {
+            // otherwise the modification time comes with the avatar, without an extra lookup
+            lastModified = avatarService.getLastModified(uid);
+            ResponseEntity<byte[]> notModified = ControllerUtils.notModifiedSince(webRequest, lastModified);
+            if (notModified != null) {
+                return notModified;
             }
         }
-        return resolvedMode;
+        AvatarImage avatar = avatarService.getImage(uid, resolvedMode, ladderSize);
+        if (avatar != null && avatar.data() != null) {
+            if (ladderSize != size && sizeLadder.getStrategy() == SizeLadder.Strategy.RESIZE) {
+                avatar = avatarService.resize(avatar, size);
+            }
+            return ControllerUtils.avatarResponse(webRequest, avatar, lastModified);
+        } else {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
     }
 
 }
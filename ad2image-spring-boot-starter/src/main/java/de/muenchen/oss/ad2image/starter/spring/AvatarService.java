@@ -22,21 +22,38 @@
  */
 package de.muenchen.oss.ad2image.starter.spring;
 
+import de.muenchen.oss.ad2image.starter.core.AvatarImage;
+import de.muenchen.oss.ad2image.starter.core.BackgroundRefresher;
+import de.muenchen.oss.ad2image.starter.core.CacheNames;
+import de.muenchen.oss.ad2image.starter.core.CircuitBreakerConfigurationProperties.PhotoFallback;
 import de.muenchen.oss.ad2image.starter.core.DirectoryLookupService;
 import de.muenchen.oss.ad2image.starter.core.EwsUserPhotoService;
 import de.muenchen.oss.ad2image.starter.core.ImageScaler;
 import de.muenchen.oss.ad2image.starter.core.ImageSize;
 import de.muenchen.oss.ad2image.starter.core.Mode;
+import de.muenchen.oss.ad2image.starter.core.PersistentAvatarStore;
+import de.muenchen.oss.ad2image.starter.core.SingleFlight;
 import de.muenchen.oss.ad2image.starter.core.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.Cache;
 
 import de.muenchen.oss.ad2image.starter.core.AvatarGenerator;
 import de.muenchen.oss.ad2image.starter.core.InitialsAvatarGenerator;
 
 import java.io.IOException;
+import java.io.Serializable;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 import static de.muenchen.oss.ad2image.starter.core.Mode.M_FALLBACK_GENERIC;
 import static de.muenchen.oss.ad2image.starter.core.Mode.M_FALLBACK_GENERIC_DARK;
@@ -51,14 +68,140 @@ public class AvatarService {
 
     private static final Logger log = LoggerFactory.getLogger(AvatarService.class);
 
+    private static final int MAX_TRACKED_GENERATIONS = 10_000;
+
     private final AvatarGenerator avatarGenerator;
     private final DirectoryLookupService directoryLookupService;
     private final EwsUserPhotoService ewsUserPhotoService;
+    private final PersistentAvatarStore avatarStore;
+    private final Cache avatarCache;
+    private final Cache exchangePhotoCache;
+    private final BackgroundRefresher avatarRefresher;
+    private final Duration softTtl;
+    private final PhotoFallback photoFallback;
+
+    private final SingleFlight<AvatarKey, AvatarImage> avatarFlights = new SingleFlight<>();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder degradedAvatars = new LongAdder();
+    private final LongAdder speculativePhotoFetches = new LongAdder();
+    private final LongAdder discardedSpeculativePhotoFetches = new LongAdder();
+    // part of the cache keys, the time of the last eviction of a user to evict all cached avatars of
+    // the user at once
+    private final ConcurrentMap<String, Long> avatarGenerations = new ConcurrentHashMap<>();
+    // cached avatars rendered before this time may belong to a generation which is not tracked anymore
+    private volatile long forgottenGenerationsBefore = 0L;
 
     public AvatarService(AvatarGenerator avatarGenerator, DirectoryLookupService directoryLookupService, EwsUserPhotoService ewsUserPhotoService) {
-        this.avatarGenerator = avatarGenerator;
-        this.directoryLookupService = directoryLookupService;
-        this.ewsUserPhotoService = ewsUserPhotoService;
+        this(builder(avatarGenerator, directoryLookupService, ewsUserPhotoService));
+    }
+
+    private AvatarService(Builder builder) {
+        this.avatarGenerator = builder.avatarGenerator;
+        this.directoryLookupService = builder.directoryLookupService;
+        this.ewsUserPhotoService = builder.ewsUserPhotoService;
+        this.avatarStore = builder.avatarStore;
+        this.avatarCache = builder.avatarCache;
+        this.exchangePhotoCache = builder.exchangePhotoCache;
+        this.avatarRefresher = builder.avatarRefresher;
+        this.softTtl = builder.softTtl;
+        this.photoFallback = builder.photoFallback;
+    }
+
+    /**
+     * Creates a builder for an {@link AvatarService} with optional collaborators, see
+     * {@link Builder}. Without any of them, the service is equivalent to
+     * {@link #AvatarService(AvatarGenerator, DirectoryLookupService, EwsUserPhotoService)}.
+     *
+     * @param avatarGenerator generator for fallback avatars
+     * @param directoryLookupService AD lookup
+     * @param ewsUserPhotoService Exchange photo lookup
+     * @return the builder
+     */
+    public static Builder builder(AvatarGenerator avatarGenerator, DirectoryLookupService directoryLookupService,
+            EwsUserPhotoService ewsUserPhotoService) {
+        return new Builder(avatarGenerator, directoryLookupService, ewsUserPhotoService);
+    }
+
+    /**
+     * Builder for an {@link AvatarService}. Every collaborator not set is disabled.
+     */
+    public static final class Builder {
+
+        private final AvatarGenerator avatarGenerator;
+        private final DirectoryLookupService directoryLookupService;
+        private final EwsUserPhotoService ewsUserPhotoService;
+        private PersistentAvatarStore avatarStore;
+        private Cache avatarCache;
+        private Cache exchangePhotoCache;
+        private BackgroundRefresher avatarRefresher;
+        private Duration softTtl;
+        private PhotoFallback photoFallback = PhotoFallback.NONE;
+
+        private Builder(AvatarGenerator avatarGenerator, DirectoryLookupService directoryLookupService, EwsUserPhotoService ewsUserPhotoService) {
+            this.avatarGenerator = avatarGenerator;
+            this.directoryLookupService = directoryLookupService;
+            this.ewsUserPhotoService = ewsUserPhotoService;
+        }
+
+        /**
+         * @param avatarStore persistent store for rendered avatars and master photos, {@code null} if
+         *            disabled
+         * @return this builder
+         */
+        public Builder avatarStore(PersistentAvatarStore avatarStore) {
+            this.avatarStore = avatarStore;
+            return this;
+        }
+
+        /**
+         * @param avatarCache the {@link CacheNames#AVATARS avatars} cache, {@code null} if caching is
+         *            disabled
+         * @return this builder
+         */
+        public Builder avatarCache(Cache avatarCache) {
+            this.avatarCache = avatarCache;
+            return this;
+        }
+
+        /**
+         * @param exchangePhotoCache the {@link CacheNames#EXCHANGE_PHOTOS Exchange photos} cache of
+         *            {@link EwsUserPhotoService#getMasterPhoto(String)}, {@code null} if caching is
+         *            disabled; cached photos are not fetched speculatively
+         * @return this builder
+         */
+        public Builder exchangePhotoCache(Cache exchangePhotoCache) {
+            this.exchangePhotoCache = exchangePhotoCache;
+            return this;
+        }
+
+        /**
+         * @param avatarRefresher renders stale cached avatars in the background, {@code null} to
+         *            disable background refreshes
+         * @param softTtl age after which a cached avatar is refreshed in the background
+         * @return this builder
+         */
+        public Builder avatarRefresher(BackgroundRefresher avatarRefresher, Duration softTtl) {
+            this.avatarRefresher = avatarRefresher;
+            this.softTtl = softTtl;
+            return this;
+        }
+
+        /**
+         * @param photoFallback source of large avatars if the Exchange photo cannot be retrieved
+         * @return this builder
+         */
+        public Builder photoFallback(PhotoFallback photoFallback) {
+            this.photoFallback = photoFallback;
+            return this;
+        }
+
+        /**
+         * @return the configured service
+         */
+        public AvatarService build() {
+            return new AvatarService(this);
+        }
+
     }
 
     /**
@@ -66,13 +209,27 @@ public class AvatarService {
      * fallback generators.
      *
      * The method returns the user's stored AD thumbnail if available (scaling it when necessary),
-     * requests a larger
-     * photo from Exchange when a larger size is requested, or generates a fallback image when no photo
+     * derives larger
+     * sizes from the user's Exchange photo in master size, or generates a fallback image when no photo
      * exists. For
      * non-existent users the method will generate a fallback image only for explicit fallback modes;
      * otherwise it
      * returns null.
      *
+     * Concurrent calls for the same uid, mode and size (e.g. right after the cached entry expired)
+     * are coalesced: only one of them renders the avatar, the others wait for its result.
+     *
+     * Rendered avatars are cached (if caching is enabled). Cached avatars older than the soft TTL are
+     * still returned, but rendered again in the background from freshly fetched directory and
+     * Exchange data, so that known users never wait for AD or Exchange.
+     *
+     * If the persistent store is enabled, stored avatars are served from there (and refreshed in the
+     * background once they are stale) instead of rendering them again.
+     *
+     * If the Exchange photo of a large avatar cannot be retrieved, the avatar is derived from the
+     * configured {@link PhotoFallback} instead. Such degraded avatars are neither cached nor stored,
+     * and they never replace a cached avatar during a background refresh.
+     *
      * @param uid the user identifier to resolve and generate an avatar for
      * @param mode the avatar selection mode that controls fallback behavior and special modes (e.g.,
      *            initials, 404)
@@ -81,10 +238,299 @@ public class AvatarService {
      *         the given mode
      * @throws RuntimeException if an image scaling operation fails
      */
-    @Cacheable("avatars")
     public byte[] get(String uid, Mode mode, int size) {
+        return getImage(uid, mode, size).data();
+    }
+
+    /**
+     * Same as {@link #get(String, Mode, int)}, but including the render timestamp.
+     *
+     * @param uid the user identifier to resolve and generate an avatar for
+     * @param mode the avatar selection mode
+     * @param size the requested avatar edge length in pixels
+     * @return the avatar, {@link AvatarImage#data()} is {@code null} when no avatar is available for
+     *         the given mode
+     */
+    public AvatarImage getImage(String uid, Mode mode, int size) {
+        return getImage(uid, mode, size, null);
+    }
+
+    /**
+     * Same as {@link #getImage(String, Mode, int)}, but a large avatar is derived from the given
+     * speculatively fetched Exchange photo, if the user's directory entry confirms its mail address.
+     * Otherwise the fetch is cancelled.
+     *
+     * @param uid the user identifier to resolve and generate an avatar for
+     * @param mode the avatar selection mode
+     * @param size the requested avatar edge length in pixels
+     * @param speculativePhoto result of {@link #fetchPhotoSpeculatively(String, Mode, int, String)},
+     *            may be {@code null}
+     * @return the avatar, {@link AvatarImage#data()} is {@code null} when no avatar is available for
+     *         the given mode
+     */
+    public AvatarImage getImage(String uid, Mode mode, int size, SpeculativePhotoFetch speculativePhoto) {
+        AvatarKey key = avatarKey(uid, mode, size);
+        try {
+            if (avatarCache != null) {
+                AvatarImage cached = avatarCache.get(key, AvatarImage.class);
+                if (cached != null && cached.renderedAt().toEpochMilli() > forgottenGenerationsBefore) {
+                    if (avatarRefresher != null && cached.isOlderThan(softTtl)) {
+                        staleHits.increment();
+                        avatarRefresher.refresh(key, () -> refresh(key, uid));
+                    }
+                    return cached;
+                }
+            }
+            return avatarFlights.execute(key, () -> {
+                try {
+                    AvatarImage image = load(key, uid, false, speculativePhoto);
+                    if (avatarCache != null) {
+                        avatarCache.put(key, image);
+                    }
+                    return image;
+                } catch (DegradedAvatarException e) {
+                    // not cached, so that the avatar is derived from the Exchange photo once it is available again
+                    return AvatarImage.degraded(e.getData(), Instant.now());
+                }
+            });
+        } finally {
+            // e.g. coalesced with a call already in flight
+            discard(speculativePhoto);
+        }
+    }
+
+    /**
+     * Scales an avatar to a size which is not a step of the size ladder (see
+     * {@link de.muenchen.oss.ad2image.starter.core.SizeLadder.Strategy#RESIZE}). The scaled avatar is
+     * cached (if caching is enabled) by the entity tag of the avatar and the size, so every version of
+     * an avatar is only scaled once per size. Scaled copies of outdated versions expire with the
+     * cache's TTL. Degraded avatars are scaled without caching.
+     *
+     * @param image the avatar of the ladder step, {@link AvatarImage#data()} must not be {@code null}
+     * @param size the requested avatar edge length in pixels
+     * @return the scaled avatar, rendered at the same time as {@code image} and tagged with
+     *         {@code image}'s entity tag and the size
+     */
+    public AvatarImage resize(AvatarImage image, int size) {
+        ResizedAvatarKey key = new ResizedAvatarKey(image.etag(), size);
+        boolean cacheable = avatarCache != null && !image.degraded();
+        if (cacheable) {
+            AvatarImage cached = avatarCache.get(key, AvatarImage.class);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        AvatarImage resized;
+        try {
+            resized = new AvatarImage(ImageScaler.scaleImage(image.data(), size, size), image.renderedAt(), image.etag() + "-" + size,
+                    image.lastModified(), image.degraded());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to scale image", e);
+        }
+        if (cacheable) {
+            avatarCache.put(key, resized);
+        }
+        return resized;
+    }
+
+    /**
+     * Starts fetching the Exchange photo for a large avatar before the user is looked up in the
+     * directory, if the user's mail address is already known from elsewhere. This takes the
+     * Exchange round trip off the critical path of uncached avatars. Nothing is fetched if the
+     * avatar is cached, the photo is stored or the AD thumbnail is sufficient for the size.
+     *
+     * @param uid the user identifier
+     * @param mode the avatar selection mode
+     * @param size the requested avatar edge length in pixels
+     * @param email the presumed mail address of the user, may be {@code null}
+     * @return the pending fetch, to be passed to
+     *         {@link #getImage(String, Mode, int, SpeculativePhotoFetch)}, or {@code null} if nothing
+     *         is fetched
+     */
+    public SpeculativePhotoFetch fetchPhotoSpeculatively(String uid, Mode mode, int size, String email) {
+        if (email == null || size <= ImageSize.getAdDefaultImageSize().getSizePixels()) {
+            return null;
+        }
+        AvatarKey key = avatarKey(uid, mode, size);
+        if (avatarCache != null && avatarCache.get(key) != null) {
+            return null;
+        }
+        if (avatarStore != null && (avatarStore.getStored(avatarStoreKey(key)) != null || avatarStore.getStored(photoStoreKey(email)) != null)) {
+            return null;
+        }
+        if (exchangePhotoCache != null && exchangePhotoCache.get(email) != null) {
+            return null;
+        }
+        speculativePhotoFetches.increment();
+        return new SpeculativePhotoFetch(email, ewsUserPhotoService.getUserPhotoFromExchangeAsync(email, ewsUserPhotoService.getMasterPhotoSize()));
+    }
+
+    /**
+     * Cancels a speculative fetch which is not passed to
+     * {@link #getImage(String, Mode, int, SpeculativePhotoFetch)}, e.g. because the request was
+     * answered with 304.
+     *
+     * @param speculativePhoto result of {@link #fetchPhotoSpeculatively(String, Mode, int, String)},
+     *            may be {@code null}
+     */
+    public void discard(SpeculativePhotoFetch speculativePhoto) {
+        if (speculativePhoto != null && speculativePhoto.claim()) {
+            speculativePhoto.photo.cancel(true);
+            discardedSpeculativePhotoFetches.increment();
+        }
+    }
+
+    private void refresh(AvatarKey key, String uid) {
+        try {
+            avatarCache.put(key, load(key, uid, true, null));
+        } catch (DegradedAvatarException e) {
+            log.debug("Keeping cached avatar for '{}', Exchange photo is not available.", key.uid());
+        }
+    }
+
+    /**
+     * Determines when the user's directory entry was last changed, which is used as modification time
+     * of all avatars of the user. No image is loaded or rendered, the (usually cached) directory entry
+     * is sufficient. If the entry is not cached, it is looked up without thumbnail photo.
+     *
+     * Only needed to answer {@code If-Modified-Since} requests before loading the avatar, otherwise
+     * {@link AvatarImage#lastModified()} of the loaded avatar saves the extra lookup.
+     *
+     * @param uid the user identifier
+     * @return the modification time, or {@code null} if the user does not exist or the time is not
+     *         known
+     */
+    public Instant getLastModified(String uid) {
+        return directoryLookupService.findUserWithoutPhoto(uid).map(User::getWhenChanged).orElse(null);
+    }
+
+    /**
+     * Removes the cached and stored avatars of the user in every mode and size, and the user's stored
+     * master photo, e.g. after the user's directory entry changed. The cached avatars are not removed
+     * one by one, they are left to expire and not served anymore.
+     *
+     * @param uid the user identifier (case-insensitive)
+     * @param email the user's mail address, {@code null} if unknown
+     */
+    public void evict(String uid, String email) {
+        if (avatarCache != null) {
+            long now = System.currentTimeMillis();
+            avatarGenerations.merge(DirectoryLookupService.cacheKey(uid), now, (previous, current) -> Math.max(previous + 1, current));
+            if (avatarGenerations.size() > MAX_TRACKED_GENERATIONS) {
+                forgetOldestGenerations();
+            }
+        }
+        if (avatarStore != null) {
+            int removed = avatarStore.removeIf(key -> isAvatarStoreKeyOf(key, uid) || (email != null && key.equals(photoStoreKey(email))));
+            log.debug("Removed {} stored avatars and photos of '{}'.", removed, uid);
+        }
+    }
+
+    /**
+     * Keeps the generations bounded by dropping the oldest quarter. Avatars of the dropped users are
+     * cached with the default generation again, so every cached avatar rendered before the last of
+     * the dropped evictions is not served anymore, but rendered again once.
+     */
+    private synchronized void forgetOldestGenerations() {
+        if (avatarGenerations.size() <= MAX_TRACKED_GENERATIONS) {
+            return;
+        }
+        long[] generations = avatarGenerations.values().stream().mapToLong(Long::longValue).sorted().toArray();
+        long forgetUpTo = generations[generations.length / 4];
+        avatarGenerations.values().removeIf(generation -> generation <= forgetUpTo);
+        forgottenGenerationsBefore = Math.max(forgottenGenerationsBefore, forgetUpTo);
+    }
+
+    /**
+     * Number of {@link #get(String, Mode, int)} calls which were served by waiting for an identical
+     * call already in flight.
+     *
+     * @return the number of coalesced calls since startup
+     */
+    public long getCoalescedRequestCount() {
+        return avatarFlights.getCoalescedCount();
+    }
+
+    /**
+     * Number of cached avatars which were served after their soft TTL (and therefore triggered a
+     * background refresh, unless one was pending already).
+     *
+     * @return the number of stale cache hits since startup
+     */
+    public long getStaleHitCount() {
+        return staleHits.sum();
+    }
+
+    /**
+     * @return the number of avatars derived from a {@link PhotoFallback} since startup, because the
+     *         Exchange photo could not be retrieved
+     */
+    public long getDegradedAvatarCount() {
+        return degradedAvatars.sum();
+    }
+
+    /**
+     * @return the number of Exchange photos fetched before the directory lookup since startup, see
+     *         {@link #fetchPhotoSpeculatively(String, Mode, int, String)}
+     */
+    public long getSpeculativePhotoFetchCount() {
+        return speculativePhotoFetches.sum();
+    }
+
+    /**
+     * @return the number of speculatively fetched Exchange photos which were cancelled or not used
+     *         since startup
+     */
+    public long getDiscardedSpeculativePhotoFetchCount() {
+        return discardedSpeculativePhotoFetches.sum();
+    }
+
+    /**
+     * @param uid the uid as requested, the key holds the normalized uid
+     * @param refresh {@code true} when re-rendering a stale avatar, cached and stored data is then not
+     *            used
+     * @param speculativePhoto speculatively fetched Exchange photo, may be {@code null}
+     */
+    private AvatarImage load(AvatarKey key, String uid, boolean refresh, SpeculativePhotoFetch speculativePhoto) {
+        if (avatarStore == null) {
+            return render(uid, key.mode(), key.size(), refresh, speculativePhoto);
+        }
+        String storeKey = avatarStoreKey(key);
+        AtomicReference<AvatarImage> rendered = new AtomicReference<>();
+        Supplier<byte[]> renderer = () -> {
+            AvatarImage image = render(uid, key.mode(), key.size(), refresh, speculativePhoto);
+            rendered.set(image);
+            return image.data();
+        };
+        byte[] data = refresh ? avatarStore.load(storeKey, renderer)
+                : avatarStore.get(storeKey, renderer, () -> render(uid, key.mode(), key.size(), true, null).data());
+        AvatarImage image = rendered.get();
+        // stored avatars are served without looking up the directory entry they were rendered from
+        return image != null ? image : AvatarImage.of(data, Instant.now());
+    }
+
+    /**
+     * @param refresh {@code true} when re-rendering a stale avatar, the directory entry and the master
+     *            photo are then fetched again instead of taken from the caches or the store
+     * @param speculativePhoto speculatively fetched Exchange photo, may be {@code null}
+     * @return the avatar with the modification time of the user's directory entry
+     */
+    private AvatarImage render(String uid, Mode mode, int size, boolean refresh, SpeculativePhotoFetch speculativePhoto) {
+        Optional<User> userInDirectory = refresh ? directoryLookupService.refreshUserInDirectory(uid) : directoryLookupService.findUserInDirectory(uid);
+        byte[] data = render(uid, mode, size, userInDirectory, refresh, speculativePhoto);
+        return AvatarImage.of(data, Instant.now(), userInDirectory.map(User::getWhenChanged).orElse(null));
+    }
+
+    private byte[] render(String uid, Mode mode, int size, Optional<User> userInDirectory, boolean refresh, SpeculativePhotoFetch speculativePhoto) {
         byte[] avatarBytes = null;
-        Optional<User> userInDirectory = directoryLookupService.findUserInDirectory(uid);
+        if (speculativePhoto != null) {
+            String photoEmail = userInDirectory.filter(u -> u.getThumbnailPhoto() != null && size > ImageSize.getAdDefaultImageSize().getSizePixels())
+                    .map(User::getEmail).orElse(null);
+            if (!speculativePhoto.isFor(photoEmail)) {
+                // the user has no photo, the thumbnail is sufficient or the mail address differs
+                discard(speculativePhoto);
+            }
+        }
         if (userInDirectory.isPresent()) {
             User user = userInDirectory.get();
             if (user.getThumbnailPhoto() != null) {
@@ -101,11 +547,15 @@ public class AvatarService {
                         avatarBytes = user.getThumbnailPhoto();
                     }
                 } else {
-                    log.debug("Calling Exchange EWS API GetUserPhoto for mail '{}' with size '{}'.", user.getEmail(),
-                            size);
-                    ImageSize nearestSize = ImageSize.findNearestSize(size);
-                    avatarBytes = ewsUserPhotoService.getUserPhotoFromExchange(user.getEmail(), nearestSize);
-                    if (nearestSize.getSizePixels() != size) {
+                    ImageSize masterPhotoSize = ewsUserPhotoService.getMasterPhotoSize();
+                    log.debug("Deriving avatar for mail '{}' with size '{}' from Exchange photo with size '{}'.", user.getEmail(),
+                            size, masterPhotoSize);
+                    try {
+                        avatarBytes = getMasterPhoto(user.getEmail(), refresh, speculativePhoto);
+                    } catch (EwsUserPhotoService.EwsUserPhotoLookupException e) {
+                        throw degradedAvatar(user, size, e);
+                    }
+                    if (masterPhotoSize.getSizePixels() != size) {
                         try {
                             avatarBytes = ImageScaler.scaleImage(avatarBytes, size, size);
                         } catch (IOException e) {
@@ -144,6 +594,122 @@ public class AvatarService {
         return avatarBytes;
     }
 
+    private DegradedAvatarException degradedAvatar(User user, int size, EwsUserPhotoService.EwsUserPhotoLookupException cause) {
+        byte[] photo = null;
+        if (photoFallback == PhotoFallback.STORED_PHOTO && avatarStore != null) {
+            photo = avatarStore.getStored(photoStoreKey(user.getEmail()));
+        }
+        if (photo == null && photoFallback != PhotoFallback.NONE) {
+            photo = user.getThumbnailPhoto();
+        }
+        if (photo == null) {
+            throw cause;
+        }
+        log.warn("Exchange photo for '{}' is not available, using fallback {}: {}", user.getUid(), photoFallback, cause.getMessage());
+        degradedAvatars.increment();
+        try {
+            return new DegradedAvatarException(ImageScaler.scaleImage(photo, size, size));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to scale image", e);
+        }
+    }
+
+    /**
+     * Carries an avatar derived from a {@link PhotoFallback} past the caches and the store.
+     */
+    private static final class DegradedAvatarException extends RuntimeException {
+
+        private final byte[] data;
+
+        DegradedAvatarException(byte[] data) {
+            super(null, null, false, false);
+            this.data = data;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+    }
+
+    private byte[] getMasterPhoto(String email, boolean refresh, SpeculativePhotoFetch speculativePhoto) {
+        Supplier<byte[]> fetch = () -> {
+            byte[] cached = exchangePhotoCache != null ? exchangePhotoCache.get(email, byte[].class) : null;
+            if (cached != null) {
+                discard(speculativePhoto);
+                return cached;
+            }
+            if (speculativePhoto != null && speculativePhoto.claim()) {
+                log.debug("Using speculatively fetched Exchange photo for mail '{}'.", email);
+                byte[] photo = speculativePhoto.join();
+                if (exchangePhotoCache != null) {
+                    // cached like a photo fetched by getMasterPhoto
+                    exchangePhotoCache.put(email, photo);
+                }
+                return photo;
+            }
+            return ewsUserPhotoService.getMasterPhoto(email);
+        };
+        if (avatarStore == null) {
+            return refresh ? ewsUserPhotoService.refreshMasterPhoto(email) : fetch.get();
+        }
+        String key = photoStoreKey(email);
+        if (refresh) {
+            return avatarStore.load(key, () -> ewsUserPhotoService.refreshMasterPhoto(email));
+        }
+        return avatarStore.get(key, fetch, () -> ewsUserPhotoService.refreshMasterPhoto(email));
+    }
+
+    /**
+     * Exchange photo fetched before the user's directory entry is known, see
+     * {@link AvatarService#fetchPhotoSpeculatively(String, Mode, int, String)}. It is either used for
+     * rendering or cancelled, exactly once.
+     */
+    public static final class SpeculativePhotoFetch {
+
+        private final String email;
+        private final CompletableFuture<byte[]> photo;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        SpeculativePhotoFetch(String email, CompletableFuture<byte[]> photo) {
+            this.email = email;
+            this.photo = photo;
+        }
+
+        boolean isFor(String userEmail) {
+            return userEmail != null && email.equalsIgnoreCase(userEmail.trim());
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        byte[] join() {
+            try {
+                return photo.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof EwsUserPhotoService.EwsUserPhotoLookupException lookupException) {
+                    throw lookupException;
+                }
+                throw new EwsUserPhotoService.EwsUserPhotoLookupException("Exception while fetching user photo from Exchange.", cause);
+            }
+        }
+    }
+
+    private static String avatarStoreKey(AvatarKey key) {
+        return "avatar:" + key.mode().name() + ":" + key.size() + ":" + key.uid();
+    }
+
+    private static boolean isAvatarStoreKeyOf(String storeKey, String uid) {
+        String[] parts = storeKey.split(":", 4);
+        // directory servers match uids case-insensitively, so avatars may be stored for any spelling
+        return parts.length == 4 && parts[0].equals("avatar") && parts[3].equalsIgnoreCase(uid);
+    }
+
+    private static String photoStoreKey(String email) {
+        return "photo:" + email;
+    }
+
     /**
      * Builds uppercase initials from the user's given name and surname.
      *
@@ -180,4 +746,19 @@ public class AvatarService {
         return type;
     }
 
+    /**
+     * Uids are matched case-insensitively, like the directory does, so all spellings of a uid share
+     * the same avatars. Only the key is normalized, avatars are rendered with the uid as requested.
+     */
+    private AvatarKey avatarKey(String uid, Mode mode, int size) {
+        String normalizedUid = DirectoryLookupService.cacheKey(uid);
+        return new AvatarKey(normalizedUid, avatarGenerations.getOrDefault(normalizedUid, 0L), mode, size);
+    }
+
+    private record AvatarKey(String uid, long generation, Mode mode, int size) implements Serializable {
+    }
+
+    private record ResizedAvatarKey(String etag, int size) implements Serializable {
+    }
+
 }
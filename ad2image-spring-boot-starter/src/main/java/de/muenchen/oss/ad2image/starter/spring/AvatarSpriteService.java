@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.spring;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.muenchen.oss.ad2image.starter.core.AvatarImage;
+import de.muenchen.oss.ad2image.starter.core.CacheNames;
+import de.muenchen.oss.ad2image.starter.core.Mode;
+import de.muenchen.oss.ad2image.starter.core.SingleFlight;
+import de.muenchen.oss.ad2image.starter.core.SpriteSheet;
+import org.springframework.cache.Cache;
+
+/**
+ * Composes the avatars of several users into a {@link SpriteSheet}. The avatars are resolved with
+ * the {@link AvatarBatchService} (i.e. from the avatars cache, if cached), the composed sheets are
+ * cached in the {@link CacheNames#AVATAR_SPRITES avatar sprites} cache.
+ */
+public class AvatarSpriteService {
+
+    private final AvatarBatchService avatarBatchService;
+    private final Cache spriteCache;
+
+    // image and layout of a sheet are usually requested at the same time
+    private final SingleFlight<SpriteKey, SpriteSheet> spriteFlights = new SingleFlight<>();
+
+    /**
+     * @param avatarBatchService resolves the avatars
+     * @param spriteCache the {@link CacheNames#AVATAR_SPRITES avatar sprites} cache, {@code null} if
+     *            sprite sheets are not cached
+     */
+    public AvatarSpriteService(AvatarBatchService avatarBatchService, Cache spriteCache) {
+        this.avatarBatchService = avatarBatchService;
+        this.spriteCache = spriteCache;
+    }
+
+    /**
+     * Returns the sprite sheet of the given users.
+     *
+     * @param uids the user identifiers, in the order of the sheet
+     * @param mode the avatar selection mode
+     * @param avatarSize size of the avatars to compose (e.g. the size ladder step)
+     * @param tileSize size of the avatars in the sheet
+     * @return the sprite sheet, {@code null} if none of the users has an avatar
+     */
+    public SpriteSheet getSprite(List<String> uids, Mode mode, int avatarSize, int tileSize) {
+        SpriteKey key = new SpriteKey(List.copyOf(uids), mode, tileSize);
+        if (spriteCache != null) {
+            SpriteSheet cached = spriteCache.get(key, SpriteSheet.class);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return spriteFlights.execute(key, () -> {
+            Map<String, byte[]> avatars = new LinkedHashMap<>();
+            Map<String, AvatarImage> images = avatarBatchService.getImages(uids, mode, avatarSize);
+            images.forEach((uid, image) -> avatars.put(uid, image.data()));
+            SpriteSheet sheet;
+            try {
+                sheet = SpriteSheet.compose(avatars, tileSize);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to compose sprite sheet", e);
+            }
+            if (sheet != null && images.values().stream().anyMatch(AvatarImage::degraded)) {
+                // like its degraded avatars, the sheet is neither cached nor revalidated
+                AvatarImage image = sheet.image();
+                sheet = new SpriteSheet(new AvatarImage(image.data(), image.renderedAt(), image.etag(), image.lastModified(), true), sheet.layout());
+            } else if (sheet != null && spriteCache != null) {
+                spriteCache.put(key, sheet);
+            }
+            return sheet;
+        });
+    }
+
+    private record SpriteKey(List<String> uids, Mode mode, int size) implements Serializable {
+    }
+
+}
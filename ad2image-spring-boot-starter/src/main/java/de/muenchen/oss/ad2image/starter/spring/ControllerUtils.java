@@ -22,6 +22,21 @@
  */
 package de.muenchen.oss.ad2image.starter.spring;
 
+import java.net.URI;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import de.muenchen.oss.ad2image.starter.core.AvatarImage;
+import de.muenchen.oss.ad2image.starter.core.Mode;
+
 public class ControllerUtils {
 
     public static int getSizeInBounds(int requestedSize, int defaultSize, int maxSize) {
@@ -34,4 +49,155 @@ public class ControllerUtils {
         return size;
     }
 
+    /**
+     * Resolves the mode parameter of the avatar API.
+     *
+     * @param mode the requested mode, may be {@code null}
+     * @param defaultMode the mode to use if no or an unknown mode is requested
+     * @return the resolved mode
+     */
+    public static Mode resolveMode(String mode, Mode defaultMode) {
+        for (Mode possibleMode : Mode.values()) {
+            if (possibleMode.getParameterValue().equalsIgnoreCase(mode)) {
+                return possibleMode;
+            }
+        }
+        return defaultMode;
+    }
+
+    /**
+     * Resolves the {@code d} (default) parameter of the Gravatar API.
+     *
+     * @param defaultParam the requested default, accepted values are the parameter values of
+     *            {@code Mode.M_404}, {@code Mode.M_IDENTICON} and {@code Mode.M_INITIALS}, and
+     *            {@code "mp"} (case-sensitive); may be {@code null}
+     * @param defaultMode the configured default mode of the Gravatar API, {@code null} for
+     *            {@code M_FALLBACK_GENERIC}
+     * @return the resolved {@code Mode} (one of {@code M_404}, {@code M_FALLBACK_IDENTICON},
+     *         {@code M_FALLBACK_GENERIC}, {@code M_INITIALS} or the default mode)
+     */
+    public static Mode resolveGravatarMode(String defaultParam, Mode defaultMode) {
+        Mode resolvedMode = defaultMode != null ? defaultMode : Mode.M_FALLBACK_GENERIC;
+        if (defaultParam == null) {
+            return resolvedMode;
+        }
+        if (defaultParam.equals(Mode.M_404.getParameterValue())) {
+            return Mode.M_404;
+        } else if (defaultParam.equals(Mode.M_IDENTICON.getParameterValue())) {
+            return Mode.M_FALLBACK_IDENTICON;
+        } else if (defaultParam.equals("mp")) {
+            return Mode.M_FALLBACK_GENERIC;
+        } else if (defaultParam.equals(Mode.M_INITIALS.getParameterValue())) {
+            return Mode.M_INITIALS;
+        }
+        return resolvedMode;
+    }
+
+    /**
+     * Builds a redirect to the current request URL with the size query parameter replaced.
+     *
+     * @param sizeParam name of the size query parameter
+     * @param size the size to redirect to
+     * @param sizeAliasParams alias names of the size query parameter which are removed
+     * @return a redirect response
+     */
+    public static <T> ResponseEntity<T> redirectToSize(String sizeParam, int size, String... sizeAliasParams) {
+        ServletUriComponentsBuilder uriBuilder = ServletUriComponentsBuilder.fromCurrentRequest();
+        for (String sizeAliasParam : sizeAliasParams) {
+            uriBuilder.replaceQueryParam(sizeAliasParam);
+        }
+        URI location = uriBuilder.replaceQueryParam(sizeParam, size).build().toUri();
+        return ResponseEntity.status(HttpStatus.FOUND)
+                .location(location)
+                .cacheControl(avatarCacheControl())
+                .build();
+    }
+
+    /**
+     * @param webRequest the current request
+     * @return {@code true} if the request can be answered by
+     *         {@link #notModifiedSince(WebRequest, Instant)}, i.e. it has an {@code If-Modified-Since}
+     *         but no {@code If-None-Match} header
+     */
+    public static boolean isModifiedSinceRequest(WebRequest webRequest) {
+        return webRequest.getHeader(HttpHeaders.IF_MODIFIED_SINCE) != null && webRequest.getHeader(HttpHeaders.IF_NONE_MATCH) == null;
+    }
+
+    /**
+     * Checks the request's {@code If-Modified-Since} header against the modification time of the
+     * user, before any avatar is loaded. Requests with an {@code If-None-Match} header are not
+     * answered here, as the entity tag takes precedence and is only known after loading the avatar.
+     *
+     * @param webRequest the current request
+     * @param lastModified modification time of the user, may be {@code null}
+     * @return a 304 response without body, or {@code null} if the avatar has to be loaded
+     */
+    public static ResponseEntity<byte[]> notModifiedSince(WebRequest webRequest, Instant lastModified) {
+        if (lastModified == null || webRequest.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            return null;
+        }
+        if (webRequest.checkNotModified(lastModified.toEpochMilli())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).lastModified(lastModified).cacheControl(avatarCacheControl()).build();
+        }
+        return null;
+    }
+
+    /**
+     * Builds the response for an avatar, which the browser may cache for a day and revalidate with its
+     * entity tag or modification time afterwards. If the request's {@code If-None-Match} (or
+     * {@code If-Modified-Since}) header matches, a 304 response without body is returned.
+     *
+     * {@link AvatarImage#degraded() Degraded} avatars are sent without entity tag and modification
+     * time and may only be cached briefly, so that clients fetch the actual avatar once the Exchange
+     * photo is available again.
+     *
+     * @param webRequest the current request
+     * @param image the avatar, {@link AvatarImage#data()} must not be {@code null}
+     * @param lastModified modification time of the user, {@code null} to use the one the avatar was
+     *            rendered with
+     * @return the response
+     */
+    public static ResponseEntity<byte[]> avatarResponse(WebRequest webRequest, AvatarImage image, Instant lastModified) {
+        if (image.degraded()) {
+            return ResponseEntity.ok().cacheControl(degradedAvatarCacheControl()).contentType(MediaType.IMAGE_PNG).body(image.data());
+        }
+        String etag = image.etag();
+        if (lastModified == null) {
+            lastModified = image.lastModified();
+        }
+        if (lastModified != null && image.renderedAt().isBefore(lastModified)) {
+            // rendered before the last change of the user, i.e. a stale avatar is served
+            lastModified = image.renderedAt();
+        }
+        CacheControl cacheControl = avatarCacheControl();
+        boolean notModified = lastModified == null ? webRequest.checkNotModified(etag)
+                : webRequest.checkNotModified(etag, lastModified.toEpochMilli());
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(notModified ? HttpStatus.NOT_MODIFIED : HttpStatus.OK)
+                // let the browser cache the avatar
+                .cacheControl(cacheControl)
+                .eTag(etag);
+        if (lastModified != null) {
+            response.lastModified(lastModified);
+        }
+        if (notModified) {
+            return response.build();
+        }
+        return response.contentType(MediaType.IMAGE_PNG).body(image.data());
+    }
+
+    /**
+     * @return the cache control of avatar responses, browsers may cache avatars for a day
+     */
+    public static CacheControl avatarCacheControl() {
+        return CacheControl.maxAge(1, TimeUnit.DAYS);
+    }
+
+    /**
+     * @return the cache control of {@link AvatarImage#degraded() degraded} avatars, browsers may only
+     *         cache them for a minute
+     */
+    public static CacheControl degradedAvatarCacheControl() {
+        return CacheControl.maxAge(1, TimeUnit.MINUTES);
+    }
+
 }
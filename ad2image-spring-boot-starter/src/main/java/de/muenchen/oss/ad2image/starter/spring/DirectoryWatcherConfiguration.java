@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.spring;
+
+import de.muenchen.oss.ad2image.starter.core.Ad2ImageConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.DirectoryChangeWatcher;
+import de.muenchen.oss.ad2image.starter.core.KnownUids;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.ldap.core.support.LdapContextSource;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Directory watcher, see {@link DirectoryWatcherService}.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(value = "de.muenchen.oss.ad2image.directory-watcher.enabled", havingValue = "true")
+@EnableScheduling
+public class DirectoryWatcherConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    DirectoryChangeWatcher directoryChangeWatcher(@Qualifier("ad2ImageLdapContextSource") LdapContextSource ad2ImageLdapContextSource,
+            Ad2ImageConfigurationProperties ad2ImageProps) {
+        return new DirectoryChangeWatcher(ad2ImageLdapContextSource, ad2ImageProps.getAd(), ad2ImageProps.getDirectoryWatcher());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    DirectoryWatcherService directoryWatcherService(DirectoryChangeWatcher directoryChangeWatcher, AvatarService avatarService,
+            ObjectProvider<CacheManager> cacheManager, KnownUids knownUids, ObjectProvider<GravatarHashMapService> gravatarHashMapService) {
+        return new DirectoryWatcherService(directoryChangeWatcher, avatarService, cacheManager.getIfUnique(), knownUids,
+                gravatarHashMapService.getIfAvailable());
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.spring;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.muenchen.oss.ad2image.starter.core.CacheNames;
+import de.muenchen.oss.ad2image.starter.core.DirectoryChangeWatcher;
+import de.muenchen.oss.ad2image.starter.core.DirectoryChangeWatcher.ChangedUser;
+import de.muenchen.oss.ad2image.starter.core.DirectoryLookupService;
+import de.muenchen.oss.ad2image.starter.core.KnownUids;
+import de.muenchen.oss.ad2image.starter.core.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Periodically polls the directory for changed users and invalidates everything cached or stored
+ * for them: directory entries, Exchange photos and rendered avatars in every mode and size. Known
+ * uids and the Gravatar mail hashes are updated, so new users and changed mail addresses are found
+ * without waiting for the next enumeration.
+ */
+public class DirectoryWatcherService {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectoryWatcherService.class);
+
+    private final DirectoryChangeWatcher watcher;
+    private final AvatarService avatarService;
+    private final CacheManager cacheManager;
+    private final KnownUids knownUids;
+    private final GravatarHashMapService gravatarHashMapService;
+
+    private final LongAdder changedUsers = new LongAdder();
+
+    /**
+     * @param watcher finds the changed users
+     * @param avatarService evicts the avatars of changed users
+     * @param cacheManager cache manager holding the directory entries and Exchange photos,
+     *            {@code null} if caching is disabled
+     * @param knownUids receives the uids of changed (possibly new) users
+     * @param gravatarHashMapService receives the mail addresses of changed users, {@code null} if the
+     *            Gravatar endpoint is disabled
+     */
+    public DirectoryWatcherService(DirectoryChangeWatcher watcher, AvatarService avatarService, CacheManager cacheManager, KnownUids knownUids,
+            GravatarHashMapService gravatarHashMapService) {
+        this.watcher = watcher;
+        this.avatarService = avatarService;
+        this.cacheManager = cacheManager;
+        this.knownUids = knownUids;
+        this.gravatarHashMapService = gravatarHashMapService;
+    }
+
+    /**
+     * Polls the directory for changes and invalidates the cached data of all changed users.
+     */
+    @Scheduled(fixedDelayString = "${de.muenchen.oss.ad2image.directory-watcher.poll-interval:1m}")
+    public void pollChanges() {
+        List<ChangedUser> changed;
+        try {
+            changed = watcher.poll();
+        } catch (RuntimeException e) {
+            log.warn("Failed to poll directory for changed users, retrying with the next poll.", e);
+            return;
+        }
+        for (ChangedUser changedUser : changed) {
+            User user = changedUser.user();
+            log.debug("User '{}' changed in directory, invalidating cached data of {}.", user.getUid(), changedUser.uids());
+            // cached data is keyed by the uids clients request, which are the values of the search filter attributes
+            for (String uid : changedUser.uids()) {
+                evict(CacheNames.DIRECTORY_ENTRIES, DirectoryLookupService.cacheKey(uid));
+                evict(CacheNames.DIRECTORY_ENTRIES, DirectoryLookupService.withoutPhotoKey(uid));
+                evict(CacheNames.DIRECTORY_MISSES, DirectoryLookupService.cacheKey(uid));
+                knownUids.add(uid);
+                avatarService.evict(uid, user.getEmail());
+            }
+            if (user.getEmail() != null) {
+                evict(CacheNames.EXCHANGE_PHOTOS, user.getEmail());
+            }
+            if (gravatarHashMapService != null) {
+                gravatarHashMapService.updateUser(user.getUid(), user.getEmail());
+            }
+        }
+        if (!changed.isEmpty()) {
+            // sprite sheets cannot be evicted per user
+            Cache sprites = cacheManager != null ? cacheManager.getCache(CacheNames.AVATAR_SPRITES) : null;
+            if (sprites != null) {
+                sprites.clear();
+            }
+            log.info("Invalidated cached data of {} users changed in directory.", changed.size());
+            changedUsers.add(changed.size());
+        }
+    }
+
+    /**
+     * @return number of changed users whose cached data was invalidated since startup
+     */
+    public long getChangedUserCount() {
+        return changedUsers.sum();
+    }
+
+    private void evict(String cacheName, Object key) {
+        Cache cache = cacheManager != null ? cacheManager.getCache(cacheName) : null;
+        if (cache != null) {
+            cache.evict(key);
+        }
+    }
+
+}
@@ -25,9 +25,12 @@ package de.muenchen.oss.ad2image.starter.spring;
 import de.muenchen.oss.ad2image.starter.core.Ad2ImageConfigurationProperties;
 import de.muenchen.oss.ad2image.starter.core.AdConfigurationProperties;
 import de.muenchen.oss.ad2image.starter.core.AvatarGenerator;
+import de.muenchen.oss.ad2image.starter.core.KnownUids;
+import de.muenchen.oss.ad2image.starter.core.SizeLadder;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -48,13 +51,17 @@ public class GravatarConfiguration {
      * @param avatarGenerator the AvatarGenerator responsible for producing avatar images
      * @param gravatarHashMapService the GravatarHashMapService that resolves Gravatar hashes to entries
      * @param ad2ImageConfigurationProperties configuration properties for the ad2image module
+     * @param sizeLadder the ladder requested sizes are snapped to
+     * @param sizeDistribution statistics of the requested sizes
      * @return a GravatarController instance
      */
     @Bean
     @ConditionalOnMissingBean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
     GravatarController gravatarController(AvatarService service, AvatarGenerator avatarGenerator, GravatarHashMapService gravatarHashMapService,
-            Ad2ImageConfigurationProperties ad2ImageConfigurationProperties) {
-        return new GravatarController(service, avatarGenerator, gravatarHashMapService, ad2ImageConfigurationProperties);
+            Ad2ImageConfigurationProperties ad2ImageConfigurationProperties, SizeLadder sizeLadder, SizeDistribution sizeDistribution) {
+        return new GravatarController(service, avatarGenerator, gravatarHashMapService, ad2ImageConfigurationProperties, sizeLadder,
+                sizeDistribution);
     }
 
     /**
@@ -63,12 +70,14 @@ public class GravatarConfiguration {
      * @param ad2ImageLdapContextSource the LDAP context source used for Active Directory lookups
      * @param ad2ImageConfigurationProperties application configuration properties for AD-to-image
      *            behavior
+     * @param knownUids filled with the enumerated uids, if the known uid filter is enabled
      * @return a configured GravatarHashMapService instance
      */
     @Bean
     @ConditionalOnMissingBean
     GravatarHashMapService gravatarHashMapService(@Qualifier("ad2ImageLdapContextSource") LdapContextSource ad2ImageLdapContextSource,
-            Ad2ImageConfigurationProperties ad2ImageConfigurationProperties) {
-        return new GravatarHashMapService(ad2ImageLdapContextSource, ad2ImageConfigurationProperties);
+            Ad2ImageConfigurationProperties ad2ImageConfigurationProperties, KnownUids knownUids) {
+        return new GravatarHashMapService(ad2ImageLdapContextSource, ad2ImageConfigurationProperties,
+                ad2ImageConfigurationProperties.getGravatar().isKnownUidFilterEnabled() ? knownUids : null);
     }
 }
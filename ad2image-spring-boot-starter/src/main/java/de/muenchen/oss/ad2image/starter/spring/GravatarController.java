@@ -24,8 +24,10 @@ package de.muenchen.oss.ad2image.starter.spring;
 
 import de.muenchen.oss.ad2image.starter.core.Ad2ImageConfigurationProperties;
 import de.muenchen.oss.ad2image.starter.core.AvatarGenerator;
+import de.muenchen.oss.ad2image.starter.core.AvatarImage;
 import de.muenchen.oss.ad2image.starter.core.ImageSize;
 import de.muenchen.oss.ad2image.starter.core.Mode;
+import de.muenchen.oss.ad2image.starter.core.SizeLadder;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -35,8 +37,6 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.CacheControl;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -44,10 +44,11 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
 
+import java.time.Instant;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 @Controller
 @Tag(name = "gravatar", description = "<a href=\"https://docs.gravatar.com/sdk/images/\">Gravatar</a> compatibility API")
@@ -59,6 +60,8 @@ public class GravatarController {
     private final AvatarGenerator avatarGenerator;
     private final GravatarHashMapService gravatarHashMapService;
     private final Ad2ImageConfigurationProperties confProps;
+    private final SizeLadder sizeLadder;
+    private final SizeDistribution sizeDistribution;
 
     /**
      * Create a GravatarController with the required services and configuration.
@@ -68,14 +71,18 @@ public class GravatarController {
      *            (identicon/generic/initials)
      * @param gravatarHashMapService service that maps MD5/SHA256 mail hashes to internal user IDs
      * @param confProps configuration properties (including the Gravatar default mode)
+     * @param sizeLadder ladder the requested sizes are snapped to
+     * @param sizeDistribution statistics of the requested sizes
      */
     public GravatarController(AvatarService avatarService, AvatarGenerator avatarGenerator, GravatarHashMapService gravatarHashMapService,
-            Ad2ImageConfigurationProperties confProps) {
+            Ad2ImageConfigurationProperties confProps, SizeLadder sizeLadder, SizeDistribution sizeDistribution) {
         super();
         this.avatarService = avatarService;
         this.avatarGenerator = avatarGenerator;
         this.gravatarHashMapService = gravatarHashMapService;
         this.confProps = confProps;
+        this.sizeLadder = sizeLadder;
+        this.sizeDistribution = sizeDistribution;
     }
 
     /**
@@ -114,6 +121,15 @@ public class GravatarController {
                             responseCode = "200", description = "Successful operation",
                             content = { @Content(mediaType = MediaType.IMAGE_PNG_VALUE) }
                     ),
+                    @ApiResponse(
+                            responseCode = "304", description = "Image not modified (request with matching 'If-None-Match' or 'If-Modified-Since' header)",
+                            content = @Content(schema = @Schema(implementation = Void.class))
+                    ),
+                    @ApiResponse(
+                            responseCode = "302",
+                            description = "Redirect to the next size of the size ladder (only if enabled with strategy 'REDIRECT')",
+                            content = @Content(schema = @Schema(implementation = Void.class))
+                    ),
                     @ApiResponse(
                             responseCode = "404", description = "User not found or user has no image",
                             content = @Content(schema = @Schema(implementation = Void.class))
@@ -153,26 +169,47 @@ public class GravatarController {
                             maximum = "2048"
                     )
             ) @RequestParam(name = "s", required = false) final Integer requestedSParam,
-            @Parameter(hidden = true) @RequestParam(name = "size", required = false) final Integer requestedSizeParam) {
+            @Parameter(hidden = true) @RequestParam(name = "size", required = false) final Integer requestedSizeParam,
+            final WebRequest webRequest) {
         String requestedDefault = dParam != null ? dParam : defaultParam;
         Integer requestedSize = requestedSParam != null ? requestedSParam : requestedSizeParam;
         requestedSize = requestedSize == null ? 80 : requestedSize;
         requestedSize = ControllerUtils.getSizeInBounds(requestedSize, 80, 2048);
         log.debug("Incoming gravatar request for mailHash='{}', d='{}', s='{}'", mailHash, requestedDefault, requestedSize);
-        Mode resolvedMode = resolveMode(requestedDefault);
+        sizeDistribution.record(requestedSize);
+        int ladderSize = sizeLadder.snap(requestedSize);
+        if (ladderSize != requestedSize && sizeLadder.getStrategy() == SizeLadder.Strategy.REDIRECT) {
+            return ControllerUtils.redirectToSize("s", ladderSize, "size");
+        }
+        Mode resolvedMode = ControllerUtils.resolveGravatarMode(requestedDefault, confProps.getGravatar().getDefaultMode());
         String uid;
         if (mailHash.length() == 64) {
             uid = gravatarHashMapService.getUidForSha256MailHash(mailHash.toLowerCase());
         } else {
             uid = gravatarHashMapService.getUidForMd5MailHash(mailHash.toLowerCase());
         }
-        byte[] photoBytes;
+        AvatarImage avatar;
+        Instant lastModified = null;
         if (uid != null) {
             log.info("Incoming gravatar request for mailHash='{}', d='{}' (=> m='{}'), size='{}' - resolved to uid='{}'", mailHash,
                     requestedDefault,
                     resolvedMode, requestedSize, uid);
-            photoBytes = avatarService.get(uid, resolvedMode, requestedSize);
-            if (photoBytes == null) {
+            AvatarService.SpeculativePhotoFetch speculativePhoto = null;
+            if (confProps.getGravatar().isSpeculativePhotoFetch()) {
+                // the mail address is known from the hash, so Exchange does not need to wait for any directory lookup
+                speculativePhoto = avatarService.fetchPhotoSpeculatively(uid, resolvedMode, ladderSize, gravatarHashMapService.getEmailForUid(uid));
+            }
+            if (ControllerUtils.isModifiedSinceRequest(webRequest)) {
+                // otherwise the modification time comes with the avatar, without an extra lookup
+                lastModified = avatarService.getLastModified(uid);
+                ResponseEntity<byte[]> notModified = ControllerUtils.notModifiedSince(webRequest, lastModified);
+                if (notModified != null) {
+                    avatarService.discard(speculativePhoto);
+                    return notModified;
+                }
+            }
+            avatar = avatarService.getImage(uid, resolvedMode, ladderSize, speculativePhoto);
+            if (avatar == null || avatar.data() == null) {
                 log.debug("user '{}' not found in directory or user has no image and no fallback specified - returning 404.", uid);
                 return new ResponseEntity<>(HttpStatus.NOT_FOUND);
             }
@@ -181,57 +218,20 @@ public class GravatarController {
             if (resolvedMode.equals(Mode.M_404)) {
                 return new ResponseEntity<>(HttpStatus.NOT_FOUND);
             } else {
+                byte[] photoBytes;
                 if (resolvedMode.equals(Mode.M_FALLBACK_GENERIC)) {
-                    photoBytes = avatarGenerator.generateAvatar(mailHash, AvatarGenerator.AvatarType.GENERIC, requestedSize);
+                    photoBytes = avatarGenerator.generateAvatar(mailHash, AvatarGenerator.AvatarType.GENERIC, ladderSize);
                 } else {
-                    photoBytes = avatarGenerator.generateAvatar(mailHash, AvatarGenerator.AvatarType.IDENTICON, requestedSize);
+                    photoBytes = avatarGenerator.generateAvatar(mailHash, AvatarGenerator.AvatarType.IDENTICON, ladderSize);
                 }
+                avatar = AvatarImage.of(photoBytes, Instant.now());
             }
         }
-        HttpHeaders headers = new HttpHeaders();
-        headers.add(HttpHeaders.CONTENT_TYPE, MediaType.IMAGE_PNG_VALUE);
-        return ResponseEntity.ok()
-                // let the browser cache the avatar
-                .cacheControl(CacheControl.maxAge(1, TimeUnit.DAYS))
-                .headers(headers)
-                .body(photoBytes);
-
-    }
-
-    /**
-     * Resolve the avatar fallback mode using the controller configuration and an optional override.
-     *
-     * <p>
-     * If {@code defaultParam} is null or does not match a known override value, the configured
-     * default mode (if set) is returned; otherwise Mode.M_FALLBACK_GENERIC is used.
-     * </p>
-     *
-     * @param defaultParam optional override string accepted values:
-     *            the value returned by {@code Mode.M_404.getParameterValue()},
-     *            {@code Mode.M_IDENTICON.getParameterValue()},
-     *            {@code Mode.M_INITIALS.getParameterValue()},
-     *            or the literal {@code "mp"} (maps to {@code M_FALLBACK_GENERIC}); comparison is
-     *            case-sensitive
-     * @return the resolved {@code Mode} (one of {@code M_404}, {@code M_FALLBACK_IDENTICON},
-     *         {@code M_FALLBACK_GENERIC}, or {@code M_INITIALS})
-     */
-    private Mode resolveMode(String defaultParam) {
-        Mode resolvedMode = confProps.getGravatar() != null && confProps.getGravatar().getDefaultMode() != null
-                ? confProps.getGravatar().getDefaultMode()
-                : Mode.M_FALLBACK_GENERIC;
-        if (defaultParam == null) {
-            return resolvedMode;
+        if (ladderSize != requestedSize && sizeLadder.getStrategy() == SizeLadder.Strategy.RESIZE) {
+            avatar = avatarService.resize(avatar, requestedSize);
         }
-        if (defaultParam.equals(Mode.M_404.getParameterValue())) {
-            return Mode.M_404;
-        } else if (defaultParam.equals(Mode.M_IDENTICON.getParameterValue())) {
-            return Mode.M_FALLBACK_IDENTICON;
-        } else if (defaultParam.equals("mp")) {
-            return Mode.M_FALLBACK_GENERIC;
-        } else if (defaultParam.equals(Mode.M_INITIALS.getParameterValue())) {
-            return Mode.M_INITIALS;
-        }
-        return resolvedMode;
+        return ControllerUtils.avatarResponse(webRequest, avatar, lastModified);
+
     }
 
 }
@@ -23,6 +23,8 @@
 package de.muenchen.oss.ad2image.starter.spring;
 
 import de.muenchen.oss.ad2image.starter.core.Ad2ImageConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.DirectoryLookupService;
+import de.muenchen.oss.ad2image.starter.core.KnownUids;
 import de.muenchen.oss.ad2image.starter.core.User;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
@@ -36,9 +38,11 @@ import org.springframework.scheduling.annotation.Scheduled;
 import javax.naming.NamingException;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class GravatarHashMapService {
@@ -47,14 +51,30 @@ public class GravatarHashMapService {
 
     private final LdapContextSource contextSource;
     private final Ad2ImageConfigurationProperties ad2ImageConfigurationProperties;
+    private final KnownUids knownUids;
 
     private final Map<String, String> emailSha256HashToUidCache = new ConcurrentHashMap<>();
     private final Map<String, String> emailMd5HashToUidCache = new ConcurrentHashMap<>();
+    private final Map<String, String> uidToEmailCache = new ConcurrentHashMap<>();
     private volatile boolean initialized = false;
 
     public GravatarHashMapService(LdapContextSource contextSource, Ad2ImageConfigurationProperties ad2ImageConfigurationProperties) {
+        this(contextSource, ad2ImageConfigurationProperties, null);
+    }
+
+    /**
+     * @param contextSource LDAP context source
+     * @param ad2ImageConfigurationProperties configuration properties
+     * @param knownUids receives the uids of every enumeration, may be {@code null}
+     */
+    public GravatarHashMapService(LdapContextSource contextSource, Ad2ImageConfigurationProperties ad2ImageConfigurationProperties,
+            KnownUids knownUids) {
         this.contextSource = contextSource;
         this.ad2ImageConfigurationProperties = ad2ImageConfigurationProperties;
+        this.knownUids = knownUids;
+        if (knownUids != null && "-".equals(ad2ImageConfigurationProperties.getGravatar().getHashCacheRefreshCron())) {
+            log.warn("Known uid filter is enabled without a hash cache refresh, users created after startup are not found until a restart.");
+        }
         // Initialize the cache
         this.populateMap();
     }
@@ -68,39 +88,42 @@ public class GravatarHashMapService {
     }
 
     private void updateMap() {
-        this.findAllPersons().stream().forEach(person -> {
-            String trimmedMailLowercase = person.getEmail().trim().toLowerCase();
-            String sha256Hex = DigestUtils.sha256Hex(trimmedMailLowercase);
-            emailSha256HashToUidCache.put(sha256Hex.toLowerCase(), person.getUid());
-            String md5Hex = DigestUtils.md5Hex(trimmedMailLowercase);
-            emailMd5HashToUidCache.put(md5Hex.toLowerCase(), person.getUid());
-        });
+        List<Person> persons = this.findAllPersons();
+        persons.stream().forEach(person -> putHashes(person.user().getUid(), person.user().getEmail()));
+        if (knownUids != null) {
+            // lookups compare the requested uid with the search filter attributes, not the uid attribute
+            knownUids.update(persons.stream().flatMap(person -> person.uids().stream()).toList());
+            log.info("Updated known uids with {} users.", persons.size());
+        }
     }
 
-    private List<User> findAllPersons() {
+    private List<Person> findAllPersons() {
         String searchFilter = this.ad2ImageConfigurationProperties.getGravatar().getMapPopulationFilter();
         String uidAttribute = this.ad2ImageConfigurationProperties.getAd().getUidAttribute();
         String mailAttribute = this.ad2ImageConfigurationProperties.getAd().getMailAttribute();
+        List<String> uidFilterAttributes = DirectoryLookupService.uidFilterAttributes(this.ad2ImageConfigurationProperties.getAd());
+        Set<String> returningAttributes = new LinkedHashSet<>(List.of(uidAttribute, mailAttribute));
+        returningAttributes.addAll(uidFilterAttributes);
         Integer pageSize = this.ad2ImageConfigurationProperties.getGravatar().getPageSize();
         String userSearchBase = this.ad2ImageConfigurationProperties.getAd().getUserSearchBase();
         final SearchControls searchControls = new SearchControls();
         searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
-        searchControls.setReturningAttributes(new String[] { uidAttribute, mailAttribute });
+        searchControls.setReturningAttributes(returningAttributes.toArray(String[]::new));
 
         final PagedResultsDirContextProcessor processor = new PagedResultsDirContextProcessor(this.ad2ImageConfigurationProperties.getGravatar().getPageSize());
         log.info("Looking up users for mail address hashing [search-base='{}', search-filter='{}', pageSize='{}'] - this could take a while...",
                 ad2ImageConfigurationProperties.getAd().getUserSearchBase(), searchFilter, pageSize);
         return SingleContextSource.doWithSingleContext(contextSource, operations -> {
-            List<User> result = new LinkedList<>();
+            List<Person> result = new LinkedList<>();
 
             do {
-                List<User> oneResult = operations.search(userSearchBase, searchFilter, searchControls, new AttributesMapper<User>() {
+                List<Person> oneResult = operations.search(userSearchBase, searchFilter, searchControls, new AttributesMapper<Person>() {
                     @Override
-                    public User mapFromAttributes(Attributes attributes) throws NamingException {
+                    public Person mapFromAttributes(Attributes attributes) throws NamingException {
                         User u = new User();
                         u.setUid((String) attributes.get(uidAttribute).get());
                         u.setEmail((String) attributes.get(mailAttribute).get());
-                        return u;
+                        return new Person(u, DirectoryLookupService.uidFilterValues(attributes, uidFilterAttributes));
                     }
                 }, processor);
 
@@ -112,7 +135,31 @@ public class GravatarHashMapService {
 
     }
 
-    @Scheduled(cron = "${de.muenchen.oss.ad2image.gravatar.hash-cache-refresh-cron:-}")
+    private void putHashes(String uid, String email) {
+        uidToEmailCache.put(uid, email.trim());
+        String trimmedMailLowercase = email.trim().toLowerCase();
+        String sha256Hex = DigestUtils.sha256Hex(trimmedMailLowercase);
+        emailSha256HashToUidCache.put(sha256Hex.toLowerCase(), uid);
+        String md5Hex = DigestUtils.md5Hex(trimmedMailLowercase);
+        emailMd5HashToUidCache.put(md5Hex.toLowerCase(), uid);
+    }
+
+    /**
+     * Updates the hashes of a single (changed) user, e.g. after the mail address changed.
+     *
+     * @param uid uid of the user
+     * @param email the current mail address of the user, {@code null} if the user has none
+     */
+    public void updateUser(String uid, String email) {
+        emailSha256HashToUidCache.values().removeIf(uid::equals);
+        emailMd5HashToUidCache.values().removeIf(uid::equals);
+        uidToEmailCache.remove(uid);
+        if (email != null) {
+            putHashes(uid, email);
+        }
+    }
+
+    @Scheduled(cron = "${de.muenchen.oss.ad2image.gravatar.hash-cache-refresh-cron:0 0 * * * *}")
     public void updateCache() {
         if (!initialized) {
             return; // Don't update if not initialized
@@ -134,4 +181,19 @@ public class GravatarHashMapService {
         }
         return emailMd5HashToUidCache.get(md5MailHash);
     }
+
+    /**
+     * @param uid uid of a user whose mail address was hashed
+     * @return the mail address of the user as of the last enumeration, {@code null} if unknown
+     */
+    public String getEmailForUid(String uid) {
+        if (!initialized) {
+            return null;
+        }
+        return uidToEmailCache.get(uid);
+    }
+
+    private record Person(User user, Set<String> uids) {
+    }
+
 }
@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.spring;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the avatar sizes requested by clients, e.g. to tune the size ladder. Sizes are recorded
+ * as requested, before they are snapped to the ladder. The counts are kept in memory since startup
+ * and exposed by the {@link SizeDistributionEndpoint}.
+ *
+ * @see de.muenchen.oss.ad2image.starter.core.SizeLadder
+ */
+public class SizeDistribution {
+
+    private final ConcurrentMap<Integer, LongAdder> requestsBySize = new ConcurrentHashMap<>();
+
+    /**
+     * Records a request for the given size.
+     *
+     * @param size requested size in pixels (already limited to the allowed bounds)
+     */
+    public void record(int size) {
+        requestsBySize.computeIfAbsent(size, s -> new LongAdder()).increment();
+    }
+
+    /**
+     * @return number of requests per requested size, ordered by size
+     */
+    public SortedMap<Integer, Long> snapshot() {
+        SortedMap<Integer, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<Integer, LongAdder> entry : requestsBySize.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        return snapshot;
+    }
+
+}
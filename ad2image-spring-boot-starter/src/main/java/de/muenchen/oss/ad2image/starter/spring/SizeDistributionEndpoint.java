@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.starter.spring;
+
+import java.util.List;
+import java.util.SortedMap;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import de.muenchen.oss.ad2image.starter.core.SizeLadder;
+
+/**
+ * Actuator endpoint {@code avatarsizes} exposing the distribution of requested avatar sizes
+ * together with the configured size ladder, to compare the ladder steps with the sizes clients
+ * actually request.
+ *
+ * @see SizeDistribution
+ */
+@Endpoint(id = "avatarsizes")
+public class SizeDistributionEndpoint {
+
+    private final SizeDistribution sizeDistribution;
+    private final SizeLadder sizeLadder;
+
+    /**
+     * @param sizeDistribution the recorded sizes
+     * @param sizeLadder the configured size ladder
+     */
+    public SizeDistributionEndpoint(SizeDistribution sizeDistribution, SizeLadder sizeLadder) {
+        this.sizeDistribution = sizeDistribution;
+        this.sizeLadder = sizeLadder;
+    }
+
+    /**
+     * @return the size ladder and the number of requests per requested size since startup
+     */
+    @ReadOperation
+    public SizeDistributionReport sizes() {
+        return new SizeDistributionReport(sizeLadder.isEnabled(), sizeLadder.getStrategy(), sizeLadder.getSteps(), sizeDistribution.snapshot());
+    }
+
+    /**
+     * @param ladderEnabled whether requested sizes are snapped to the ladder
+     * @param strategy how requests for sizes which are not a ladder step are answered
+     * @param ladder the configured ladder steps
+     * @param requestedSizes number of requests per requested size
+     */
+    public record SizeDistributionReport(boolean ladderEnabled, SizeLadder.Strategy strategy, List<Integer> ladder,
+            SortedMap<Integer, Long> requestedSizes) {
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.core;
+
+import de.muenchen.oss.ad2image.starter.core.CircuitBreaker;
+import de.muenchen.oss.ad2image.starter.core.CircuitBreakerConfigurationProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    private CircuitBreaker sut;
+
+    @BeforeEach
+    void setUp() {
+        CircuitBreakerConfigurationProperties props = new CircuitBreakerConfigurationProperties();
+        props.setWindowSize(4);
+        props.setMinimumCalls(4);
+        props.setFailureRateThreshold(50);
+        props.setOpenDuration(Duration.ofSeconds(30));
+        sut = new CircuitBreaker("test", props, nanoTime::get);
+    }
+
+    @Test
+    void opens_when_failure_rate_reaches_threshold() {
+        call(false);
+        call(true);
+        call(false);
+        assertThat(sut.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        call(true);
+
+        assertThat(sut.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(sut.tryAcquire()).isFalse();
+        assertThat(sut.getRejectedCallCount()).isEqualTo(1);
+        assertThat(sut.getTransitionCount(CircuitBreaker.State.OPEN)).isEqualTo(1);
+    }
+
+    @Test
+    void old_failures_leave_the_window() {
+        call(true);
+        call(false);
+        call(false);
+        call(false);
+        call(true);
+
+        assertThat(sut.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void permits_single_probe_after_open_duration() {
+        open();
+        nanoTime.addAndGet(Duration.ofSeconds(30).toNanos());
+
+        assertThat(sut.tryAcquire()).isTrue();
+        assertThat(sut.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(sut.tryAcquire()).isFalse();
+
+        sut.onSuccess();
+        assertThat(sut.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(sut.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void failed_probe_opens_again() {
+        open();
+        nanoTime.addAndGet(Duration.ofSeconds(30).toNanos());
+        assertThat(sut.tryAcquire()).isTrue();
+
+        sut.onFailure();
+
+        assertThat(sut.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(sut.tryAcquire()).isFalse();
+        assertThat(sut.getTransitionCount(CircuitBreaker.State.OPEN)).isEqualTo(2);
+    }
+
+    @Test
+    void ignored_probe_permits_next_probe() {
+        open();
+        nanoTime.addAndGet(Duration.ofSeconds(30).toNanos());
+        assertThat(sut.tryAcquire()).isTrue();
+
+        sut.onIgnored();
+
+        assertThat(sut.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(sut.tryAcquire()).isTrue();
+        assertThat(sut.tryAcquire()).isFalse();
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            call(true);
+        }
+        assertThat(sut.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    private void call(boolean failure) {
+        assertThat(sut.tryAcquire()).isTrue();
+        if (failure) {
+            sut.onFailure();
+        } else {
+            sut.onSuccess();
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.core;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import de.muenchen.oss.ad2image.starter.core.AdConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.DirectoryChangeWatcher;
+import de.muenchen.oss.ad2image.starter.core.DirectoryWatcherConfigurationProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ldap.core.support.LdapContextSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DirectoryChangeWatcherTest {
+
+    private InMemoryDirectoryServer server;
+
+    private DirectoryChangeWatcher sut;
+    private DirectoryChangeWatcher whenChangedSut;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        server = DirectoryLookupServiceTest.ldapServer();
+        setChange("maxi.mustermann", "1000");
+        setChange("nophoto.user", "1001");
+        setChange("initials.user", "1002");
+        AdConfigurationProperties adConf = new AdConfigurationProperties();
+        adConf.setUrl("ldap://localhost:" + server.getListenPort());
+        adConf.setUserSearchBase("ou=Users,dc=example,dc=com");
+        LdapContextSource source = new LdapContextSource();
+        source.setUrl(adConf.getUrl());
+        source.setUserDn("");
+        source.setPassword("");
+        source.afterPropertiesSet();
+        DirectoryWatcherConfigurationProperties watcherConf = new DirectoryWatcherConfigurationProperties();
+        watcherConf.setChangeAttribute("uSNChanged");
+        sut = new DirectoryChangeWatcher(source, adConf, watcherConf);
+        whenChangedSut = new DirectoryChangeWatcher(source, adConf, new DirectoryWatcherConfigurationProperties());
+    }
+
+    @AfterEach
+    public void shutdown() {
+        server.shutDown(true);
+    }
+
+    @Test
+    void first_poll_only_determines_last_change() {
+        assertThat(sut.poll()).isEmpty();
+        assertThat(sut.getLastChange()).isEqualTo("1002");
+        assertThat(sut.poll()).isEmpty();
+    }
+
+    @Test
+    void first_poll_determines_last_change_of_default_attribute() throws Exception {
+        assertThat(whenChangedSut.poll()).isEmpty();
+        assertThat(whenChangedSut.getLastChange()).isEqualTo("20240301120000.0Z");
+
+        server.modify("cn=initials.user,ou=Users,dc=example,dc=com", new Modification(ModificationType.REPLACE, "whenChanged", "20240302080000.0Z"));
+        assertThat(whenChangedSut.poll()).extracting(changed -> changed.user().getUid()).containsExactly("initials.user");
+    }
+
+    @Test
+    void changed_users_are_reported_once() throws Exception {
+        sut.poll();
+        setChange("nophoto.user", "1003");
+        server.modify("cn=nophoto.user,ou=Users,dc=example,dc=com",
+                new Modification(ModificationType.REPLACE, "mail", "new.mail"));
+
+        assertThat(sut.poll()).singleElement().satisfies(changed -> {
+            assertThat(changed.user().getUid()).isEqualTo("nophoto.user");
+            assertThat(changed.user().getEmail()).isEqualTo("new.mail");
+            assertThat(changed.uids()).containsExactly("nophoto.user");
+        });
+        assertThat(sut.getLastChange()).isEqualTo("1003");
+        assertThat(sut.poll()).isEmpty();
+    }
+
+    @Test
+    void users_changed_at_the_last_change_are_not_missed() throws Exception {
+        sut.poll();
+        setChange("maxi.mustermann", "1003");
+        assertThat(sut.poll()).extracting(changed -> changed.user().getUid()).containsExactly("maxi.mustermann");
+
+        // same change value as the last reported one, e.g. 'whenChanged' within the same second
+        setChange("nophoto.user", "1003");
+        assertThat(sut.poll()).extracting(changed -> changed.user().getUid()).containsExactly("nophoto.user");
+        assertThat(sut.poll()).isEmpty();
+    }
+
+    @Test
+    void changed_users_are_reported_with_the_uids_clients_request() throws Exception {
+        sut.poll();
+        setChange("Other.Cn", "1003");
+
+        // the search filter matches 'cn', so clients request the avatar by the cn in any case
+        assertThat(sut.poll()).singleElement().satisfies(changed -> {
+            assertThat(changed.user().getUid()).isEqualTo("other.uid");
+            assertThat(changed.uids()).containsExactly("other.cn");
+        });
+    }
+
+    @Test
+    void entries_without_uid_are_skipped() throws Exception {
+        sut.poll();
+        server.add("dn: cn=service.account,ou=Users,dc=example,dc=com", "objectClass: organizationalPerson", "objectClass: person",
+                "objectClass: top", "cn: service.account", "sn: account", "uSNChanged: 1003");
+        setChange("initials.user", "1004");
+
+        assertThat(sut.poll()).extracting(changed -> changed.user().getUid()).containsExactly("initials.user");
+        assertThat(sut.getLastChange()).isEqualTo("1004");
+    }
+
+    private void setChange(String cn, String usn) throws Exception {
+        server.modify("cn=" + cn + ",ou=Users,dc=example,dc=com", new Modification(ModificationType.REPLACE, "uSNChanged", usn));
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.core;
+
+import de.muenchen.oss.ad2image.starter.core.DirectoryLookupBatcher;
+import de.muenchen.oss.ad2image.starter.core.LookupBatchingConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.User;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DirectoryLookupBatcherTest {
+
+    private final List<List<String>> searchedBatches = new CopyOnWriteArrayList<>();
+
+    private final Function<Collection<String>, Map<String, Optional<User>>> batchLookup = uids -> {
+        searchedBatches.add(new ArrayList<>(uids));
+        Map<String, Optional<User>> result = new LinkedHashMap<>();
+        for (String uid : uids) {
+            if (uid.startsWith("known")) {
+                User user = new User();
+                user.setUid(uid);
+                result.put(uid, Optional.of(user));
+            } else if (uid.startsWith("unknown")) {
+                result.put(uid, Optional.empty());
+            }
+        }
+        return result;
+    };
+
+    @Test
+    void lookups_within_window_are_searched_together() throws Exception {
+        try (DirectoryLookupBatcher sut = new DirectoryLookupBatcher(batchLookup, props(Duration.ofMillis(200), 50))) {
+            CompletableFuture<Optional<User>> first = sut.lookup("known.user");
+            CompletableFuture<Optional<User>> second = sut.lookup("unknown.user");
+            CompletableFuture<Optional<User>> duplicate = sut.lookup("known.user");
+
+            assertThat(first.get(10, TimeUnit.SECONDS)).get().extracting(User::getUid).isEqualTo("known.user");
+            assertThat(second.get(10, TimeUnit.SECONDS)).isEmpty();
+            assertThat(duplicate).isSameAs(first);
+            assertThat(searchedBatches).containsExactly(List.of("known.user", "unknown.user"));
+            assertThat(sut.getBatchCount()).isEqualTo(1);
+            assertThat(sut.getLookupCount()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void full_batch_is_searched_without_waiting_for_window() throws Exception {
+        try (DirectoryLookupBatcher sut = new DirectoryLookupBatcher(batchLookup, props(Duration.ofHours(1), 2))) {
+            CompletableFuture<Optional<User>> first = sut.lookup("known.first");
+            CompletableFuture<Optional<User>> second = sut.lookup("known.second");
+
+            assertThat(first).isCompleted();
+            assertThat(second).isCompleted();
+            assertThat(searchedBatches).containsExactly(List.of("known.first", "known.second"));
+
+            CompletableFuture<Optional<User>> third = sut.lookup("known.third");
+            assertThat(third).isNotDone();
+            sut.close();
+            assertThat(third.get(10, TimeUnit.SECONDS)).isPresent();
+        }
+    }
+
+    @Test
+    void unresolved_uid_completes_with_null() throws Exception {
+        try (DirectoryLookupBatcher sut = new DirectoryLookupBatcher(batchLookup, props(Duration.ZERO, 50))) {
+            assertThat(sut.lookup("ambiguous.user").get(10, TimeUnit.SECONDS)).isNull();
+        }
+    }
+
+    @Test
+    void failed_search_fails_all_lookups_of_batch() {
+        IllegalStateException failure = new IllegalStateException("directory unavailable");
+        try (DirectoryLookupBatcher sut = new DirectoryLookupBatcher(uids -> {
+            throw failure;
+        }, props(Duration.ofHours(1), 2))) {
+            CompletableFuture<Optional<User>> first = sut.lookup("known.first");
+            CompletableFuture<Optional<User>> second = sut.lookup("known.second");
+
+            assertThatThrownBy(first::join).isInstanceOf(CompletionException.class).hasCause(failure);
+            assertThatThrownBy(second::join).isInstanceOf(CompletionException.class).hasCause(failure);
+        }
+    }
+
+    private static LookupBatchingConfigurationProperties props(Duration window, int maxBatchSize) {
+        LookupBatchingConfigurationProperties props = new LookupBatchingConfigurationProperties();
+        props.setEnabled(true);
+        props.setWindow(window);
+        props.setMaxBatchSize(maxBatchSize);
+        return props;
+    }
+
+}
@@ -29,6 +29,7 @@ import com.unboundid.ldap.sdk.LDAPException;
 import com.unboundid.ldif.LDIFReader;
 import de.muenchen.oss.ad2image.starter.core.AdConfigurationProperties;
 import de.muenchen.oss.ad2image.starter.core.DirectoryLookupService;
+import de.muenchen.oss.ad2image.starter.core.KnownUids;
 import de.muenchen.oss.ad2image.starter.core.User;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -38,7 +39,12 @@ import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.core.support.LdapContextSource;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -48,6 +54,8 @@ public class DirectoryLookupServiceTest {
 
     private DirectoryLookupService sut;
 
+    private KnownUids knownUids;
+
     @BeforeEach
     public void setup() {
         AdConfigurationProperties adConf = new AdConfigurationProperties();
@@ -61,7 +69,8 @@ public class DirectoryLookupServiceTest {
         source.setPassword(adConf.getPassword());
         source.afterPropertiesSet();
         LdapTemplate ldapTemplate = new LdapTemplate(source);
-        sut = new DirectoryLookupService(ldapTemplate, adConf);
+        knownUids = new KnownUids();
+        sut = new DirectoryLookupService(ldapTemplate, adConf, knownUids);
     }
 
     @BeforeAll
@@ -77,6 +86,21 @@ public class DirectoryLookupServiceTest {
         assertThat(optionalUser.get().getThumbnailPhoto()).isNotNull();
     }
 
+    @Test
+    void user_found_with_modification_time() {
+        assertThat(sut.findUserInDirectory("maxi.mustermann").get().getWhenChanged()).isEqualTo(Instant.parse("2024-03-01T12:00:00Z"));
+        assertThat(sut.findUserInDirectory("nophoto.user").get().getWhenChanged()).isNull();
+    }
+
+    @Test
+    void user_found_without_retrieving_photo() {
+        Optional<User> optionalUser = sut.findUserWithoutPhoto("maxi.mustermann");
+        assertThat(optionalUser).isPresent();
+        assertThat(optionalUser.get().getEmail()).isEqualTo("maxi.mustermann.email");
+        assertThat(optionalUser.get().getWhenChanged()).isEqualTo(Instant.parse("2024-03-01T12:00:00Z"));
+        assertThat(optionalUser.get().getThumbnailPhoto()).isNull();
+    }
+
     @Test
     void user_found_no_photo() {
         Optional<User> optionalUser = sut.findUserInDirectory("nophoto.user");
@@ -90,6 +114,86 @@ public class DirectoryLookupServiceTest {
         assertThat(optionalUser).isNotPresent();
     }
 
+    @Test
+    void batch_lookup_resolves_found_and_missing_users() {
+        Map<String, Optional<User>> users = sut.findUsersInDirectory(List.of("maxi.mustermann", "NoPhoto.User", "ham.ma.ned", "maxi.mustermann"), 2);
+
+        assertThat(users).containsOnlyKeys("maxi.mustermann", "ham.ma.ned", "NoPhoto.User");
+        assertThat(users.get("maxi.mustermann")).get().extracting(User::getEmail).isEqualTo("maxi.mustermann.email");
+        assertThat(users.get("ham.ma.ned")).isEmpty();
+        assertThat(users.get("NoPhoto.User")).get().extracting(User::getUid).isEqualTo("nophoto.user");
+    }
+
+    @Test
+    void batch_lookup_leaves_uids_without_entry_to_single_search() {
+        Map<String, Optional<User>> users = sut.findUsersInDirectory(List.of("maxi.mustermann", "ham.ma.ned"), 10);
+
+        // other entries were found, so the missing entry is not certain to be a miss
+        assertThat(users).containsOnlyKeys("maxi.mustermann");
+    }
+
+    @Test
+    void batch_lookup_matches_entries_by_search_filter_attribute() {
+        // the default search filter matches 'cn', which differs from the uid attribute of this entry
+        Map<String, Optional<User>> users = sut.findUsersInDirectory(List.of("other.cn", "maxi.mustermann"), 10);
+
+        assertThat(users).containsOnlyKeys("other.cn", "maxi.mustermann");
+        assertThat(users.get("other.cn")).get().extracting(User::getUid).isEqualTo("other.uid");
+        assertThat(sut.findUserInDirectory("other.cn")).get().extracting(User::getEmail).isEqualTo("other.cn.email");
+    }
+
+    @Test
+    void unknown_uid_is_not_searched() {
+        knownUids.update(List.of("nophoto.user"));
+
+        assertThat(sut.findUserInDirectory("maxi.mustermann")).isNotPresent();
+        assertThat(sut.findUserInDirectory("NoPhoto.User")).isPresent();
+    }
+
+    @Test
+    void concurrent_lookups_are_batched() {
+        AdConfigurationProperties adConf = new AdConfigurationProperties();
+        adConf.setUserSearchBase("ou=Users,dc=example,dc=com");
+        adConf.getLookupBatching().setEnabled(true);
+        adConf.getLookupBatching().setWindow(Duration.ofMillis(500));
+        LdapContextSource source = new LdapContextSource();
+        source.setUrl("ldap://localhost:" + server.getListenPort());
+        source.setUserDn("");
+        source.setPassword("");
+        source.afterPropertiesSet();
+        try (DirectoryLookupService batching = new DirectoryLookupService(new LdapTemplate(source), adConf, new KnownUids())) {
+            CompletableFuture<Optional<User>> found = CompletableFuture.supplyAsync(() -> batching.findUserInDirectory("maxi.mustermann"));
+            CompletableFuture<Optional<User>> notFound = CompletableFuture.supplyAsync(() -> batching.findUserInDirectory("ham.ma.ned"));
+
+            assertThat(found.join()).get().extracting(User::getEmail).isEqualTo("maxi.mustermann.email");
+            assertThat(notFound.join()).isEmpty();
+            assertThat(batching.getLookupBatcher().getBatchCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void batched_lookups_match_entries_by_search_filter_attribute() {
+        AdConfigurationProperties adConf = new AdConfigurationProperties();
+        adConf.setUserSearchBase("ou=Users,dc=example,dc=com");
+        adConf.getLookupBatching().setEnabled(true);
+        adConf.getLookupBatching().setWindow(Duration.ofMillis(500));
+        LdapContextSource source = new LdapContextSource();
+        source.setUrl("ldap://localhost:" + server.getListenPort());
+        source.setUserDn("");
+        source.setPassword("");
+        source.afterPropertiesSet();
+        try (DirectoryLookupService batching = new DirectoryLookupService(new LdapTemplate(source), adConf, new KnownUids())) {
+            // uid attribute 'uid' differs from the 'cn' compared by the search filter
+            CompletableFuture<Optional<User>> found = CompletableFuture.supplyAsync(() -> batching.findUserInDirectory("Other.Cn"));
+            CompletableFuture<Optional<User>> notFound = CompletableFuture.supplyAsync(() -> batching.findUserInDirectory("other.uid"));
+
+            assertThat(found.join()).get().extracting(User::getUid).isEqualTo("other.uid");
+            // not resolved by the batch search, as another entry was found, but by a search of its own
+            assertThat(notFound.join()).isEmpty();
+            assertThat(batching.getLookupBatcher().getBatchCount()).isEqualTo(1);
+        }
+    }
+
     public static InMemoryDirectoryServer ldapServer() throws LDAPException, IOException {
         final InMemoryListenerConfig listenerConfig = InMemoryListenerConfig.createLDAPConfig(
                 "default", 0);
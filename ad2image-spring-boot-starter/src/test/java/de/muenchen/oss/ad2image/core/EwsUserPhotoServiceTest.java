@@ -25,14 +25,20 @@ package de.muenchen.oss.ad2image.core;
 import com.github.tomakehurst.wiremock.client.WireMock;
 import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
 import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import de.muenchen.oss.ad2image.starter.core.CircuitBreaker;
+import de.muenchen.oss.ad2image.starter.core.CircuitBreakerConfigurationProperties;
 import de.muenchen.oss.ad2image.starter.core.EwsUserPhotoService;
 import de.muenchen.oss.ad2image.starter.core.ExchangeConfigurationProperties;
 import de.muenchen.oss.ad2image.starter.core.ImageSize;
 import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
-import org.springframework.boot.restclient.RestTemplateBuilder;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
 
@@ -51,8 +57,13 @@ public class EwsUserPhotoServiceTest {
         exchangeConfigurationProperties.setEwsServiceUrl(wm1.baseUrl());
         exchangeConfigurationProperties.setUsername("a");
         exchangeConfigurationProperties.setPassword("b");
-        RestTemplateBuilder restTemplateBuilder = new RestTemplateBuilder();
-        sut = new EwsUserPhotoService(exchangeConfigurationProperties, restTemplateBuilder);
+        exchangeConfigurationProperties.setResponseTimeout(Duration.ofMillis(500));
+        sut = new EwsUserPhotoService(exchangeConfigurationProperties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sut.close();
     }
 
     @Test
@@ -66,6 +77,42 @@ public class EwsUserPhotoServiceTest {
         Assertions.assertThat(userPhotoFromExchange).isNotEmpty();
     }
 
+    @Test
+    void get_encodes_email() {
+        wm1.stubFor(WireMock.get(WireMock.urlPathEqualTo("/s/GetUserPhoto"))
+                .withQueryParam("email", WireMock.equalTo("first+last&co#1@example.com"))
+                .withQueryParam("size", WireMock.equalTo("HR648x648"))
+                .willReturn(
+                        WireMock.ok().withBodyFile("account_dummy.png")));
+
+        byte[] userPhotoFromExchange = sut.getUserPhotoFromExchange("first+last&co#1@example.com", ImageSize.HR648);
+        Assertions.assertThat(userPhotoFromExchange).isNotEmpty();
+    }
+
+    @Test
+    void get_async_with_invalid_url_fails_future() {
+        ExchangeConfigurationProperties exchangeConfigurationProperties = new ExchangeConfigurationProperties();
+        exchangeConfigurationProperties.setEwsServiceUrl("http://invalid host");
+        exchangeConfigurationProperties.setUsername("a");
+        exchangeConfigurationProperties.setPassword("b");
+        try (EwsUserPhotoService service = new EwsUserPhotoService(exchangeConfigurationProperties)) {
+            CompletableFuture<byte[]> userPhoto = service.getUserPhotoFromExchangeAsync("mail@example.com", ImageSize.HR648);
+            Assertions.assertThatThrownBy(userPhoto::join).isInstanceOf(CompletionException.class)
+                    .hasCauseInstanceOf(EwsUserPhotoService.EwsUserPhotoLookupException.class);
+        }
+    }
+
+    @Test
+    void get_master_photo_uses_configured_size() {
+        wm1.stubFor(WireMock.get(WireMock.urlPathEqualTo("/s/GetUserPhoto"))
+                .withQueryParam("size", WireMock.equalTo("HR648x648"))
+                .willReturn(
+                        WireMock.ok().withBodyFile("account_dummy.png")));
+
+        Assertions.assertThat(sut.getMasterPhotoSize()).isEqualTo(ImageSize.HR648);
+        Assertions.assertThat(sut.getMasterPhoto("mail@example.com")).isNotEmpty();
+    }
+
     @Test
     void get_nok() {
         wm1.stubFor(WireMock.get(WireMock.urlPathEqualTo("/s/GetUserPhoto"))
@@ -76,4 +123,53 @@ public class EwsUserPhotoServiceTest {
             sut.getUserPhotoFromExchange("mail@example.com", ImageSize.HR648);
         });
     }
+
+    @Test
+    void get_async_ok() {
+        wm1.stubFor(WireMock.get(WireMock.urlPathEqualTo("/s/GetUserPhoto"))
+                .withHeader("Authorization", WireMock.equalTo("Basic YTpi"))
+                .willReturn(
+                        WireMock.ok().withBodyFile("account_dummy.png")));
+
+        CompletableFuture<byte[]> userPhoto = sut.getUserPhotoFromExchangeAsync("mail@example.com", ImageSize.HR648);
+        Assertions.assertThat(userPhoto.join()).isNotEmpty();
+    }
+
+    @Test
+    void get_async_nok() {
+        wm1.stubFor(WireMock.get(WireMock.urlPathEqualTo("/s/GetUserPhoto"))
+                .willReturn(WireMock.serverError()));
+
+        CompletableFuture<byte[]> userPhoto = sut.getUserPhotoFromExchangeAsync("mail@example.com", ImageSize.HR648);
+        Assertions.assertThatThrownBy(userPhoto::join).isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(EwsUserPhotoService.EwsUserPhotoLookupException.class);
+    }
+
+    @Test
+    void get_times_out() {
+        wm1.stubFor(WireMock.get(WireMock.urlPathEqualTo("/s/GetUserPhoto"))
+                .willReturn(WireMock.ok().withBodyFile("account_dummy.png").withFixedDelay(5000)));
+
+        org.junit.jupiter.api.Assertions.assertThrows(EwsUserPhotoService.EwsUserPhotoLookupException.class, () -> {
+            sut.getUserPhotoFromExchange("mail@example.com", ImageSize.HR648);
+        });
+    }
+
+    @Test
+    void open_circuit_breaker_rejects_without_request() {
+        wm1.stubFor(WireMock.get(WireMock.urlPathEqualTo("/s/GetUserPhoto"))
+                .willReturn(WireMock.serviceUnavailable()));
+        int minimumCalls = new CircuitBreakerConfigurationProperties().getMinimumCalls();
+        for (int i = 0; i < minimumCalls; i++) {
+            org.junit.jupiter.api.Assertions.assertThrows(EwsUserPhotoService.EwsUserPhotoLookupException.class, () -> {
+                sut.getUserPhotoFromExchange("mail@example.com", ImageSize.HR648);
+            });
+        }
+
+        org.junit.jupiter.api.Assertions.assertThrows(EwsUserPhotoService.ExchangeUnavailableException.class, () -> {
+            sut.getUserPhotoFromExchange("mail@example.com", ImageSize.HR648);
+        });
+        wm1.verify(minimumCalls, WireMock.getRequestedFor(WireMock.urlPathEqualTo("/s/GetUserPhoto")));
+        Assertions.assertThat(sut.getCircuitBreaker().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
 }
@@ -26,6 +26,7 @@ import com.unboundid.ldap.listener.InMemoryDirectoryServer;
 import de.muenchen.oss.ad2image.starter.core.Ad2ImageConfigurationProperties;
 import de.muenchen.oss.ad2image.starter.core.AdConfigurationProperties;
 import de.muenchen.oss.ad2image.starter.core.GravatarConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.KnownUids;
 import de.muenchen.oss.ad2image.starter.spring.GravatarHashMapService;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
@@ -41,6 +42,8 @@ class GravatarHashMapServiceTest {
 
     private static InMemoryDirectoryServer server;
     private GravatarHashMapService sut;
+    private Ad2ImageConfigurationProperties props;
+    private LdapContextSource source;
 
     @Test
     void initializes_from_ad() {
@@ -56,9 +59,20 @@ class GravatarHashMapServiceTest {
         Assertions.assertThat(sut.getUidForMd5MailHash("b2940059a05825d2873e87ddff2104ba")).isEqualTo("maxi.mustermann");
     }
 
+    @Test
+    void known_uids_are_the_uids_clients_request() {
+        KnownUids knownUids = new KnownUids();
+        new GravatarHashMapService(source, props, knownUids);
+
+        // the search filter matches 'cn', which differs from the uid attribute of this entry
+        Assertions.assertThat(knownUids.mightBeKnown("Other.Cn")).isTrue();
+        Assertions.assertThat(knownUids.mightBeKnown("maxi.mustermann")).isTrue();
+        Assertions.assertThat(knownUids.mightBeKnown("ham.ma.ned")).isFalse();
+    }
+
     @BeforeEach
     public void setup() {
-        Ad2ImageConfigurationProperties props = new Ad2ImageConfigurationProperties();
+        props = new Ad2ImageConfigurationProperties();
         AdConfigurationProperties adConf = new AdConfigurationProperties();
         adConf.setUrl("ldap://localhost:" + server.getListenPort());
         adConf.setUserDn("");
@@ -67,7 +81,7 @@ class GravatarHashMapServiceTest {
         props.setAd(adConf);
         GravatarConfigurationProperties gravatarConfigurationProperties = new GravatarConfigurationProperties();
         props.setGravatar(gravatarConfigurationProperties);
-        LdapContextSource source = new LdapContextSource();
+        source = new LdapContextSource();
         source.setUrl(adConf.getUrl());
         source.setUserDn(adConf.getUserDn());
         source.setPassword(adConf.getPassword());
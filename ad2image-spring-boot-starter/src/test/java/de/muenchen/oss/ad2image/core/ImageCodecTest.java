@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.core;
+
+import de.muenchen.oss.ad2image.starter.core.ImageCodec;
+import de.muenchen.oss.ad2image.starter.core.ImageConfigurationProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageCodecTest {
+
+    @AfterEach
+    void resetConfiguration() {
+        ImageCodec.configure(new ImageConfigurationProperties());
+    }
+
+    @Test
+    void decodes_png_and_jpeg_like_image_io() throws Exception {
+        byte[] png = StreamUtils.copyToByteArray(new ClassPathResource("account.png").getInputStream());
+        byte[] jpeg = ImageScalerTest.createPhoto(100);
+
+        for (byte[] image : List.of(png, jpeg)) {
+            BufferedImage decoded = ImageCodec.decode(image);
+            BufferedImage expected = ImageIO.read(new ByteArrayInputStream(image));
+            assertThat(decoded.getWidth()).isEqualTo(expected.getWidth());
+            assertThat(decoded.getRGB(0, 0, decoded.getWidth(), decoded.getHeight(), null, 0, decoded.getWidth()))
+                    .isEqualTo(expected.getRGB(0, 0, expected.getWidth(), expected.getHeight(), null, 0, expected.getWidth()));
+        }
+    }
+
+    @Test
+    void unsupported_format_decoded_as_null() throws IOException {
+        assertThat(ImageCodec.decode("no image".getBytes())).isNull();
+    }
+
+    @Test
+    void decodes_large_jpeg_with_subsampling() throws IOException {
+        byte[] jpeg = ImageScalerTest.createPhoto(648);
+
+        assertThat(ImageCodec.decode(jpeg, 100, 100).getWidth()).isEqualTo(108);
+        assertThat(ImageCodec.decode(jpeg, 400, 400).getWidth()).isEqualTo(648);
+    }
+
+    @Test
+    void encodes_png_with_configured_compression_level() throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(ImageScalerTest.createPhoto(200)));
+        ImageConfigurationProperties imageProps = new ImageConfigurationProperties();
+
+        imageProps.setPngCompressionLevel(0);
+        ImageCodec.configure(imageProps);
+        byte[] uncompressed = ImageCodec.encodePng(image);
+        imageProps.setPngCompressionLevel(9);
+        ImageCodec.configure(imageProps);
+        byte[] compressed = ImageCodec.encodePng(image);
+
+        assertThat(compressed.length).isLessThan(uncompressed.length);
+        assertThat(ImageCodec.decode(compressed).getRGB(10, 10)).isEqualTo(image.getRGB(10, 10));
+    }
+
+    @Test
+    void pooled_readers_and_writers_used_concurrently() throws Exception {
+        byte[] jpeg = ImageScalerTest.createPhoto(120);
+        byte[] expected = ImageCodec.encodePng(ImageCodec.decode(jpeg));
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                results.add(executor.submit(() -> ImageCodec.encodePng(ImageCodec.decode(jpeg))));
+            }
+            for (Future<byte[]> result : results) {
+                assertThat(result.get()).isEqualTo(expected);
+            }
+        }
+    }
+
+}
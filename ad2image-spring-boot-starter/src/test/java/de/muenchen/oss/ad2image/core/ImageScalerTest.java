@@ -25,14 +25,31 @@ package de.muenchen.oss.ad2image.core;
 import com.talanlabs.avatargenerator.Avatar;
 import com.talanlabs.avatargenerator.GitHubAvatar;
 import com.talanlabs.avatargenerator.IdenticonAvatar;
+import de.muenchen.oss.ad2image.starter.core.ImageConfigurationProperties;
 import de.muenchen.oss.ad2image.starter.core.ImageScaler;
+import de.muenchen.oss.ad2image.starter.core.PixelKernels;
+import de.muenchen.oss.ad2image.starter.core.Resampler;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.util.StreamUtils;
 
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class ImageScalerTest {
 
@@ -69,4 +86,123 @@ public class ImageScalerTest {
 
         Files.write(new File("target/github_256.png").toPath(), scaledImage);
     }
+
+    @ParameterizedTest
+    @EnumSource(Resampler.class)
+    void resampler_output_close_to_area_averaging(Resampler resampler) throws IOException {
+        byte[] photo = createPhoto(648);
+        byte[] placeholder = StreamUtils.copyToByteArray(new ClassPathResource("account.png").getInputStream());
+
+        for (int size : new int[] { 48, 100, 1024 }) {
+            assertThat(meanDifference(ImageScaler.scaleImage(photo, size, size, resampler),
+                    ImageScaler.scaleImage(photo, size, size, Resampler.AREA_AVERAGING))).as("photo %d px", size).isLessThan(2.0);
+            assertThat(meanDifference(ImageScaler.scaleImage(placeholder, size, size, resampler),
+                    ImageScaler.scaleImage(placeholder, size, size, Resampler.AREA_AVERAGING))).as("placeholder %d px", size).isLessThan(2.0);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Resampler.class)
+    void resampler_keeps_color_of_semi_transparent_image(Resampler resampler) {
+        int[] pixels = new int[100 * 60];
+        Arrays.fill(pixels, 0x80336699);
+
+        int[] scaled = resampler.resample(pixels, 100, 60, 17, 9);
+
+        // premultiplied filtering may be off by one
+        assertThat(scaled).hasSize(17 * 9);
+        assertThat(Arrays.stream(scaled).boxed()).allSatisfy(pixel -> {
+            assertThat(pixel >>> 24).isEqualTo(0x80);
+            assertThat((pixel >> 16) & 0xff).isBetween(0x32, 0x34);
+            assertThat((pixel >> 8) & 0xff).isBetween(0x65, 0x67);
+            assertThat(pixel & 0xff).isBetween(0x98, 0x9a);
+        });
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Resampler.class, names = "AREA_AVERAGING", mode = EnumSource.Mode.EXCLUDE)
+    void vector_kernels_produce_same_pixels_as_scalar_kernels(Resampler resampler) throws IOException {
+        assumeTrue(PixelKernels.vector() != null, "jdk.incubator.vector not available");
+        int[] photo = ImageIO.read(new ByteArrayInputStream(createPhoto(97))).getRGB(0, 0, 97, 97, null, 0, 97);
+        int[] random = new Random(42).ints(61 * 43).toArray();
+
+        for (int size : new int[] { 5, 24, 48, 61, 130 }) {
+            assertThat(resampler.resample(photo.clone(), 97, 97, size, size, PixelKernels.vector()))
+                    .as("photo %d px", size).isEqualTo(resampler.resample(photo.clone(), 97, 97, size, size, PixelKernels.scalar()));
+            assertThat(resampler.resample(random.clone(), 61, 43, size, size / 2 + 1, PixelKernels.vector()))
+                    .as("random %d px", size).isEqualTo(resampler.resample(random.clone(), 61, 43, size, size / 2 + 1, PixelKernels.scalar()));
+        }
+    }
+
+    @Test
+    void subsampled_decode_close_to_full_decode() throws IOException {
+        byte[] photo = createPhoto(648);
+        ImageConfigurationProperties fullDecode = new ImageConfigurationProperties();
+        fullDecode.setSubsampledDecode(false);
+
+        for (int size : new int[] { 48, 96, 128, 200 }) {
+            byte[] subsampled = ImageScaler.scaleImage(photo, size, size);
+            byte[] full;
+            try {
+                ImageScaler.configure(fullDecode);
+                full = ImageScaler.scaleImage(photo, size, size);
+            } finally {
+                ImageScaler.configure(new ImageConfigurationProperties());
+            }
+            assertThat(meanDifference(subsampled, full)).as("%d px", size).isLessThan(2.0);
+        }
+    }
+
+    /**
+     * Creates a JPEG resembling a photo, with smooth gradients, hard edges and sensor noise.
+     */
+    static byte[] createPhoto(int size) throws IOException {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setPaint(new GradientPaint(0, 0, new Color(40, 70, 120), size, size, new Color(200, 190, 170)));
+        g2d.fillRect(0, 0, size, size);
+        g2d.setColor(new Color(225, 180, 150));
+        g2d.fillOval(size / 4, size / 6, size / 2, size * 2 / 3);
+        g2d.setColor(new Color(30, 30, 30));
+        g2d.fillRect(size / 3, size * 5 / 6, size / 3, size / 6);
+        g2d.dispose();
+        Random random = new Random(42);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int noise = random.nextInt(9) - 4;
+                Color color = new Color(image.getRGB(x, y));
+                image.setRGB(x, y, new Color(clamp(color.getRed() + noise), clamp(color.getGreen() + noise), clamp(color.getBlue() + noise)).getRGB());
+            }
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", baos);
+        return baos.toByteArray();
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    /**
+     * Mean absolute difference of the premultiplied channels of two images of the same size.
+     */
+    private static double meanDifference(byte[] png1, byte[] png2) throws IOException {
+        BufferedImage image1 = ImageIO.read(new ByteArrayInputStream(png1));
+        BufferedImage image2 = ImageIO.read(new ByteArrayInputStream(png2));
+        long sum = 0;
+        for (int y = 0; y < image1.getHeight(); y++) {
+            for (int x = 0; x < image1.getWidth(); x++) {
+                int p1 = image1.getRGB(x, y);
+                int p2 = image2.getRGB(x, y);
+                int a1 = p1 >>> 24;
+                int a2 = p2 >>> 24;
+                sum += Math.abs(a1 - a2);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    sum += Math.abs(((p1 >> shift) & 0xff) * a1 / 255 - ((p2 >> shift) & 0xff) * a2 / 255);
+                }
+            }
+        }
+        return (double) sum / (image1.getWidth() * image1.getHeight() * 4);
+    }
+
 }
@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.core;
+
+import de.muenchen.oss.ad2image.starter.core.KnownUids;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KnownUidsTest {
+
+    @Test
+    void every_uid_might_be_known_before_population() {
+        KnownUids knownUids = new KnownUids();
+
+        assertThat(knownUids.isPopulated()).isFalse();
+        assertThat(knownUids.mightBeKnown("service.account")).isTrue();
+    }
+
+    @Test
+    void enumerated_uids_are_known_case_insensitive() {
+        KnownUids knownUids = new KnownUids();
+        List<String> uids = IntStream.range(0, 10000).mapToObj(i -> "user." + i).toList();
+        knownUids.update(uids);
+
+        assertThat(uids).allMatch(knownUids::mightBeKnown);
+        assertThat(knownUids.mightBeKnown("USER.42")).isTrue();
+        long falsePositives = IntStream.range(0, 10000).mapToObj(i -> "external." + i).filter(knownUids::mightBeKnown).count();
+        assertThat(falsePositives).isLessThan(300);
+        assertThat(knownUids.getRejectedLookupCount()).isEqualTo(10000 - falsePositives);
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.core;
+
+import de.muenchen.oss.ad2image.starter.core.MappedByteStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MappedByteStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void latest_value_wins() throws IOException {
+        try (MappedByteStore store = new MappedByteStore(dir.resolve("test.dat"), 4096)) {
+            store.put("a", new byte[] { 1 });
+            store.put("a", new byte[] { 2, 3 });
+
+            assertThat(store.get("a").value()).containsExactly(2, 3);
+            assertThat(store.get("b")).isNull();
+        }
+    }
+
+    @Test
+    void reopen_after_close_uses_index() throws IOException {
+        Path dataFile = dir.resolve("test.dat");
+        try (MappedByteStore store = new MappedByteStore(dataFile, 4096)) {
+            store.put("a", new byte[] { 1 });
+            store.put("b", new byte[] { 2 });
+        }
+        assertThat(dir.resolve("test.dat.idx")).exists();
+
+        try (MappedByteStore store = new MappedByteStore(dataFile, 4096)) {
+            assertThat(store.size()).isEqualTo(2);
+            assertThat(store.get("b").value()).containsExactly(2);
+            // index is dropped on open, it would be outdated after the next write
+            assertThat(dir.resolve("test.dat.idx")).doesNotExist();
+        }
+    }
+
+    @Test
+    void reopen_without_index_scans_data_file() throws IOException {
+        Path dataFile = dir.resolve("test.dat");
+        try (MappedByteStore store = new MappedByteStore(dataFile, 4096)) {
+            store.put("a", new byte[] { 1 });
+            store.put("a", new byte[] { 3 });
+            store.put("b", new byte[] { 2 });
+        }
+        Files.delete(dir.resolve("test.dat.idx"));
+
+        try (MappedByteStore store = new MappedByteStore(dataFile, 4096)) {
+            assertThat(store.size()).isEqualTo(2);
+            assertThat(store.get("a").value()).containsExactly(3);
+            assertThat(store.get("b").value()).containsExactly(2);
+        }
+    }
+
+    @Test
+    void removed_keys_stay_removed_after_scan() throws IOException {
+        Path dataFile = dir.resolve("test.dat");
+        try (MappedByteStore store = new MappedByteStore(dataFile, 4096)) {
+            store.put("avatar:a", new byte[] { 1 });
+            store.put("avatar:b", new byte[] { 2 });
+            store.put("photo:a", new byte[] { 3 });
+
+            assertThat(store.removeIf(key -> key.startsWith("avatar:"))).isEqualTo(2);
+            assertThat(store.get("avatar:a")).isNull();
+        }
+        Files.delete(dir.resolve("test.dat.idx"));
+
+        try (MappedByteStore store = new MappedByteStore(dataFile, 4096)) {
+            assertThat(store.size()).isEqualTo(1);
+            assertThat(store.get("avatar:b")).isNull();
+            assertThat(store.get("photo:a").value()).containsExactly(3);
+        }
+    }
+
+    @Test
+    void locked_store_cannot_be_opened_twice() throws IOException {
+        Path dataFile = dir.resolve("test.dat");
+        try (MappedByteStore store = new MappedByteStore(dataFile, 4096)) {
+            store.put("a", new byte[] { 1 });
+
+            assertThatThrownBy(() -> new MappedByteStore(dataFile, 4096)).isInstanceOf(IOException.class).hasMessageContaining("locked");
+        }
+
+        try (MappedByteStore store = new MappedByteStore(dataFile, 4096)) {
+            assertThat(store.get("a").value()).containsExactly(1);
+        }
+    }
+
+    @Test
+    void full_store_is_compacted_to_newest_entries() throws IOException {
+        try (MappedByteStore store = new MappedByteStore(dir.resolve("test.dat"), 4096)) {
+            for (int i = 0; i < 100; i++) {
+                store.put("key" + i, new byte[100]);
+            }
+
+            assertThat(store.get("key99")).isNotNull();
+            assertThat(store.get("key0")).isNull();
+            assertThat(store.size()).isLessThan(32);
+        }
+    }
+
+}
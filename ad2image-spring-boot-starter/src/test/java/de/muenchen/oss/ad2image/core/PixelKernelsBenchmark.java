@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.core;
+
+import de.muenchen.oss.ad2image.starter.core.PixelKernels;
+import de.muenchen.oss.ad2image.starter.core.Resampler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the scalar and the Vector API {@link PixelKernels} when scaling a 648x648 px Exchange
+ * photo. Run {@link #main(String[])} from the test classpath on the target hardware. Both produce
+ * the same pixels (checked by {@link ImageScalerTest}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class PixelKernelsBenchmark {
+
+    @Param({ "scalar", "vector" })
+    private String kernels;
+
+    @Param({ "BILINEAR", "BICUBIC", "LANCZOS" })
+    private Resampler resampler;
+
+    @Param({ "48", "256" })
+    private int size;
+
+    private PixelKernels pixelKernels;
+
+    private int[] photoPixels;
+
+    @Setup
+    public void setUp() throws IOException {
+        pixelKernels = "vector".equals(kernels) ? PixelKernels.vector() : PixelKernels.scalar();
+        if (pixelKernels == null) {
+            throw new IllegalStateException("jdk.incubator.vector not available");
+        }
+        photoPixels = ImageIO.read(new ByteArrayInputStream(ImageScalerTest.createPhoto(648))).getRGB(0, 0, 648, 648, null, 0, 648);
+    }
+
+    @Benchmark
+    public int[] resamplePhoto() {
+        return resampler.resample(photoPixels.clone(), 648, 648, size, size, pixelKernels);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PixelKernelsBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.core;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import de.muenchen.oss.ad2image.starter.core.AdConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.DirectoryLookupService;
+import de.muenchen.oss.ad2image.starter.core.KnownUids;
+import de.muenchen.oss.ad2image.starter.core.LdapPoolConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.PooledLdapContextSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.support.LdapContextSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PooledLdapContextSourceTest {
+
+    private InMemoryDirectoryServer server;
+
+    private PooledLdapContextSource sut;
+
+    private DirectoryLookupService directoryLookupService;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        server = DirectoryLookupServiceTest.ldapServer();
+        AdConfigurationProperties adConf = new AdConfigurationProperties();
+        adConf.setUrl("ldap://localhost:" + server.getListenPort());
+        adConf.setUserSearchBase("ou=Users,dc=example,dc=com");
+        LdapContextSource source = new LdapContextSource();
+        source.setUrl(adConf.getUrl());
+        source.setUserDn("");
+        source.setPassword("");
+        source.afterPropertiesSet();
+        sut = new PooledLdapContextSource(source, new LdapPoolConfigurationProperties());
+        directoryLookupService = new DirectoryLookupService(new LdapTemplate(sut), adConf, new KnownUids());
+    }
+
+    @AfterEach
+    public void shutdown() throws Exception {
+        sut.destroy();
+        server.shutDown(true);
+    }
+
+    @Test
+    void lookups_reuse_pooled_connection() {
+        for (int i = 0; i < 5; i++) {
+            assertThat(directoryLookupService.findUserInDirectory("maxi.mustermann")).isPresent();
+        }
+
+        assertThat(sut.getCreatedCount()).isEqualTo(1);
+        assertThat(sut.getBorrowedCount()).isEqualTo(5);
+        assertThat(sut.getNumActive()).isZero();
+        assertThat(sut.getNumIdle()).isEqualTo(1);
+    }
+
+    @Test
+    void closed_connection_is_replaced_on_borrow() {
+        assertThat(directoryLookupService.findUserInDirectory("maxi.mustermann")).isPresent();
+
+        server.closeAllConnections(false);
+
+        assertThat(directoryLookupService.findUserInDirectory("maxi.mustermann")).isPresent();
+        assertThat(sut.getCreatedCount()).isEqualTo(2);
+        assertThat(sut.getDestroyedCount()).isEqualTo(1);
+    }
+
+}
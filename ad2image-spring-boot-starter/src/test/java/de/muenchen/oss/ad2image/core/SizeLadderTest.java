@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.core;
+
+import de.muenchen.oss.ad2image.starter.core.SizeLadder;
+import de.muenchen.oss.ad2image.starter.core.SizeLadderConfigurationProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SizeLadderTest {
+
+    @Test
+    void snaps_up_to_next_step() {
+        SizeLadder sizeLadder = new SizeLadder(props(true, List.of(64, 16, 32, 32)));
+
+        assertThat(sizeLadder.getSteps()).containsExactly(16, 32, 64);
+        assertThat(sizeLadder.snap(1)).isEqualTo(16);
+        assertThat(sizeLadder.snap(16)).isEqualTo(16);
+        assertThat(sizeLadder.snap(17)).isEqualTo(32);
+        assertThat(sizeLadder.snap(64)).isEqualTo(64);
+    }
+
+    @Test
+    void sizes_above_largest_step_are_kept() {
+        SizeLadder sizeLadder = new SizeLadder(props(true, List.of(16, 32, 64)));
+
+        assertThat(sizeLadder.snap(65)).isEqualTo(65);
+        assertThat(sizeLadder.snap(2048)).isEqualTo(2048);
+    }
+
+    @Test
+    void disabled_ladder_keeps_size() {
+        SizeLadder sizeLadder = new SizeLadder(props(false, List.of(16, 32, 64)));
+
+        assertThat(sizeLadder.snap(17)).isEqualTo(17);
+    }
+
+    private static SizeLadderConfigurationProperties props(boolean enabled, List<Integer> steps) {
+        SizeLadderConfigurationProperties props = new SizeLadderConfigurationProperties();
+        props.setEnabled(enabled);
+        props.setSteps(steps);
+        return props;
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.core;
+
+import de.muenchen.oss.ad2image.starter.core.SpriteSheet;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpriteSheetTest {
+
+    @Test
+    void avatars_are_placed_row_by_row() throws IOException {
+        byte[] avatar = StreamUtils.copyToByteArray(new ClassPathResource("account.png").getInputStream());
+        Map<String, byte[]> avatars = new LinkedHashMap<>();
+        avatars.put("a", avatar);
+        avatars.put("broken", new byte[] { 1, 2, 3 });
+        avatars.put("b", avatar);
+        avatars.put("c", avatar);
+
+        SpriteSheet sprite = SpriteSheet.compose(avatars, 32);
+
+        assertThat(sprite.layout().columns()).isEqualTo(2);
+        assertThat(sprite.layout().tiles()).containsExactly(
+                Map.entry("a", new SpriteSheet.Tile(0, 0)),
+                Map.entry("b", new SpriteSheet.Tile(32, 0)),
+                Map.entry("c", new SpriteSheet.Tile(0, 32)));
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(sprite.image().data()));
+        assertThat(image.getWidth()).isEqualTo(64).isEqualTo(sprite.layout().width());
+        assertThat(image.getHeight()).isEqualTo(64).isEqualTo(sprite.layout().height());
+        assertThat(sprite.layout().version()).isEqualTo(sprite.image().etag());
+    }
+
+    @Test
+    void max_pixels_cover_the_whole_grid() {
+        assertThat(SpriteSheet.maxPixels(0, 32)).isZero();
+        assertThat(SpriteSheet.maxPixels(3, 32)).isEqualTo(4 * 32 * 32);
+        assertThat(SpriteSheet.maxPixels(300, 2048)).isEqualTo(18L * 17 * 2048 * 2048);
+    }
+
+    @Test
+    void no_avatars_no_sprite() throws IOException {
+        assertThat(SpriteSheet.compose(Map.of(), 32)).isNull();
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.core;
+
+import de.muenchen.oss.ad2image.starter.core.CacheConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.CacheNames;
+import de.muenchen.oss.ad2image.starter.core.TieredCacheManagerFactory;
+import org.ehcache.config.ResourcePools;
+import org.ehcache.config.ResourceType;
+import org.ehcache.config.units.MemoryUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import jakarta.validation.Validation;
+import jakarta.validation.ValidatorFactory;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TieredCacheManagerFactoryTest {
+
+    @TempDir
+    Path diskPath;
+
+    @Test
+    void creates_all_caches_with_configured_tiers() {
+        CacheConfigurationProperties cacheProps = new CacheConfigurationProperties();
+        cacheProps.setDiskPath(diskPath.toString());
+        cacheProps.getAvatars().setOffHeap(DataSize.ofMegabytes(2));
+        cacheProps.getAvatars().setDisk(DataSize.ofMegabytes(8));
+
+        try (CacheManager cacheManager = TieredCacheManagerFactory.createCacheManager(cacheProps)) {
+            assertThat(cacheManager.getCacheNames()).containsExactlyInAnyOrder(CacheNames.AVATARS, CacheNames.DIRECTORY_ENTRIES, CacheNames.DIRECTORY_MISSES,
+                    CacheNames.EXCHANGE_PHOTOS, CacheNames.AVATAR_SPRITES);
+
+            Cache<Object, Object> avatars = cacheManager.getCache(CacheNames.AVATARS);
+            ResourcePools resourcePools = avatars.unwrap(org.ehcache.Cache.class).getRuntimeConfiguration().getResourcePools();
+            assertThat(resourcePools.getPoolForResource(ResourceType.Core.OFFHEAP).getSize()).isEqualTo(MemoryUnit.MB.toBytes(2));
+            assertThat(resourcePools.getPoolForResource(ResourceType.Core.DISK).getSize()).isEqualTo(MemoryUnit.MB.toBytes(8));
+            assertThat(resourcePools.getPoolForResource(ResourceType.Core.DISK).isPersistent()).isFalse();
+
+            avatars.put("key", new byte[] { 1, 2, 3 });
+            assertThat(avatars.get("key")).isEqualTo(new byte[] { 1, 2, 3 });
+        }
+    }
+
+    @Test
+    void cache_managers_sharing_disk_path_use_own_directories() {
+        CacheConfigurationProperties cacheProps = new CacheConfigurationProperties();
+        cacheProps.setDiskPath(diskPath.toString());
+        cacheProps.getAvatars().setOffHeap(DataSize.ofMegabytes(1));
+        cacheProps.getAvatars().setDisk(DataSize.ofMegabytes(2));
+
+        try (CacheManager first = TieredCacheManagerFactory.createCacheManager(cacheProps);
+                CacheManager second = TieredCacheManagerFactory.createCacheManager(cacheProps)) {
+            first.getCache(CacheNames.AVATARS).put("key", new byte[] { 1 });
+            second.getCache(CacheNames.AVATARS).put("key", new byte[] { 2 });
+
+            assertThat(first.getCache(CacheNames.AVATARS).get("key")).isEqualTo(new byte[] { 1 });
+            assertThat(diskPath.toFile().list()).hasSize(2);
+        }
+    }
+
+    @Test
+    void disk_directory_is_deleted_on_close() {
+        CacheConfigurationProperties cacheProps = new CacheConfigurationProperties();
+        cacheProps.setDiskPath(diskPath.toString());
+        cacheProps.getAvatars().setOffHeap(DataSize.ofMegabytes(1));
+        cacheProps.getAvatars().setDisk(DataSize.ofMegabytes(2));
+
+        CacheManager cacheManager = TieredCacheManagerFactory.createCacheManager(cacheProps);
+        cacheManager.getCache(CacheNames.AVATARS).put("key", new byte[] { 1 });
+        assertThat(diskPath.toFile().list()).hasSize(1);
+
+        cacheManager.close();
+        assertThat(diskPath.toFile().list()).isEmpty();
+    }
+
+    @Test
+    void disk_tier_not_larger_than_off_heap_tier_is_rejected() {
+        CacheConfigurationProperties cacheProps = new CacheConfigurationProperties();
+        cacheProps.getAvatars().setOffHeap(DataSize.ofMegabytes(64));
+        cacheProps.getAvatars().setDisk(DataSize.ofMegabytes(64));
+
+        try (ValidatorFactory validatorFactory = Validation.buildDefaultValidatorFactory()) {
+            assertThat(validatorFactory.getValidator().validate(cacheProps)).extracting(violation -> violation.getPropertyPath().toString())
+                    .containsExactly("avatars.diskLargerThanOffHeap");
+        }
+        assertThatThrownBy(() -> TieredCacheManagerFactory.createCacheManager(cacheProps)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
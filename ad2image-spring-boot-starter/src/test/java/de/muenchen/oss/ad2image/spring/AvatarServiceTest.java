@@ -23,15 +23,43 @@
 package de.muenchen.oss.ad2image.spring;
 
 import de.muenchen.oss.ad2image.starter.core.AvatarGenerator;
+import de.muenchen.oss.ad2image.starter.core.AvatarImage;
+import de.muenchen.oss.ad2image.starter.core.BackgroundRefresher;
+import de.muenchen.oss.ad2image.starter.core.CacheNames;
+import de.muenchen.oss.ad2image.starter.core.CircuitBreakerConfigurationProperties.PhotoFallback;
 import de.muenchen.oss.ad2image.starter.core.DirectoryLookupService;
 import de.muenchen.oss.ad2image.starter.core.EwsUserPhotoService;
+import de.muenchen.oss.ad2image.starter.core.ImageSize;
 import de.muenchen.oss.ad2image.starter.core.Mode;
+import de.muenchen.oss.ad2image.starter.core.User;
 import de.muenchen.oss.ad2image.starter.spring.AvatarService;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.core.io.ClassPathResource;
+
+import javax.imageio.ImageIO;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
 
 @ExtendWith(MockitoExtension.class)
 public class AvatarServiceTest {
@@ -52,4 +80,282 @@ public class AvatarServiceTest {
     void test() {
         sut.get("firstname.lastname", Mode.M_FALLBACK_GENERIC, 64);
     }
+
+    @Test
+    void concurrent_misses_are_coalesced() throws Exception {
+        byte[] avatar = new byte[] { 1, 2, 3 };
+        CountDownLatch lookupStarted = new CountDownLatch(1);
+        CountDownLatch releaseLookup = new CountDownLatch(1);
+        Mockito.when(directoryLookupService.findUserInDirectory("firstname.lastname")).thenAnswer(invocation -> {
+            lookupStarted.countDown();
+            releaseLookup.await(10, TimeUnit.SECONDS);
+            return Optional.empty();
+        });
+        Mockito.when(avatarGenerator.generateAvatar("firstname.lastname", AvatarGenerator.AvatarType.GENERIC, 64)).thenReturn(avatar);
+
+        int callers = 5;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            results.add(executor.submit(() -> sut.get("firstname.lastname", Mode.M_FALLBACK_GENERIC, 64)));
+            lookupStarted.await(10, TimeUnit.SECONDS);
+            for (int i = 1; i < callers; i++) {
+                results.add(executor.submit(() -> sut.get("firstname.lastname", Mode.M_FALLBACK_GENERIC, 64)));
+            }
+            await().atMost(10, TimeUnit.SECONDS).until(() -> sut.getCoalescedRequestCount() == callers - 1);
+            releaseLookup.countDown();
+
+            for (Future<byte[]> result : results) {
+                assertThat(result.get(10, TimeUnit.SECONDS)).isEqualTo(avatar);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Mockito.verify(directoryLookupService, Mockito.times(1)).findUserInDirectory("firstname.lastname");
+        assertThat(sut.getCoalescedRequestCount()).isEqualTo(callers - 1);
+    }
+
+    @Test
+    void stale_avatar_is_served_and_refreshed_in_background() {
+        byte[] staleAvatar = new byte[] { 1 };
+        byte[] freshAvatar = new byte[] { 2 };
+        Mockito.when(directoryLookupService.findUserInDirectory("firstname.lastname")).thenReturn(Optional.empty());
+        Mockito.when(avatarGenerator.generateAvatar("firstname.lastname", AvatarGenerator.AvatarType.GENERIC, 64)).thenReturn(staleAvatar,
+                freshAvatar);
+        try (BackgroundRefresher refresher = new BackgroundRefresher("test-refresh-", 1, 10)) {
+            AvatarService service = AvatarService.builder(avatarGenerator, directoryLookupService, ewsUserPhotoService)
+                    .avatarCache(new ConcurrentMapCache(CacheNames.AVATARS))
+                    .avatarRefresher(refresher, Duration.ZERO)
+                    .build();
+
+            assertThat(service.get("firstname.lastname", Mode.M_FALLBACK_GENERIC, 64)).isEqualTo(staleAvatar);
+            await().atMost(10, TimeUnit.SECONDS).untilAsserted(() -> {
+                // served from cache, although past the soft TTL
+                assertThat(service.get("firstname.lastname", Mode.M_FALLBACK_GENERIC, 64)).isEqualTo(freshAvatar);
+            });
+            assertThat(service.getStaleHitCount()).isPositive();
+        }
+    }
+
+    @Test
+    void evict_removes_cached_avatars_in_all_modes_and_sizes() {
+        Mockito.when(directoryLookupService.findUserInDirectory("firstname.lastname")).thenReturn(Optional.empty());
+        Mockito.when(avatarGenerator.generateAvatar(Mockito.eq("firstname.lastname"), Mockito.any(), Mockito.anyInt())).thenReturn(new byte[] { 1 });
+        AvatarService service = AvatarService.builder(avatarGenerator, directoryLookupService, ewsUserPhotoService)
+                .avatarCache(new ConcurrentMapCache(CacheNames.AVATARS))
+                .build();
+        service.get("firstname.lastname", Mode.M_FALLBACK_GENERIC, 64);
+        service.get("firstname.lastname", Mode.M_FALLBACK_IDENTICON, 128);
+
+        service.evict("firstname.lastname", null);
+        service.get("firstname.lastname", Mode.M_FALLBACK_GENERIC, 64);
+        service.get("firstname.lastname", Mode.M_FALLBACK_IDENTICON, 128);
+
+        Mockito.verify(avatarGenerator, Mockito.times(2)).generateAvatar("firstname.lastname", AvatarGenerator.AvatarType.GENERIC, 64);
+        Mockito.verify(avatarGenerator, Mockito.times(2)).generateAvatar("firstname.lastname", AvatarGenerator.AvatarType.IDENTICON, 128);
+    }
+
+    @Test
+    void avatar_carries_modification_time_of_directory_entry() {
+        User user = new User();
+        user.setUid("firstname.lastname");
+        user.setWhenChanged(Instant.parse("2024-03-01T12:00:00Z"));
+        Mockito.when(directoryLookupService.findUserInDirectory("firstname.lastname")).thenReturn(Optional.of(user));
+        Mockito.when(avatarGenerator.generateAvatar(Mockito.eq("firstname.lastname"), Mockito.any(), Mockito.anyInt())).thenReturn(new byte[] { 1 });
+        AvatarService service = new AvatarService(avatarGenerator, directoryLookupService, ewsUserPhotoService);
+
+        assertThat(service.getImage("firstname.lastname", Mode.M_GENERIC, 64).lastModified()).isEqualTo(Instant.parse("2024-03-01T12:00:00Z"));
+        Mockito.verify(directoryLookupService, Mockito.never()).findUserWithoutPhoto(Mockito.anyString());
+    }
+
+    @Test
+    void evict_ignores_the_case_of_the_uid() {
+        Mockito.when(directoryLookupService.findUserInDirectory(Mockito.anyString())).thenReturn(Optional.empty());
+        Mockito.when(avatarGenerator.generateAvatar(Mockito.anyString(), Mockito.any(), Mockito.anyInt())).thenReturn(new byte[] { 1 });
+        AvatarService service = AvatarService.builder(avatarGenerator, directoryLookupService, ewsUserPhotoService)
+                .avatarCache(new ConcurrentMapCache(CacheNames.AVATARS))
+                .build();
+        service.get("Firstname.Lastname", Mode.M_FALLBACK_GENERIC, 64);
+        service.get("firstname.lastname", Mode.M_FALLBACK_GENERIC, 64);
+
+        service.evict("FIRSTNAME.LASTNAME", null);
+        service.get("Firstname.Lastname", Mode.M_FALLBACK_GENERIC, 64);
+
+        // rendered with the uid as requested, only the cache key is normalized
+        Mockito.verify(avatarGenerator, Mockito.times(2)).generateAvatar("Firstname.Lastname", AvatarGenerator.AvatarType.GENERIC, 64);
+        Mockito.verify(avatarGenerator, Mockito.never()).generateAvatar("firstname.lastname", AvatarGenerator.AvatarType.GENERIC, 64);
+    }
+
+    @Test
+    void evicted_avatars_stay_evicted_when_generations_are_dropped() {
+        Mockito.when(directoryLookupService.findUserInDirectory("firstname.lastname")).thenReturn(Optional.empty());
+        Mockito.when(avatarGenerator.generateAvatar(Mockito.eq("firstname.lastname"), Mockito.any(), Mockito.anyInt())).thenReturn(new byte[] { 1 });
+        AvatarService service = AvatarService.builder(avatarGenerator, directoryLookupService, ewsUserPhotoService)
+                .avatarCache(new ConcurrentMapCache(CacheNames.AVATARS))
+                .build();
+        service.get("firstname.lastname", Mode.M_FALLBACK_GENERIC, 64);
+
+        service.evict("firstname.lastname", null);
+        // more evicted users than generations are tracked, the oldest ones are dropped
+        for (int i = 0; i <= 10_000; i++) {
+            service.evict("user" + i, null);
+        }
+        service.get("firstname.lastname", Mode.M_FALLBACK_GENERIC, 64);
+        service.get("firstname.lastname", Mode.M_FALLBACK_GENERIC, 64);
+
+        Mockito.verify(avatarGenerator, Mockito.times(2)).generateAvatar("firstname.lastname", AvatarGenerator.AvatarType.GENERIC, 64);
+    }
+
+    @Test
+    void resized_avatars_are_cached_per_version_and_size() throws Exception {
+        AvatarService service = AvatarService.builder(avatarGenerator, directoryLookupService, ewsUserPhotoService)
+                .avatarCache(new ConcurrentMapCache(CacheNames.AVATARS))
+                .build();
+        AvatarImage image = AvatarImage.of(new ClassPathResource("account.png").getContentAsByteArray(), Instant.now());
+
+        AvatarImage resized = service.resize(image, 50);
+
+        assertThat(ImageIO.read(new ByteArrayInputStream(resized.data())).getWidth()).isEqualTo(50);
+        assertThat(resized.etag()).isEqualTo(image.etag() + "-50");
+        assertThat(resized.renderedAt()).isEqualTo(image.renderedAt());
+        assertThat(service.resize(image, 50)).isSameAs(resized);
+        assertThat(service.resize(image, 40)).isNotSameAs(resized);
+    }
+
+    @Test
+    void large_avatar_falls_back_to_thumbnail_if_exchange_fails() throws Exception {
+        User user = new User();
+        user.setUid("firstname.lastname");
+        user.setEmail("firstname.lastname@example.com");
+        user.setThumbnailPhoto(new ClassPathResource("account.png").getContentAsByteArray());
+        Mockito.when(directoryLookupService.findUserInDirectory("firstname.lastname")).thenReturn(Optional.of(user));
+        Mockito.when(ewsUserPhotoService.getMasterPhotoSize()).thenReturn(ImageSize.HR648);
+        Mockito.when(ewsUserPhotoService.getMasterPhoto("firstname.lastname@example.com"))
+                .thenThrow(new EwsUserPhotoService.ExchangeUnavailableException("circuit breaker open"));
+        AvatarService service = AvatarService.builder(avatarGenerator, directoryLookupService, ewsUserPhotoService)
+                .avatarCache(new ConcurrentMapCache(CacheNames.AVATARS))
+                .photoFallback(PhotoFallback.THUMBNAIL)
+                .build();
+
+        AvatarImage avatar = service.getImage("firstname.lastname", Mode.M_FALLBACK_GENERIC, 128);
+        service.get("firstname.lastname", Mode.M_FALLBACK_GENERIC, 128);
+
+        assertThat(ImageIO.read(new ByteArrayInputStream(avatar.data())).getWidth()).isEqualTo(128);
+        assertThat(avatar.degraded()).isTrue();
+        assertThat(service.getDegradedAvatarCount()).isEqualTo(2);
+        // degraded avatars are not cached
+        Mockito.verify(ewsUserPhotoService, Mockito.times(2)).getMasterPhoto("firstname.lastname@example.com");
+    }
+
+    @Test
+    void large_avatar_fails_without_fallback() {
+        User user = new User();
+        user.setUid("firstname.lastname");
+        user.setEmail("firstname.lastname@example.com");
+        user.setThumbnailPhoto(new byte[] { 1 });
+        Mockito.when(directoryLookupService.findUserInDirectory("firstname.lastname")).thenReturn(Optional.of(user));
+        Mockito.when(ewsUserPhotoService.getMasterPhotoSize()).thenReturn(ImageSize.HR648);
+        Mockito.when(ewsUserPhotoService.getMasterPhoto("firstname.lastname@example.com"))
+                .thenThrow(new EwsUserPhotoService.EwsUserPhotoLookupException("failed"));
+        AvatarService service = AvatarService.builder(avatarGenerator, directoryLookupService, ewsUserPhotoService)
+                .photoFallback(PhotoFallback.NONE)
+                .build();
+
+        assertThatThrownBy(() -> service.get("firstname.lastname", Mode.M_FALLBACK_GENERIC, 128))
+                .isInstanceOf(EwsUserPhotoService.EwsUserPhotoLookupException.class);
+    }
+
+    @Test
+    void large_avatar_uses_speculatively_fetched_photo() throws Exception {
+        byte[] photo = new ClassPathResource("account.png").getContentAsByteArray();
+        User user = new User();
+        user.setUid("firstname.lastname");
+        user.setEmail("Firstname.Lastname@example.com");
+        user.setThumbnailPhoto(photo);
+        Mockito.when(ewsUserPhotoService.getMasterPhotoSize()).thenReturn(ImageSize.HR648);
+        Mockito.when(ewsUserPhotoService.getUserPhotoFromExchangeAsync("firstname.lastname@example.com", ImageSize.HR648))
+                .thenReturn(CompletableFuture.completedFuture(photo));
+        Mockito.when(directoryLookupService.findUserInDirectory("firstname.lastname")).thenReturn(Optional.of(user));
+
+        AvatarService.SpeculativePhotoFetch speculativePhoto = sut.fetchPhotoSpeculatively("firstname.lastname", Mode.M_FALLBACK_GENERIC, 128,
+                "firstname.lastname@example.com");
+        byte[] avatar = sut.getImage("firstname.lastname", Mode.M_FALLBACK_GENERIC, 128, speculativePhoto).data();
+
+        assertThat(ImageIO.read(new ByteArrayInputStream(avatar)).getWidth()).isEqualTo(128);
+        Mockito.verify(ewsUserPhotoService, Mockito.never()).getMasterPhoto(Mockito.anyString());
+        assertThat(sut.getSpeculativePhotoFetchCount()).isEqualTo(1);
+        assertThat(sut.getDiscardedSpeculativePhotoFetchCount()).isZero();
+    }
+
+    @Test
+    void speculative_fetch_is_cancelled_if_user_has_no_photo() {
+        CompletableFuture<byte[]> pendingPhoto = new CompletableFuture<>();
+        User user = new User();
+        user.setUid("firstname.lastname");
+        user.setEmail("firstname.lastname@example.com");
+        Mockito.when(ewsUserPhotoService.getMasterPhotoSize()).thenReturn(ImageSize.HR648);
+        Mockito.when(ewsUserPhotoService.getUserPhotoFromExchangeAsync("firstname.lastname@example.com", ImageSize.HR648)).thenReturn(pendingPhoto);
+        Mockito.when(directoryLookupService.findUserInDirectory("firstname.lastname")).thenReturn(Optional.of(user));
+        Mockito.when(avatarGenerator.generateAvatar("firstname.lastname", AvatarGenerator.AvatarType.GENERIC, 128)).thenReturn(new byte[] { 1 });
+
+        AvatarService.SpeculativePhotoFetch speculativePhoto = sut.fetchPhotoSpeculatively("firstname.lastname", Mode.M_FALLBACK_GENERIC, 128,
+                "firstname.lastname@example.com");
+        sut.getImage("firstname.lastname", Mode.M_FALLBACK_GENERIC, 128, speculativePhoto);
+
+        assertThat(pendingPhoto).isCancelled();
+        assertThat(sut.getDiscardedSpeculativePhotoFetchCount()).isEqualTo(1);
+    }
+
+    @Test
+    void no_speculative_fetch_for_cached_exchange_photo() throws Exception {
+        byte[] photo = new ClassPathResource("account.png").getContentAsByteArray();
+        ConcurrentMapCache exchangePhotoCache = new ConcurrentMapCache(CacheNames.EXCHANGE_PHOTOS);
+        exchangePhotoCache.put("firstname.lastname@example.com", photo);
+        AvatarService service = AvatarService.builder(avatarGenerator, directoryLookupService, ewsUserPhotoService)
+                .exchangePhotoCache(exchangePhotoCache)
+                .build();
+        User user = new User();
+        user.setUid("firstname.lastname");
+        user.setEmail("firstname.lastname@example.com");
+        user.setThumbnailPhoto(photo);
+        Mockito.when(ewsUserPhotoService.getMasterPhotoSize()).thenReturn(ImageSize.HR648);
+        Mockito.when(directoryLookupService.findUserInDirectory("firstname.lastname")).thenReturn(Optional.of(user));
+
+        assertThat(service.fetchPhotoSpeculatively("firstname.lastname", Mode.M_FALLBACK_GENERIC, 128, "firstname.lastname@example.com")).isNull();
+        byte[] avatar = service.getImage("firstname.lastname", Mode.M_FALLBACK_GENERIC, 128, null).data();
+
+        assertThat(ImageIO.read(new ByteArrayInputStream(avatar)).getWidth()).isEqualTo(128);
+        Mockito.verify(ewsUserPhotoService, Mockito.never()).getMasterPhoto(Mockito.anyString());
+        Mockito.verify(ewsUserPhotoService, Mockito.never()).getUserPhotoFromExchangeAsync(Mockito.anyString(), Mockito.any());
+    }
+
+    @Test
+    void speculatively_fetched_photo_is_cached_as_exchange_photo() throws Exception {
+        byte[] photo = new ClassPathResource("account.png").getContentAsByteArray();
+        ConcurrentMapCache exchangePhotoCache = new ConcurrentMapCache(CacheNames.EXCHANGE_PHOTOS);
+        AvatarService service = AvatarService.builder(avatarGenerator, directoryLookupService, ewsUserPhotoService)
+                .exchangePhotoCache(exchangePhotoCache)
+                .build();
+        User user = new User();
+        user.setUid("firstname.lastname");
+        user.setEmail("firstname.lastname@example.com");
+        user.setThumbnailPhoto(photo);
+        Mockito.when(ewsUserPhotoService.getMasterPhotoSize()).thenReturn(ImageSize.HR648);
+        Mockito.when(ewsUserPhotoService.getUserPhotoFromExchangeAsync("firstname.lastname@example.com", ImageSize.HR648))
+                .thenReturn(CompletableFuture.completedFuture(photo));
+        Mockito.when(directoryLookupService.findUserInDirectory("firstname.lastname")).thenReturn(Optional.of(user));
+
+        AvatarService.SpeculativePhotoFetch speculativePhoto = service.fetchPhotoSpeculatively("firstname.lastname", Mode.M_FALLBACK_GENERIC,
+                128, "firstname.lastname@example.com");
+        service.getImage("firstname.lastname", Mode.M_FALLBACK_GENERIC, 128, speculativePhoto);
+
+        assertThat(exchangePhotoCache.get("firstname.lastname@example.com", byte[].class)).isEqualTo(photo);
+        Mockito.verify(ewsUserPhotoService, Mockito.never()).getMasterPhoto(Mockito.anyString());
+    }
+
+    @Test
+    void no_speculative_fetch_for_thumbnail_sizes() {
+        assertThat(sut.fetchPhotoSpeculatively("firstname.lastname", Mode.M_FALLBACK_GENERIC, 64, "firstname.lastname@example.com")).isNull();
+        Mockito.verifyNoInteractions(ewsUserPhotoService);
+    }
 }
@@ -0,0 +1,170 @@
+/*
+ * The MIT License
+ * Copyright © 2022 Landeshauptstadt München | it@M
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.muenchen.oss.ad2image.spring;
+
+import de.muenchen.oss.ad2image.starter.core.AdConfigurationProperties;
+import de.muenchen.oss.ad2image.starter.core.AvatarGenerator;
+import de.muenchen.oss.ad2image.starter.core.BackgroundRefresher;
+import de.muenchen.oss.ad2image.starter.core.CacheNames;
+import de.muenchen.oss.ad2image.starter.core.DirectoryLookupService;
+import de.muenchen.oss.ad2image.starter.core.EwsUserPhotoService;
+import de.muenchen.oss.ad2image.starter.core.Mode;
+import de.muenchen.oss.ad2image.starter.core.User;
+import de.muenchen.oss.ad2image.starter.spring.AvatarService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.query.LdapQuery;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class DirectoryLookupServiceCachingTest {
+
+    private AnnotationConfigApplicationContext context;
+
+    private LdapTemplate ldapTemplate;
+
+    private DirectoryLookupService sut;
+
+    private CacheManager cacheManager;
+
+    @BeforeEach
+    void setup() {
+        context = new AnnotationConfigApplicationContext(CachingConfiguration.class);
+        ldapTemplate = context.getBean(LdapTemplate.class);
+        sut = context.getBean(DirectoryLookupService.class);
+        cacheManager = context.getBean(CacheManager.class);
+        User user = new User();
+        user.setUid("maxi.mustermann");
+        Mockito.when(ldapTemplate.search(ArgumentMatchers.any(LdapQuery.class), ArgumentMatchers.<AttributesMapper<User>>any())).thenReturn(List.of(user));
+    }
+
+    @AfterEach
+    void shutdown() {
+        context.close();
+    }
+
+    @Test
+    void lookup_without_photo_uses_cached_complete_entry() {
+        sut.findUserInDirectory("maxi.mustermann");
+        sut.findUserWithoutPhoto("maxi.mustermann");
+
+        Mockito.verify(ldapTemplate, Mockito.times(1)).search(ArgumentMatchers.any(LdapQuery.class), ArgumentMatchers.<AttributesMapper<User>>any());
+        assertThat(cacheManager.getCache(CacheNames.DIRECTORY_ENTRIES).get(DirectoryLookupService.withoutPhotoKey("maxi.mustermann"))).isNull();
+    }
+
+    @Test
+    void entry_without_photo_is_cached_separately() {
+        sut.findUserWithoutPhoto("maxi.mustermann");
+        sut.findUserWithoutPhoto("maxi.mustermann");
+        assertThat(cacheManager.getCache(CacheNames.DIRECTORY_ENTRIES).get("maxi.mustermann")).isNull();
+
+        sut.findUserInDirectory("maxi.mustermann");
+
+        Mockito.verify(ldapTemplate, Mockito.times(2)).search(ArgumentMatchers.any(LdapQuery.class), ArgumentMatchers.<AttributesMapper<User>>any());
+        assertThat(cacheManager.getCache(CacheNames.DIRECTORY_ENTRIES).get("maxi.mustermann")).isNotNull();
+    }
+
+    @Test
+    void avatars_in_other_sizes_and_modes_reuse_cached_entry() {
+        AvatarGenerator avatarGenerator = Mockito.mock(AvatarGenerator.class);
+        Mockito.when(avatarGenerator.generateAvatar(ArgumentMatchers.eq("maxi.mustermann"), ArgumentMatchers.any(), ArgumentMatchers.anyInt()))
+                .thenReturn(new byte[] { 1 });
+        AvatarService avatarService = new AvatarService(avatarGenerator, sut, Mockito.mock(EwsUserPhotoService.class));
+
+        avatarService.getImage("maxi.mustermann", Mode.M_GENERIC, 64);
+        avatarService.getImage("maxi.mustermann", Mode.M_GENERIC, 32);
+        avatarService.getImage("maxi.mustermann", Mode.M_IDENTICON, 64);
+
+        Mockito.verify(ldapTemplate, Mockito.times(1)).search(ArgumentMatchers.any(LdapQuery.class), ArgumentMatchers.<AttributesMapper<User>>any());
+        Mockito.verify(avatarGenerator, Mockito.times(3)).generateAvatar(ArgumentMatchers.eq("maxi.mustermann"), ArgumentMatchers.any(),
+                ArgumentMatchers.anyInt());
+    }
+
+    @Test
+    void refresh_renders_changed_directory_entry() throws Exception {
+        byte[] photo = new ClassPathResource("account.png").getContentAsByteArray();
+        User changedUser = new User();
+        changedUser.setUid("maxi.mustermann");
+        changedUser.setThumbnailPhoto(photo);
+        Mockito.when(ldapTemplate.search(ArgumentMatchers.any(LdapQuery.class), ArgumentMatchers.<AttributesMapper<User>>any()))
+                .thenReturn(List.of(new User()), List.of(changedUser));
+        AvatarGenerator avatarGenerator = Mockito.mock(AvatarGenerator.class);
+        Mockito.when(avatarGenerator.generateAvatar("maxi.mustermann", AvatarGenerator.AvatarType.GENERIC, 64)).thenReturn(new byte[] { 1 });
+
+        try (BackgroundRefresher refresher = new BackgroundRefresher("test-refresh-", 1, 10)) {
+            AvatarService avatarService = AvatarService.builder(avatarGenerator, sut, Mockito.mock(EwsUserPhotoService.class))
+                    .avatarCache(new ConcurrentMapCache(CacheNames.AVATARS))
+                    .avatarRefresher(refresher, Duration.ZERO)
+                    .build();
+
+            assertThat(avatarService.get("maxi.mustermann", Mode.M_GENERIC, 64)).isEqualTo(new byte[] { 1 });
+            await().atMost(10, TimeUnit.SECONDS).untilAsserted(() -> {
+                // the directory entry is still cached, the refresh has to search the directory again
+                assertThat(avatarService.get("maxi.mustermann", Mode.M_GENERIC, 64)).isEqualTo(photo);
+            });
+        }
+        assertThat(sut.findUserInDirectory("maxi.mustermann")).get().extracting(User::getThumbnailPhoto).isEqualTo(photo);
+    }
+
+    @Configuration
+    @EnableCaching
+    static class CachingConfiguration {
+
+        @Bean
+        CacheManager cacheManager() {
+            return new ConcurrentMapCacheManager(CacheNames.DIRECTORY_ENTRIES, CacheNames.DIRECTORY_MISSES);
+        }
+
+        @Bean
+        LdapTemplate ldapTemplate() {
+            return Mockito.mock(LdapTemplate.class);
+        }
+
+        @Bean
+        DirectoryLookupService directoryLookupService(LdapTemplate ldapTemplate) {
+            AdConfigurationProperties adConf = new AdConfigurationProperties();
+            adConf.setUserSearchBase("ou=Users,dc=example,dc=com");
+            return new DirectoryLookupService(ldapTemplate, adConf);
+        }
+
+    }
+
+}